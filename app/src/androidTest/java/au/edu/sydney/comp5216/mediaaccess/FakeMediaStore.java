@@ -0,0 +1,151 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.provider.MediaStore;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in for the MediaStore's images table, seeded with a fixed number of rows, so the
+ * gallery queries can be benchmarked without depending on the photos on the device.
+ *
+ * It understands the queries the app makes: all rows, rows modified since a time, and a page
+ * after a key, with a LIMIT and OFFSET either in the sort order or in the query arguments.
+ * Rows are always returned newest first.
+ */
+public class FakeMediaStore extends MockContentProvider {
+
+    private final List<MediaItem> rows;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param count number of images to seed
+     */
+    public FakeMediaStore(int count) {
+        rows = new ArrayList<>(count);
+        long now = 1600000000000L;
+        for (int i = 0; i < count; i++) {
+            //Newest first, a minute apart
+            long taken = now - i * 60000L;
+            rows.add(new MediaItem(count - i, "/sdcard/DCIM/Camera/IMG_" + i + ".jpg",
+                    taken / 1000, taken));
+        }
+    }
+
+    /**
+     * Returns a context whose ContentResolver reads from this store, with its own files
+     * directory so the app's media index is left alone.
+     * @param base
+     * @return
+     */
+    public Context wrap(Context base) {
+        final MockContentResolver resolver = new MockContentResolver(base);
+        resolver.addProvider(MediaStore.AUTHORITY, this);
+        final File filesDir = new File(base.getCacheDir(), "fake_media_store");
+        filesDir.mkdirs();
+        return new ContextWrapper(base) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+
+            @Override
+            public File getFilesDir() {
+                return filesDir;
+            }
+        };
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        int limit = Integer.MAX_VALUE;
+        int offset = 0;
+        if (sortOrder != null && sortOrder.contains(" LIMIT ")) {
+            String[] words = sortOrder.substring(sortOrder.indexOf(" LIMIT ")).trim().split(" ");
+            limit = Integer.parseInt(words[1]);
+            offset = Integer.parseInt(words[3]);
+        }
+        return query(projection, selection, selectionArgs, limit, offset);
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, Bundle args, CancellationSignal signal) {
+        if (args == null)
+            return query(projection, null, null, Integer.MAX_VALUE, 0);
+        return query(projection, args.getString(ContentResolver.QUERY_ARG_SQL_SELECTION),
+                args.getStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS),
+                args.getInt(ContentResolver.QUERY_ARG_LIMIT, Integer.MAX_VALUE),
+                args.getInt(ContentResolver.QUERY_ARG_OFFSET, 0));
+    }
+
+    /**
+     * Answers MediaStore.getVersion, which the index checks on Q and later.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        Bundle out = new Bundle();
+        out.putString(Intent.EXTRA_TEXT, "benchmark");
+        return out;
+    }
+
+    private Cursor query(String[] projection, String selection, String[] selectionArgs,
+                         int limit, int offset) {
+        MatrixCursor cursor = new MatrixCursor(projection);
+        Object[] values = new Object[projection.length];
+        int skipped = 0;
+        int added = 0;
+        for (MediaItem row : rows) {
+            if (!matches(row, selection, selectionArgs))
+                continue;
+            if (skipped++ < offset)
+                continue;
+            if (added++ >= limit)
+                break;
+            for (int i = 0; i < projection.length; i++)
+                values[i] = column(row, projection[i]);
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    private static boolean matches(MediaItem row, String selection, String[] args) {
+        if (selection == null)
+            return true;
+        if (selection.startsWith(MediaStore.MediaColumns.DATE_MODIFIED + " >= ?"))
+            return row.getDateModified() >= Long.parseLong(args[0]);
+        //A page after the key {date taken, date taken, id}
+        long taken = Long.parseLong(args[0]);
+        long id = Long.parseLong(args[2]);
+        return row.getDateTaken() < taken || (row.getDateTaken() == taken && row.getId() < id);
+    }
+
+    private static Object column(MediaItem row, String name) {
+        if (MediaStore.MediaColumns._ID.equals(name))
+            return row.getId();
+        if (MediaStore.MediaColumns.DATA.equals(name))
+            return row.getPath();
+        if (MediaStore.MediaColumns.DATE_MODIFIED.equals(name))
+            return row.getDateModified();
+        if (MediaStore.Images.Media.DATE_TAKEN.equals(name))
+            return row.getDateTaken();
+        return null;
+    }
+}
@@ -0,0 +1,102 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.content.Context;
+import android.widget.FrameLayout;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.annotation.UiThreadTest;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks of reading the gallery from a seeded fake MediaStore and of binding its cells.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GalleryBenchmark {
+
+    private static final int IMAGES = 5000;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        Context base = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context = new FakeMediaStore(IMAGES).wrap(base);
+    }
+
+    /**
+     * Times listOfImages once the index is up to date, as on every synchronisation after the first.
+     */
+    @Test
+    public void listOfImages() {
+        assertEquals(IMAGES, ImagesGallery.listOfImages(context).size());
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            ImagesGallery.listOfImages(context);
+        }
+    }
+
+    @Test
+    public void loadFirstPage() {
+        MediaStorePageLoader loader = new MediaStorePageLoader(context.getContentResolver());
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            loader.loadPage(null, 0, MediaPager.DEFAULT_PAGE_SIZE);
+        }
+    }
+
+    @Test
+    public void loadPageAfterKey() {
+        MediaStorePageLoader loader = new MediaStorePageLoader(context.getContentResolver());
+        List<MediaItem> first = loader.loadPage(null, 0, MediaPager.DEFAULT_PAGE_SIZE);
+        MediaItem after = first.get(first.size() - 1);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            loader.loadPage(after, MediaPager.DEFAULT_PAGE_SIZE, MediaPager.DEFAULT_PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Times binding a cell to a loaded image, including queueing its thumbnail load.
+     */
+    @Test
+    @UiThreadTest
+    public void bindViewHolder() {
+        MediaPager pager = new MediaPager(new MediaStorePageLoader(context.getContentResolver()),
+                MediaPager.DEFAULT_PAGE_SIZE, MediaPager.DEFAULT_MAX_PAGES, DIRECT, DIRECT);
+        pager.refresh();
+        GalleryAdapter adapter = new GalleryAdapter(context, pager, new GalleryAdapter.PhotoListener() {
+            @Override
+            public void onPhotoClick(String path) {
+            }
+        });
+        GalleryAdapter.ViewHolder holder = adapter.onCreateViewHolder(new FrameLayout(context), 0);
+        int position = 0;
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            adapter.onBindViewHolder(holder, position);
+            position = (position + 1) % MediaPager.DEFAULT_PAGE_SIZE;
+        }
+    }
+}
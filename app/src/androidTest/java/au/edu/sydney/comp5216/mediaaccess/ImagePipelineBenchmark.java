@@ -0,0 +1,127 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Benchmarks of rotating and compressing a captured photo, on the device, for several photo
+ * sizes and JPEG qualities.
+ */
+@RunWith(Parameterized.class)
+public class ImagePipelineBenchmark {
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int width;
+    private final int height;
+    private final int quality;
+    private Bitmap photo;
+    private BitmapPool pool;
+    private ReusableByteArrayOutputStream out;
+
+    /**
+     * Returns each photo size with each quality.
+     * @return
+     */
+    @Parameterized.Parameters(name = "{0}x{1} q{2}")
+    public static Collection<Object[]> parameters() {
+        int[][] sizes = {{640, 480}, {1920, 1080}, {3264, 2448}};
+        int[] qualities = {50, 85, 95};
+        List<Object[]> parameters = new ArrayList<>();
+        for (int[] size : sizes) {
+            for (int quality : qualities)
+                parameters.add(new Object[] {size[0], size[1], quality});
+        }
+        return parameters;
+    }
+
+    /**
+     * Constructor to set appropriate values.
+     * @param width
+     * @param height
+     * @param quality
+     */
+    public ImagePipelineBenchmark(int width, int height, int quality) {
+        this.width = width;
+        this.height = height;
+        this.quality = quality;
+    }
+
+    @Before
+    public void setUp() {
+        photo = syntheticPhoto(width, height);
+        pool = new BitmapPool(BitmapPool.DEFAULT_MAX_BYTES);
+        out = new ReusableByteArrayOutputStream(width * height);
+    }
+
+    @After
+    public void tearDown() {
+        photo.recycle();
+        pool.trimTo(0);
+    }
+
+    @Test
+    public void rotateBitmap() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            Bitmap rotated = CameraActivity.rotateBitmap(photo, 90);
+            state.pauseTiming();
+            rotated.recycle();
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void rotateBitmapPooled() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            Bitmap rotated = CameraActivity.rotateBitmap(photo, 90, pool);
+            pool.release(rotated);
+        }
+    }
+
+    @Test
+    public void compressJpeg() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            out.reset();
+            photo.compress(Bitmap.CompressFormat.JPEG, quality, out);
+        }
+    }
+
+    /**
+     * Draws a photo with gradients and edges, which compresses more like a real photo than
+     * a flat colour does.
+     */
+    private static Bitmap syntheticPhoto(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        for (int y = 0; y < height; y += 8) {
+            paint.setColor(Color.rgb(y * 255 / height, 128, 255 - y * 255 / height));
+            canvas.drawRect(0, y, width, y + 8, paint);
+        }
+        for (int i = 0; i < 200; i++) {
+            paint.setColor(Color.HSVToColor(new float[] {i * 7 % 360, 0.8f, 0.9f}));
+            canvas.drawCircle((i * 7919) % width, (i * 104729) % height, 10 + i % 60, paint);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,179 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * JPEG encoder that picks the highest quality whose output fits a byte budget, by a bounded
+ * binary search over quality, instead of always compressing at one fixed quality.
+ * If even the quality floor is over budget the floor is used.
+ *
+ * Attempts are written into two reusable output buffers, one holding the best fit so far and
+ * one for the current attempt, so an encode allocates nothing once the buffers have grown.
+ * The buffers can be released between encodes, and are allocated again by the next one.
+ * An encoder is not thread safe, and its result is only valid until the next encode.
+ */
+public class AdaptiveJpegEncoder {
+
+    private final int targetBytes;
+    private final int minQuality;
+    private final int maxQuality;
+    private final int maxAttempts;
+
+    private ReusableByteArrayOutputStream best;
+    private ReusableByteArrayOutputStream attempt;
+    private int quality;
+    private int attempts;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param targetBytes largest acceptable output size
+     * @param minQuality quality floor, used even if it does not fit the budget
+     * @param maxQuality quality tried first
+     * @param maxAttempts most compressions made while searching, plus one at the floor if none fit
+     */
+    public AdaptiveJpegEncoder(int targetBytes, int minQuality, int maxQuality, int maxAttempts) {
+        if (minQuality < 0 || maxQuality > 100 || minQuality > maxQuality)
+            throw new IllegalArgumentException("Invalid quality range " + minQuality + "-" + maxQuality);
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        this.targetBytes = targetBytes;
+        this.minQuality = minQuality;
+        this.maxQuality = maxQuality;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Encodes a bitmap as JPEG.
+     * @param bitmap
+     * @return the encoded bytes, valid until the next encode
+     * @throws IOException
+     */
+    public ReusableByteArrayOutputStream encode(final Bitmap bitmap) throws IOException {
+        return encode(new Compressor() {
+            @Override
+            public void compress(int quality, OutputStream out) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out);
+            }
+        });
+    }
+
+    /**
+     * Encodes a YUV image as JPEG.
+     * @param image
+     * @return the encoded bytes, valid until the next encode
+     * @throws IOException
+     */
+    public ReusableByteArrayOutputStream encode(final YuvImage image) throws IOException {
+        final Rect bounds = new Rect(0, 0, image.getWidth(), image.getHeight());
+        return encode(new Compressor() {
+            @Override
+            public void compress(int quality, OutputStream out) {
+                image.compressToJpeg(bounds, quality, out);
+            }
+        });
+    }
+
+    /**
+     * Encodes an image with the given compressor.
+     * @param compressor
+     * @return the encoded bytes, valid until the next encode
+     * @throws IOException
+     */
+    public ReusableByteArrayOutputStream encode(Compressor compressor) throws IOException {
+        if (best == null) {
+            int initialCapacity = Math.max(targetBytes, 1024);
+            best = new ReusableByteArrayOutputStream(initialCapacity);
+            attempt = new ReusableByteArrayOutputStream(initialCapacity);
+        }
+        attempts = 0;
+        quality = -1;
+
+        //Most images fit at the top quality, which then needs only one attempt
+        if (tryQuality(compressor, maxQuality))
+            return best;
+
+        //Otherwise find the highest quality that fits within the remaining attempts
+        int low = minQuality;
+        int high = maxQuality - 1;
+        while (low <= high && attempts < maxAttempts) {
+            int mid = (low + high) >>> 1;
+            if (tryQuality(compressor, mid)) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        if (quality == -1) {
+            //Nothing fitted, fall back to the floor
+            best.reset();
+            compressor.compress(minQuality, best);
+            attempts++;
+            quality = minQuality;
+        }
+        return best;
+    }
+
+    /**
+     * Drops the output buffers, e.g. once the last result has been saved. A result returned
+     * earlier stays valid, and the next encode allocates new buffers.
+     */
+    public void release() {
+        best = null;
+        attempt = null;
+    }
+
+    /**
+     * Returns the number of bytes allocated in the output buffers.
+     * @return
+     */
+    public long getResidentBytes() {
+        return best == null ? 0 : (long) best.capacity() + attempt.capacity();
+    }
+
+    /**
+     * Returns the quality of the last encode.
+     * @return
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * Returns the number of compressions made by the last encode.
+     * @return
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Compresses at the given quality, keeping the result if it fits and beats the best so far.
+     */
+    private boolean tryQuality(Compressor compressor, int candidate) throws IOException {
+        attempt.reset();
+        compressor.compress(candidate, attempt);
+        attempts++;
+        if (attempt.size() > targetBytes)
+            return false;
+        if (candidate > quality) {
+            ReusableByteArrayOutputStream swap = best;
+            best = attempt;
+            attempt = swap;
+            quality = candidate;
+        }
+        return true;
+    }
+
+    /**
+     * Compresses an image at a given quality.
+     */
+    public interface Compressor {
+        void compress(int quality, OutputStream out) throws IOException;
+    }
+}
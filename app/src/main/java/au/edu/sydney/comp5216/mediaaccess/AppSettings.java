@@ -0,0 +1,116 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * The modes the user can switch in the settings dialog, stored in SharedPreferences so they
+ * last between runs and are seen by every activity.
+ *
+ * Each setting is a boolean with a default used until the user changes it. KEYS and LABELS
+ * list them in the order the dialog shows them.
+ */
+public class AppSettings {
+
+    private static final String FILE_NAME = "settings";
+
+    // Save the sensor's JPEG as it is instead of decoding, rotating and compressing it again
+    public static final String SAVE_SENSOR_JPEG = "save_sensor_jpeg";
+    // Capture YUV frames and rotate them before the only encode, when the JPEG is not kept
+    public static final String CAPTURE_YUV = "capture_yuv";
+    // Pack small photos into bundles, uploading each bundle as one object
+    public static final String BATCH_UPLOADS = "batch_uploads";
+    // Skip photos that look nearly the same as one already uploaded or queued, e.g. the
+    // frames of a burst, instead of only counting them
+    public static final String SKIP_NEAR_DUPLICATES = "skip_near_duplicates";
+
+    static final String[] KEYS = {SAVE_SENSOR_JPEG, CAPTURE_YUV, BATCH_UPLOADS,
+            SKIP_NEAR_DUPLICATES};
+    static final String[] LABELS = {"Save the camera's JPEG without re-encoding",
+            "Capture uncompressed frames when re-encoding",
+            "Upload small photos in bundles",
+            "Skip photos that look almost the same as uploaded ones"};
+
+    private static AppSettings instance;
+
+    private final SharedPreferences preferences;
+
+    /**
+     * Returns the settings shared by the app.
+     * @param context
+     * @return
+     */
+    public static synchronized AppSettings getInstance(Context context) {
+        if (instance == null) {
+            instance = new AppSettings(context.getApplicationContext()
+                    .getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE));
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor to set appropriate values.
+     * @param preferences
+     */
+    AppSettings(SharedPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    /**
+     * Returns the value of a setting, or its default if the user has not changed it.
+     * @param key
+     * @return
+     */
+    public boolean get(String key) {
+        return preferences.getBoolean(key, defaultOf(key));
+    }
+
+    /**
+     * Changes a setting.
+     * @param key
+     * @param value
+     */
+    public void set(String key, boolean value) {
+        preferences.edit().putBoolean(key, value).apply();
+    }
+
+    /**
+     * Returns the current value of every setting, in the order of KEYS.
+     * @return
+     */
+    public boolean[] getAll() {
+        boolean[] values = new boolean[KEYS.length];
+        for (int i = 0; i < KEYS.length; i++)
+            values[i] = get(KEYS[i]);
+        return values;
+    }
+
+    public boolean isSaveSensorJpeg() {
+        return get(SAVE_SENSOR_JPEG);
+    }
+
+    public boolean isCaptureYuv() {
+        return get(CAPTURE_YUV);
+    }
+
+    public boolean isBatchUploads() {
+        return get(BATCH_UPLOADS);
+    }
+
+    public boolean isSkipNearDuplicates() {
+        return get(SKIP_NEAR_DUPLICATES);
+    }
+
+    private static boolean defaultOf(String key) {
+        switch (key) {
+            case SAVE_SENSOR_JPEG:
+                return true;
+            case CAPTURE_YUV:
+            case BATCH_UPLOADS:
+            case SKIP_NEAR_DUPLICATES:
+                return false;
+            default:
+                throw new IllegalArgumentException("Unknown setting " + key);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pool of mutable Bitmaps keyed by width, height and config, so repeated captures decode into
+ * and draw onto the same Bitmaps instead of allocating new ones for every shot.
+ * The pool holds at most maxBytes of free Bitmaps, evicting the least recently released first.
+ */
+public class BitmapPool implements MemoryManager.Trimmable {
+
+    public static final int DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    private static BitmapPool instance;
+
+    // Access ordered, so the first key is the least recently used
+    private final LinkedHashMap<String, Deque<Bitmap>> free = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxBytes;
+    private long residentBytes;
+
+    /**
+     * Returns the pool shared by the capture pipeline.
+     * @return
+     */
+    public static synchronized BitmapPool getInstance() {
+        if (instance == null) {
+            instance = new BitmapPool(DEFAULT_MAX_BYTES);
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor to set appropriate values.
+     * @param maxBytes most bytes held in free Bitmaps
+     */
+    public BitmapPool(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a mutable Bitmap of the given size and config, reusing a free one if there is one.
+     * Its pixels are not cleared.
+     * @param width
+     * @param height
+     * @param config
+     * @return
+     */
+    public synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+        String key = key(width, height, config);
+        Deque<Bitmap> bitmaps = free.get(key);
+        if (bitmaps != null && !bitmaps.isEmpty()) {
+            Bitmap bitmap = bitmaps.pop();
+            if (bitmaps.isEmpty())
+                free.remove(key);
+            residentBytes -= bitmap.getAllocationByteCount();
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Returns a Bitmap to the pool. The caller must not use it afterwards.
+     * @param bitmap
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable())
+            return;
+        if (bitmap.getAllocationByteCount() > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        String key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        Deque<Bitmap> bitmaps = free.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            free.put(key, bitmaps);
+        }
+        bitmaps.push(bitmap);
+        residentBytes += bitmap.getAllocationByteCount();
+        trimTo(maxBytes);
+    }
+
+    /**
+     * Decodes a JPEG held in the first length bytes of data into a pooled Bitmap, through
+     * BitmapFactory.Options.inBitmap. Release the result back to the pool when done with it.
+     * @param data
+     * @param length
+     * @return
+     */
+    public Bitmap decode(byte[] data, int length) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = acquire(options.outWidth, options.outHeight, Bitmap.Config.ARGB_8888);
+        try {
+            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+            //A corrupt JPEG decodes to null, leaving the pooled Bitmap unused
+            if (bitmap == null)
+                release(options.inBitmap);
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            //The pooled Bitmap could not be reused, so decode into a new one
+            release(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, length, options);
+        }
+    }
+
+    /**
+     * Recycles pooled Bitmaps, least recently released first, until at most the given number
+     * of bytes are held.
+     * @param bytes
+     */
+    @Override
+    public synchronized void trimTo(long bytes) {
+        Iterator<Map.Entry<String, Deque<Bitmap>>> it = free.entrySet().iterator();
+        while (residentBytes > bytes && it.hasNext()) {
+            Deque<Bitmap> bitmaps = it.next().getValue();
+            while (residentBytes > bytes && !bitmaps.isEmpty()) {
+                Bitmap bitmap = bitmaps.removeLast();
+                residentBytes -= bitmap.getAllocationByteCount();
+                bitmap.recycle();
+            }
+            if (bitmaps.isEmpty())
+                it.remove();
+        }
+    }
+
+    /**
+     * Returns the number of bytes held in free Bitmaps.
+     * @return
+     */
+    @Override
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    private static String key(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+}
@@ -0,0 +1,135 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Burkhard-Keller tree of 64 bit hashes under Hamming distance, for finding every hash within
+ * a distance of another without comparing against them all.
+ *
+ * Each child is stored under its distance from its parent, and by the triangle inequality a
+ * search within d of a hash h only needs to descend into the children whose distance differs
+ * from distance(h, parent) by at most d. Values added with an equal hash share a node.
+ * @param <T> the values stored with the hashes
+ */
+public class BkTree<T> {
+
+    private Node<T> root;
+    private int size;
+
+    /**
+     * Adds a value under a hash.
+     * @param hash
+     * @param value
+     */
+    public void add(long hash, T value) {
+        size++;
+        if (root == null) {
+            root = new Node<>(hash);
+            root.values.add(value);
+            return;
+        }
+        Node<T> node = root;
+        while (true) {
+            int distance = PerceptualHash.distance(hash, node.hash);
+            if (distance == 0) {
+                node.values.add(value);
+                return;
+            }
+            Node<T> child = node.children.get(distance);
+            if (child == null) {
+                child = new Node<>(hash);
+                child.values.add(value);
+                node.children.put(distance, child);
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Returns the values whose hashes are within a distance of the given hash, nearest first.
+     * @param hash
+     * @param maxDistance
+     * @return
+     */
+    public List<Match<T>> search(long hash, int maxDistance) {
+        List<Match<T>> matches = new ArrayList<>();
+        if (root == null)
+            return matches;
+        Deque<Node<T>> nodes = new ArrayDeque<>();
+        nodes.push(root);
+        while (!nodes.isEmpty()) {
+            Node<T> node = nodes.pop();
+            int distance = PerceptualHash.distance(hash, node.hash);
+            if (distance <= maxDistance) {
+                for (T value : node.values)
+                    matches.add(new Match<>(value, node.hash, distance));
+            }
+            for (Map.Entry<Integer, Node<T>> child : node.children.entrySet()) {
+                if (Math.abs(child.getKey() - distance) <= maxDistance)
+                    nodes.push(child.getValue());
+            }
+        }
+        Collections.sort(matches, new Comparator<Match<T>>() {
+            @Override
+            public int compare(Match<T> a, Match<T> b) {
+                return a.distance - b.distance;
+            }
+        });
+        return matches;
+    }
+
+    /**
+     * Returns the number of values added.
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A value found by a search, with how far its hash is from the one searched for.
+     * @param <T>
+     */
+    public static class Match<T> {
+        private final T value;
+        private final long hash;
+        private final int distance;
+
+        Match(T value, long hash, int distance) {
+            this.value = value;
+            this.hash = hash;
+            this.distance = distance;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+
+        public int getDistance() {
+            return distance;
+        }
+    }
+
+    private static class Node<T> {
+        final long hash;
+        final List<T> values = new ArrayList<>(1);
+        // Children by their distance from this node, at most 64 of them
+        final Map<Integer, Node<T>> children = new HashMap<>();
+
+        Node(long hash) {
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of byte arrays keyed by size, so the capture pipeline can reuse buffers between shots
+ * instead of allocating a new one for every image.
+ *
+ * Arrays are handed out in power of two size classes, so a buffer released after one capture
+ * fits the next capture of a similar size. The pool holds at most maxBytes of free arrays.
+ */
+public class BufferPool implements MemoryManager.Trimmable {
+
+    public static final int DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    private static final int MIN_SIZE_CLASS = 4 * 1024;
+
+    private static BufferPool instance;
+
+    private final TreeMap<Integer, Deque<byte[]>> free = new TreeMap<>();
+    private int maxBytes;
+    private long residentBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Returns the pool shared by the capture pipeline.
+     * @return
+     */
+    public static synchronized BufferPool getInstance() {
+        if (instance == null) {
+            instance = new BufferPool(DEFAULT_MAX_BYTES);
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor to set appropriate values.
+     * @param maxBytes most bytes held in free arrays
+     */
+    public BufferPool(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns an array of at least the given size, reusing a free one if there is one.
+     * The array's contents are not cleared.
+     * @param minSize
+     * @return
+     */
+    public synchronized byte[] acquire(int minSize) {
+        int size = sizeClass(minSize);
+        Map.Entry<Integer, Deque<byte[]>> entry = free.ceilingEntry(size);
+        //Only reuse arrays up to twice the size needed so large buffers are not wasted
+        if (entry != null && entry.getKey() <= size * 2) {
+            byte[] buffer = entry.getValue().pop();
+            if (entry.getValue().isEmpty())
+                free.remove(entry.getKey());
+            residentBytes -= buffer.length;
+            hits++;
+            return buffer;
+        }
+        misses++;
+        return new byte[size];
+    }
+
+    /**
+     * Returns an array to the pool. The caller must not use it afterwards.
+     * @param buffer
+     */
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null || buffer.length > maxBytes)
+            return;
+        Deque<byte[]> arrays = free.get(buffer.length);
+        if (arrays == null) {
+            arrays = new ArrayDeque<>();
+            free.put(buffer.length, arrays);
+        }
+        arrays.push(buffer);
+        residentBytes += buffer.length;
+        trimTo(maxBytes);
+    }
+
+    /**
+     * Frees pooled arrays, largest first, until at most the given number of bytes are held.
+     * @param bytes
+     */
+    @Override
+    public synchronized void trimTo(long bytes) {
+        while (residentBytes > bytes && !free.isEmpty()) {
+            Map.Entry<Integer, Deque<byte[]>> largest = free.lastEntry();
+            largest.getValue().pop();
+            residentBytes -= largest.getKey();
+            if (largest.getValue().isEmpty())
+                free.remove(largest.getKey());
+        }
+    }
+
+    /**
+     * Returns the number of bytes held in free arrays.
+     * @return
+     */
+    @Override
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * Returns the number of acquires served from the pool.
+     * @return
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of acquires that had to allocate.
+     * @return
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Rounds a size up to its power of two size class.
+     */
+    static int sizeClass(int size) {
+        if (size <= MIN_SIZE_CLASS)
+            return MIN_SIZE_CLASS;
+        int highest = Integer.highestOneBit(size);
+        return highest == size ? size : highest << 1;
+    }
+}
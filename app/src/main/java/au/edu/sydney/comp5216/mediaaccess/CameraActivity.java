@@ -6,26 +6,31 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.ImageFormat;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
+import android.graphics.YuvImage;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
-import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
 import android.net.Uri;
-import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
 import android.util.Size;
 import android.util.SparseIntArray;
 import android.view.Surface;
@@ -37,23 +42,18 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.firebase.storage.FirebaseStorage;
-import com.google.firebase.storage.OnProgressListener;
-import com.google.firebase.storage.StorageReference;
-import com.google.firebase.storage.UploadTask;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Camera activity class that handles the camera interface, automated synchronisation,
@@ -61,6 +61,11 @@ import java.util.UUID;
  */
 public class CameraActivity extends AppCompatActivity {
 
+    private static final String TAG = "CameraActivity";
+
+    // MediaStore ids of the photos taken, returned to the gallery so it can add just those rows
+    public static final String EXTRA_MEDIA_IDS = "media_ids";
+
     private Button btnCapture;
     private TextureView textureView;
 
@@ -81,10 +86,17 @@ public class CameraActivity extends AppCompatActivity {
     private CameraCaptureSession cameraCaptureSessions;
     private CaptureRequest.Builder captureRequestBuilder;
     private Size imageDimension;
+    private Size jpegDimension;
+    private Surface previewSurface;
+    // Still captures go to this reader, configured in the session alongside the preview
+    private ImageReader stillReader;
+    private volatile long shutterPressedAt;
 
     // File variables
     private File file;
     private ArrayList<Uri> fileUriList;
+    private ArrayList<Long> mediaIds;
+    private MediaStoreWriter mediaStoreWriter;
     private static final int REQUEST_CAMERA_PERMISSION = 200;
     private Handler mBackgroundHandler;
     private HandlerThread mBackgroundThread;
@@ -92,15 +104,53 @@ public class CameraActivity extends AppCompatActivity {
     private ImageView ivPreview;
     private boolean imageTaken = false;
     private byte[] bytes;
-    private byte[] compressed;
-    private Uri filePath;
 
-    //Firebase
-    FirebaseStorage storage;
-    StorageReference storageReference;
+    // Capture settings
+    private static final int SENSOR_JPEG_QUALITY = 50;
+    // Save the sensor's JPEG as it is instead of decoding, rotating and compressing it again.
+    // Read from AppSettings when the activity is created
+    private boolean saveSensorJpeg;
+    // Capture YUV_420_888 frames and rotate them before the only encode, instead of JPEG.
+    // Used when saveSensorJpeg is off, as it saves decoding and compressing a second time.
+    // Read from AppSettings when the activity is created
+    private boolean captureYuv;
+
+    // Re-encoding targets a byte budget rather than a fixed quality
+    private static final int TARGET_JPEG_BYTES = 1024 * 1024;
+    private static final int MIN_JPEG_QUALITY = 40;
+    private static final int MAX_JPEG_QUALITY = 85;
+    private static final int MAX_ENCODE_ATTEMPTS = 5;
+    private final AdaptiveJpegEncoder jpegEncoder = new AdaptiveJpegEncoder(TARGET_JPEG_BYTES,
+            MIN_JPEG_QUALITY, MAX_JPEG_QUALITY, MAX_ENCODE_ATTEMPTS);
+
+    // Photos are captured no larger than needed to fit the upload budget
+    private static final float MAX_CAPTURE_MEGAPIXELS = 8f;
+    private static final float JPEG_BYTES_PER_PIXEL = 0.15f;
+    private final CaptureSizePolicy sizePolicy = new CaptureSizePolicy(MAX_CAPTURE_MEGAPIXELS,
+            TARGET_JPEG_BYTES, JPEG_BYTES_PER_PIXEL);
+
+    // Buffers and Bitmaps are reused between shots rather than allocated for each one
+    private final BufferPool bufferPool = BufferPool.getInstance();
+    private final BitmapPool bitmapPool = BitmapPool.getInstance();
+    private static final Paint ROTATE_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    // Times each stage of saving a photo
+    private final Metrics metrics = Metrics.getInstance();
+
+    // Burst settings. Frames are copied out of the reader at once and saved on the workers;
+    // at most BURST_MAX_IN_FLIGHT copies wait to be saved, which bounds the memory used
+    private static final int BURST_FRAMES = 10;
+    private static final int STILL_READER_IMAGES = 4;
+    private static final int BURST_WORKERS = 2;
+    private static final int BURST_MAX_IN_FLIGHT = 2 * BURST_WORKERS;
+    private final ExecutorService burstExecutor = Executors.newFixedThreadPool(BURST_WORKERS);
+    private final Semaphore burstSlots = new Semaphore(BURST_MAX_IN_FLIGHT);
+    // Frames of the current burst still to arrive at the still reader
+    private final AtomicInteger burstFramesPending = new AtomicInteger();
+    private volatile boolean bursting = false;
 
     /**
-     * Handles the creation of the activity, and initialises Firebase.
+     * Handles the creation of the activity.
      * @param savedInstanceState
      */
     @Override
@@ -114,10 +164,12 @@ public class CameraActivity extends AppCompatActivity {
         assert textureView != null;
         textureView.setSurfaceTextureListener(textureListener);
         fileUriList = new ArrayList<>();
-
-        //Firebase
-        storage = FirebaseStorage.getInstance();
-        storageReference = storage.getReference();
+        mediaIds = new ArrayList<>();
+        mediaStoreWriter = new MediaStoreWriter(getContentResolver());
+        MemoryManager.getInstance(this);
+        AppSettings settings = AppSettings.getInstance(this);
+        saveSensorJpeg = settings.isSaveSensorJpeg();
+        captureYuv = settings.isCaptureYuv();
 
         btnCapture.setOnClickListener(new View.OnClickListener() {
             /**
@@ -136,35 +188,58 @@ public class CameraActivity extends AppCompatActivity {
     }
 
     /**
-     * Method to upload the taken photo as bytes to Firebase.
+     * Method to queue the saved photo for upload to Firebase.
+     * The photo is stored under its content hash, and recorded in the upload manifest so
+     * that the next synchronisation does not upload it again. Uploading from the saved file
+     * rather than from memory lets the upload resume if the app is closed part way through.
      */
     private void uploadImage() {
 
-        if(bytes != null) {
+        if(file.exists()) {
+            final String hash;
+            try {
+                hash = ContentHasher.sha256(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            UploadScheduler scheduler = UploadScheduler.getInstance(this);
             final ProgressDialog progressDialog = new ProgressDialog(this);
             progressDialog.setTitle("Uploading...");
-            progressDialog.show();
+            String waitingFor = scheduler.getWaitingFor();
+            if (waitingFor == null) {
+                progressDialog.show();
+            } else {
+                Toast.makeText(this, "Upload queued, waiting for " + waitingFor,
+                        Toast.LENGTH_SHORT).show();
+            }
 
-            StorageReference ref = storageReference.child("images/"+ UUID.randomUUID().toString());
-            ref.putBytes(compressed).addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
+            final UploadManifest manifest = UploadManifest.open(
+                    new File(getFilesDir(), UploadManifest.FILE_NAME));
+            scheduler.enqueue(UploadManifest.objectName(hash), file,
+                    UploadScheduler.PRIORITY_CAPTURE, new UploadScheduler.UploadListener() {
                 @Override
-                public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
+                public void onProgress(UploadJob job, long bytesTransferred, long totalBytes) {
+                    double progress = (100.0*bytesTransferred/totalBytes);
+                    progressDialog.setMessage("Uploaded "+(int)progress+"%");
+                }
+
+                @Override
+                public void onSuccess(UploadJob job) {
                     progressDialog.dismiss();
+                    try {
+                        manifest.recordHash(hash);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
                     Toast.makeText(CameraActivity.this, "Uploaded", Toast.LENGTH_SHORT).show();
                 }
-            }).addOnFailureListener(new OnFailureListener() {
+
                 @Override
-                public void onFailure(@NonNull Exception e) {
+                public void onFailure(UploadJob job, Exception e) {
                     progressDialog.dismiss();
                     Toast.makeText(CameraActivity.this, "Failed "+e.getMessage(), Toast.LENGTH_SHORT).show();
                 }
-            }).addOnProgressListener(new OnProgressListener<UploadTask.TaskSnapshot>() {
-                @Override
-                public void onProgress(UploadTask.TaskSnapshot taskSnapshot) {
-                    double progress = (100.0*taskSnapshot.getBytesTransferred()/taskSnapshot
-                            .getTotalByteCount());
-                    progressDialog.setMessage("Uploaded "+(int)progress+"%");
-                }
             });
         }
     }
@@ -207,6 +282,19 @@ public class CameraActivity extends AppCompatActivity {
         super.onPause();
     }
 
+    /**
+     * Releases the still reader and burst workers. Frames already queued are still saved.
+     */
+    @Override
+    protected void onDestroy() {
+        if (stillReader != null) {
+            stillReader.close();
+            stillReader = null;
+        }
+        burstExecutor.shutdown();
+        super.onDestroy();
+    }
+
     //Callback objects for receiving updates about the state of a camera device.
     CameraDevice.StateCallback stateCallback = new CameraDevice.StateCallback() {
         @Override
@@ -253,10 +341,21 @@ public class CameraActivity extends AppCompatActivity {
     private void openCamera() {
         CameraManager manager = (CameraManager)getSystemService(Context.CAMERA_SERVICE);
         try {
-            cameraId = manager.getCameraIdList()[1];
+            cameraId = chooseCameraId(manager);
             CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
             StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-            imageDimension = map.getOutputSizes(SurfaceTexture.class)[0];
+
+            //Choose the photo size first, then a preview with the same shape
+            Size[] jpegSizes = map.getOutputSizes(getStillFormat());
+            int still = sizePolicy.chooseStill(toPairs(jpegSizes), textureView.getWidth(),
+                    textureView.getHeight());
+            jpegDimension = still >= 0 ? jpegSizes[still] : new Size(300, 300);
+            Size[] previewSizes = map.getOutputSizes(SurfaceTexture.class);
+            int preview = sizePolicy.choosePreview(toPairs(previewSizes),
+                    textureView.getWidth(), textureView.getHeight(),
+                    new int[] {jpegDimension.getWidth(), jpegDimension.getHeight()});
+            //With no preview sizes listed, ask for the still's, which has the right shape
+            imageDimension = preview >= 0 ? previewSizes[preview] : jpegDimension;
 
             //Check realtime permission if run higher API 23
             if(ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
@@ -274,16 +373,32 @@ public class CameraActivity extends AppCompatActivity {
 
     /**
      * Create the preview of the image from the camera.
+     * The session is configured with the still capture reader as well as the preview, so a
+     * photo is taken from the running session without reconfiguring it or stopping the preview.
      */
     private void createCameraPreview() {
         try {
             SurfaceTexture texture = textureView.getSurfaceTexture();
             assert  texture != null;
             texture.setDefaultBufferSize(imageDimension.getWidth(),imageDimension.getHeight());
-            Surface surface = new Surface(texture);
+            previewSurface = new Surface(texture);
+            if (stillReader != null && (stillReader.getWidth() != getJpegSize().getWidth()
+                    || stillReader.getHeight() != getJpegSize().getHeight()
+                    || stillReader.getImageFormat() != getStillFormat())) {
+                stillReader.close();
+                stillReader = null;
+            }
+            if (stillReader == null) {
+                Size jpegSize = getJpegSize();
+                stillReader = ImageReader.newInstance(jpegSize.getWidth(), jpegSize.getHeight(),
+                        getStillFormat(), STILL_READER_IMAGES);
+            }
+            //The background thread is replaced on resume, so deliver to the current one
+            stillReader.setOnImageAvailableListener(stillListener, mBackgroundHandler);
             captureRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            captureRequestBuilder.addTarget(surface);
-            cameraDevice.createCaptureSession(Arrays.asList(surface), new CameraCaptureSession.StateCallback() {
+            captureRequestBuilder.addTarget(previewSurface);
+            cameraDevice.createCaptureSession(Arrays.asList(previewSurface, stillReader.getSurface()),
+                    new CameraCaptureSession.StateCallback() {
                 @Override
                 public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
                     if(cameraDevice == null)
@@ -324,6 +439,7 @@ public class CameraActivity extends AppCompatActivity {
     public void finish() {
         Intent returnIntent = new Intent();
         returnIntent.putExtra("passed_item", fileUriList);
+        returnIntent.putExtra(EXTRA_MEDIA_IDS, toArray(mediaIds));
         // setResult(RESULT_OK);
         setResult(RESULT_OK, returnIntent); //By not passing the intent in the result, the calling activity will get null data.
         super.finish();
@@ -336,133 +452,512 @@ public class CameraActivity extends AppCompatActivity {
     public void onCameraBackClick(View view){
         Intent data = new Intent();
         data.putExtra("images", fileUriList);
+        data.putExtra(EXTRA_MEDIA_IDS, toArray(mediaIds));
         setResult(RESULT_OK, data);
         finish();
     }
 
+    private static long[] toArray(List<Long> ids) {
+        long[] array = new long[ids.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = ids.get(i);
+        return array;
+    }
+
     /**
      * Handles the event of taking the picture, saving it to the device and compression.
+     * The photo is taken from the session already running the preview.
      */
     private void takePicture() {
-        if (cameraDevice == null)
+        if (cameraDevice == null || cameraCaptureSessions == null || bursting)
             return;
-        CameraManager manager = (CameraManager)getSystemService(Context.CAMERA_SERVICE);
         try {
-            // setup output image format
-            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraDevice.getId());
-            Size[] jpegSizes = null;
-            if(characteristics != null)
-                jpegSizes = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)
-                        .getOutputSizes(ImageFormat.JPEG);
-
-            //Capture image with custom size if unavailable
-            int width = 300;
-            int height = 300;
-            if(jpegSizes != null && jpegSizes.length > 0) {
-                width = jpegSizes[0].getWidth();
-                height = jpegSizes[0].getHeight();
-            }
+            shutterPressedAt = SystemClock.elapsedRealtime();
+            cameraCaptureSessions.capture(createStillRequest().build(), null, mBackgroundHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
 
-            //Setup photo file path to /DCIM/Camera/
-            String path = Environment.getExternalStorageDirectory().getAbsolutePath() + "/DCIM/Camera/";
-            file = new File(path+"/"+UUID.randomUUID().toString()+".jpg");
-            filePath = Uri.parse(path+"/"+UUID.randomUUID().toString()+".jpg");
+    /**
+     * Returns a CaptureRequest Builder for a photo, linking the still reader and the preview
+     * as output Surfaces so the preview keeps running while the photo is taken.
+     * @return
+     * @throws CameraAccessException
+     */
+    private CaptureRequest.Builder createStillRequest() throws CameraAccessException {
+        CaptureRequest.Builder captureBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+        int rotation = getWindowManager().getDefaultDisplay().getRotation(); //get orientation base on device
+        captureBuilder.addTarget(stillReader.getSurface());  //output target
+        captureBuilder.addTarget(previewSurface);
+        captureBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+        captureBuilder.set(CaptureRequest.JPEG_ORIENTATION,ORIENTATIONS.get(rotation));
+        if (saveSensorJpeg) {
+            //The sensor's JPEG is kept as it is, so have it encoded at a modest quality
+            captureBuilder.set(CaptureRequest.JPEG_QUALITY, (byte) SENSOR_JPEG_QUALITY);
+        }
+        return captureBuilder;
+    }
 
-            //Setup Image reader
-            final ImageReader reader = ImageReader.newInstance(width,height,ImageFormat.JPEG,1);
-            ImageReader.OnImageAvailableListener readerListener = new ImageReader.OnImageAvailableListener() {
+    private final ImageReader.OnImageAvailableListener stillListener = new ImageReader.OnImageAvailableListener() {
+
+        /**
+         * Handles the Image, saving it to the device's local storage and uploading it.
+         * The photo is written into a pending MediaStore row, published once complete.
+         * By default the sensor's JPEG is written straight to the file with its
+         * orientation set in EXIF. Otherwise, or if it is over the byte budget, it is
+         * converted to bytes and a bitmapImage, rotated, and compressed again at the
+         * highest quality that fits the budget before saving. The bytes and Bitmaps
+         * come from the shared pools and are returned to them once saved.
+         * YUV frames are rotated and mirrored as NV21 and compressed once.
+         * Frames of a burst are handed to saveBurstFrame instead.
+         * @param imageReader
+         */
+        @Override
+        public void onImageAvailable(ImageReader imageReader) {
+            if (burstFramesPending.get() > 0) {
+                saveBurstFrame(imageReader);
+                burstFrameHandled();
+                return;
+            }
+            Image image = null;
+            try {
+                image = imageReader.acquireNextImage();
+                if (image == null)
+                    return;
+                MediaStoreWriter.Pending photo = mediaStoreWriter.insert();
+                boolean saved = false;
+                try {
+                    image = save(image, photo);
+                    photo.publish();
+                    saved = true;
+                } finally {
+                    if (!saved)
+                        photo.abort();
+                }
+                file = photo.getFile();
+                imageTaken = true;
+                reportShutterLatency(file);
+                added(photo);
+                uploadImage();
+            } catch (FileNotFoundException e) {
+                e.printStackTrace();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                if(image != null)
+                    image.close();
+                //The upload reads the saved file, so the encoder's buffers are not needed
+                jpegEncoder.release();
+            }
+        }
 
-                /**
-                 * Handles the Image, converting it to bytes, bitmapImage,
-                 * handling the compression and saving to the device's local storage.
-                 * @param imageReader
-                 */
-                @Override
-                public void onImageAvailable(ImageReader imageReader) {
-                    Image image = null;
+        /**
+         * Writes the image into the pending photo, in whichever way the capture settings ask.
+         * @param image
+         * @param photo
+         * @return the image if it is still open, for the caller to close, or null
+         * @throws IOException
+         */
+        private Image save(Image image, MediaStoreWriter.Pending photo) throws IOException {
+            ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+            if (image.getFormat() == ImageFormat.YUV_420_888) {
+                int width = image.getWidth();
+                int height = image.getHeight();
+                bytes = toUprightNv21(image);
+                //The frame is copied, so let the reader have its slot back
+                image.close();
+                image = null;
+                try {
+                    save(compress(new YuvImage(bytes, ImageFormat.NV21, height, width, null)), photo);
+                } finally {
+                    bufferPool.release(bytes);
+                    bytes = null;
+                }
+            } else if (saveSensorJpeg && buffer.remaining() <= TARGET_JPEG_BYTES) {
+                Metrics.Timer timer = metrics.start(Metrics.CAPTURE_SAVE);
+                try {
+                    int length = buffer.remaining();
+                    OutputStream out = photo.openOutputStream();
                     try {
-                        image = reader.acquireLatestImage();
-                        ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-                        bytes = new byte[buffer.capacity()];
-                        buffer.get(bytes);
-                        bitmapImage = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, null);
-                        bitmapImage = rotateBitmap(bitmapImage, 90);
-                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                        bitmapImage.compress(Bitmap.CompressFormat.JPEG, 50, baos);
-                        compressed = baos.toByteArray();
-                        save(compressed);
-                        imageTaken = true;
-                        uploadImage();
-                    } catch (FileNotFoundException e) {
-                        e.printStackTrace();
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                        CaptureWriter.write(buffer, out);
                     } finally {
-                        if(image != null)
-                            image.close();
+                        out.close();
                     }
+                    photo.setOrientation(90, true);
+                    timer.stop(length);
+                } finally {
+                    timer.fail();
                 }
-
-                /**
-                 * Saves the image as an OutputStream.
-                 * @param bytes
-                 * @throws IOException
-                 */
-                private void save(byte[] bytes) throws IOException {
-                    OutputStream outputStream = null;
-                    try{
-                        outputStream = new FileOutputStream(file);
-                        outputStream.write(bytes);
-                    }finally {
-                        if(outputStream != null)
-                            outputStream.close();
-                    }
+            } else {
+                int length = buffer.remaining();
+                bytes = bufferPool.acquire(length);
+                buffer.get(bytes, 0, length);
+                Metrics.Timer timer = metrics.start(Metrics.CAPTURE_DECODE);
+                Bitmap decoded;
+                try {
+                    decoded = bitmapPool.decode(bytes, length);
+                    if (decoded != null)
+                        timer.stop(length);
+                } finally {
+                    timer.fail();
                 }
-            };
-            reader.setOnImageAvailableListener(readerListener,mBackgroundHandler);
-
-            //Link Surface to Image reader
-            List<Surface> outputSurface = new ArrayList<>(2);
-            outputSurface.add(reader.getSurface());
-            outputSurface.add(new Surface(textureView.getSurfaceTexture()));
-
-            //Setup CaptureRequest Builder link output Surface(textureView) to CaptureRequest
-            final CaptureRequest.Builder captureBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-            int rotation = getWindowManager().getDefaultDisplay().getRotation(); //get orientation base on device
-            captureBuilder.addTarget(reader.getSurface());  //output target
-            captureBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
-            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION,ORIENTATIONS.get(rotation));
-
-            //Define CaptureCallback
-            final CameraCaptureSession.CaptureCallback captureListener = new CameraCaptureSession.CaptureCallback() {
-                @Override
-                public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) { //when capture() completed
-                    super.onCaptureCompleted(session, request, result);
-                    fileUriList.add(Uri.fromFile(file));
-                    Toast.makeText(CameraActivity.this, "Saved "+ file, Toast.LENGTH_SHORT).show();
+                bufferPool.release(bytes);
+                bytes = null;
+                if (decoded == null)
+                    throw new IOException("Could not decode capture");
+                timer = metrics.start(Metrics.CAPTURE_ROTATE);
+                try {
+                    bitmapImage = rotateBitmap(decoded, 90, bitmapPool);
+                    timer.stop();
+                } finally {
+                    timer.fail();
+                    bitmapPool.release(decoded);
                 }
-            };
-
-            //Create a CaptureSession to get CaptureRequest result image
-            cameraDevice.createCaptureSession(outputSurface, new CameraCaptureSession.StateCallback() {
-                @Override
-                public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {//when configured, do capture()
-                    try {
-                        cameraCaptureSession.capture(captureBuilder.build(),captureListener,mBackgroundHandler);
-                    } catch (CameraAccessException e) {
-                        e.printStackTrace();
-                    }
+                try {
+                    save(compress(bitmapImage), photo);
+                } finally {
+                    bitmapPool.release(bitmapImage);
+                    bitmapImage = null;
                 }
+            }
+            return image;
+        }
 
-                @Override
-                public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
-                }
-            },mBackgroundHandler);
+        /**
+         * Compresses the rotated image within the byte budget.
+         * @param image
+         * @return the encoded bytes, valid until the next encode
+         * @throws IOException
+         */
+        private ReusableByteArrayOutputStream compress(Bitmap image) throws IOException {
+            Metrics.Timer timer = metrics.start(Metrics.CAPTURE_COMPRESS);
+            try {
+                ReusableByteArrayOutputStream encoded = jpegEncoder.encode(image);
+                timer.stop(encoded.size());
+                return encoded;
+            } finally {
+                timer.fail();
+            }
+        }
+
+        /**
+         * Compresses the upright YUV frame within the byte budget.
+         * @param image
+         * @return the encoded bytes, valid until the next encode
+         * @throws IOException
+         */
+        private ReusableByteArrayOutputStream compress(YuvImage image) throws IOException {
+            Metrics.Timer timer = metrics.start(Metrics.CAPTURE_COMPRESS);
+            try {
+                ReusableByteArrayOutputStream encoded = jpegEncoder.encode(image);
+                timer.stop(encoded.size());
+                return encoded;
+            } finally {
+                timer.fail();
+            }
+        }
+
+        /**
+         * Streams the encoded image into the pending photo.
+         * @param encoded
+         * @param photo
+         * @throws IOException
+         */
+        private void save(ReusableByteArrayOutputStream encoded, MediaStoreWriter.Pending photo)
+                throws IOException {
+            Metrics.Timer timer = metrics.start(Metrics.CAPTURE_SAVE);
+            OutputStream outputStream = null;
+            try{
+                outputStream = photo.openOutputStream();
+                encoded.writeTo(outputStream);
+                outputStream.close();
+                outputStream = null;
+                timer.stop(encoded.size());
+            }finally {
+                timer.fail();
+                if(outputStream != null)
+                    outputStream.close();
+            }
+        }
+    };
+
+    /**
+     * Logs and shows the time from pressing the shutter to the photo being written.
+     * @param saved
+     */
+    private void reportShutterLatency(final File saved) {
+        final long latency = SystemClock.elapsedRealtime() - shutterPressedAt;
+        Log.d(TAG, "Shutter to saved: " + latency + " ms");
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(CameraActivity.this, "Saved " + saved + " in " + latency + " ms",
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Returns the format the still reader captures in.
+     * @return
+     */
+    private int getStillFormat() {
+        return captureYuv ? ImageFormat.YUV_420_888 : ImageFormat.JPEG;
+    }
+
+    /**
+     * Copies a YUV_420_888 image into an NV21 array from the pool, rotated 90 degrees and
+     * mirrored as saved photos are, so it is the right way up for a single encode.
+     * @param image
+     * @return the frame, height by width, to be released back to the pool when done with
+     */
+    private byte[] toUprightNv21(Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int size = YuvTransform.nv21Size(height, width);
+        byte[] nv21 = bufferPool.acquire(size);
+        Metrics.Timer timer = metrics.start(Metrics.CAPTURE_CONVERT);
+        try {
+            YuvTransform.toNv21(planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                    planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(),
+                    planes[1].getPixelStride(), width, height, 90, true, nv21);
+            timer.stop(size);
+        } finally {
+            timer.fail();
+        }
+        return nv21;
+    }
+
+    /**
+     * Returns the size of the images captured, as chosen by the size policy when the
+     * camera was opened.
+     * @return
+     */
+    private Size getJpegSize() {
+        //Capture image with custom size if unavailable
+        return jpegDimension != null ? jpegDimension : new Size(300, 300);
+    }
+
+    /**
+     * Returns the id of the front camera, which the orientation and mirroring of saved photos
+     * assume, or the first camera if there is no front camera.
+     * @param manager
+     * @return
+     * @throws CameraAccessException
+     */
+    private static String chooseCameraId(CameraManager manager) throws CameraAccessException {
+        String[] ids = manager.getCameraIdList();
+        for (String id : ids) {
+            Integer facing = manager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT)
+                return id;
+        }
+        return ids[0];
+    }
+
+    /**
+     * Converts sizes to the {width, height} pairs used by the size policy.
+     * @param sizes may be null, as getOutputSizes returns for a format it does not support
+     * @return
+     */
+    private static int[][] toPairs(Size[] sizes) {
+        if (sizes == null)
+            return new int[0][];
+        int[][] pairs = new int[sizes.length][];
+        for (int i = 0; i < sizes.length; i++)
+            pairs[i] = new int[] {sizes[i].getWidth(), sizes[i].getHeight()};
+        return pairs;
+    }
+
+    /**
+     * Records a published photo, to be returned to the gallery.
+     * @param photo
+     */
+    private void added(final MediaStoreWriter.Pending photo) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                fileUriList.add(photo.getUri());
+                mediaIds.add(photo.getId());
+            }
+        });
+    }
+
+    /**
+     * Takes a burst of BURST_FRAMES photos when the "Burst" button is clicked, from the session
+     * already running the preview. The camera stays free to keep shooting while earlier frames
+     * are saved.
+     * @param view
+     */
+    public void onBurstClick(View view) {
+        if (cameraDevice == null || cameraCaptureSessions == null || bursting)
+            return;
+        try {
+            CaptureRequest.Builder burstBuilder = createStillRequest();
+            burstBuilder.set(CaptureRequest.JPEG_QUALITY, (byte) SENSOR_JPEG_QUALITY);
+            CaptureRequest request = burstBuilder.build();
+            List<CaptureRequest> burst = new ArrayList<>(BURST_FRAMES);
+            for (int i = 0; i < BURST_FRAMES; i++)
+                burst.add(request);
+
+            bursting = true;
+            burstFramesPending.set(BURST_FRAMES);
+            cameraCaptureSessions.captureBurst(burst, burstCaptureListener, mBackgroundHandler);
         } catch (CameraAccessException e) {
             e.printStackTrace();
+            burstFramesPending.set(0);
+            bursting = false;
+        }
+    }
+
+    //Counts off the frames of a burst that will not reach the still reader
+    private final CameraCaptureSession.CaptureCallback burstCaptureListener = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            //No image will arrive for this frame
+            if (!failure.wasImageCaptured())
+                burstFrameHandled();
+        }
+
+        @Override
+        public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session, int sequenceId) {
+            burstFramesPending.set(0);
+            endBurst();
+        }
+    };
+
+    /**
+     * Counts off a frame of the burst, handed off to be saved or lost, and allows the next
+     * shot after the last one. Until then a new shot's frame could be taken for a burst frame.
+     * Called on the background thread, as the reader's and the session's callbacks are.
+     */
+    private void burstFrameHandled() {
+        if (burstFramesPending.decrementAndGet() <= 0) {
+            burstFramesPending.set(0);
+            endBurst();
+        }
+    }
+
+    private void endBurst() {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                bursting = false;
+            }
+        });
+    }
+
+    /**
+     * Copies a burst frame out of the reader straight away, so its slot is free for the
+     * next frame, and saves it on a worker. If BURST_MAX_IN_FLIGHT frames are already waiting
+     * this waits for one to be saved, which holds back the camera rather than using more memory.
+     * @param imageReader
+     */
+    private void saveBurstFrame(ImageReader imageReader) {
+        Image image = imageReader.acquireNextImage();
+        if (image == null)
+            return;
+        final byte[] data;
+        final int length;
+        final boolean yuv = image.getFormat() == ImageFormat.YUV_420_888;
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        try {
+            burstSlots.acquireUninterruptibly();
+            if (yuv) {
+                data = toUprightNv21(image);
+                length = YuvTransform.nv21Size(height, width);
+            } else {
+                ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                length = buffer.remaining();
+                data = bufferPool.acquire(length);
+                buffer.get(data, 0, length);
+            }
+        } finally {
+            image.close();
         }
+
+        burstExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    MediaStoreWriter.Pending photo = mediaStoreWriter.insert();
+                    boolean saved = false;
+                    try {
+                        OutputStream out = photo.openOutputStream();
+                        try {
+                            if (yuv) {
+                                writeJpeg(new YuvImage(data, ImageFormat.NV21, height, width, null), out);
+                            } else {
+                                CaptureWriter.write(ByteBuffer.wrap(data, 0, length), out);
+                            }
+                        } finally {
+                            out.close();
+                        }
+                        if (!yuv)
+                            photo.setOrientation(90, true);
+                        photo.publish();
+                        saved = true;
+                    } finally {
+                        if (!saved)
+                            photo.abort();
+                    }
+                    File target = photo.getFile();
+                    queueUpload(target, ContentHasher.sha256(target));
+                    added(photo);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    bufferPool.release(data);
+                    burstSlots.release();
+                }
+            }
+        });
     }
 
+    /**
+     * Compresses an upright YUV burst frame once, at the quality of the sensor's JPEGs.
+     * The workers share no encoder, so this does not search for a quality to fit the budget.
+     * @param image
+     * @param out
+     * @throws IOException
+     */
+    private static void writeJpeg(YuvImage image, OutputStream out) throws IOException {
+        if (!image.compressToJpeg(new Rect(0, 0, image.getWidth(), image.getHeight()),
+                SENSOR_JPEG_QUALITY, out))
+            throw new IOException("Could not compress burst frame");
+    }
+
+    /**
+     * Queues a burst photo for upload in the background, without a progress dialog.
+     * @param photo
+     * @param hash
+     */
+    private void queueUpload(File photo, final String hash) {
+        final UploadManifest manifest = UploadManifest.open(
+                new File(getFilesDir(), UploadManifest.FILE_NAME));
+        UploadScheduler.getInstance(this).enqueue(UploadManifest.objectName(hash), photo,
+                UploadScheduler.PRIORITY_CAPTURE, new UploadScheduler.UploadListener() {
+            @Override
+            public void onProgress(UploadJob job, long bytesTransferred, long totalBytes) {
+            }
+
+            @Override
+            public void onSuccess(UploadJob job) {
+                try {
+                    manifest.recordHash(hash);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            @Override
+            public void onFailure(UploadJob job, Exception e) {
+            }
+        });
+    }
 
     /**
      * Starts a Thread in the background.
@@ -499,4 +994,27 @@ public class CameraActivity extends AppCompatActivity {
         matrix.postScale(-1, 1);
         return Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
     }
+
+    /**
+     * Method used for rotation of the taken image, drawing it onto a Bitmap from the pool
+     * instead of allocating a new one.
+     * @param source
+     * @param angle
+     * @param pool
+     * @return the rotated image, to be released back to the pool when done with
+     */
+    public static Bitmap rotateBitmap(Bitmap source, float angle, BitmapPool pool) {
+        Matrix matrix = new Matrix();
+        matrix.postRotate(angle);
+        matrix.postScale(-1, 1);
+        //Move the transformed image back to the origin
+        RectF bounds = new RectF(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+
+        Bitmap rotated = pool.acquire(Math.round(bounds.width()), Math.round(bounds.height()),
+                Bitmap.Config.ARGB_8888);
+        new Canvas(rotated).drawBitmap(source, matrix, ROTATE_PAINT);
+        return rotated;
+    }
 }
\ No newline at end of file
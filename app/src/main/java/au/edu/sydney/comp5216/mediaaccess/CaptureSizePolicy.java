@@ -0,0 +1,156 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+/**
+ * Chooses capture and preview sizes from those a camera offers, instead of taking the first,
+ * which is usually the sensor's largest.
+ *
+ * A still is at most maxMegapixels, and no more pixels than are likely to fit the upload
+ * budget as a JPEG, preferring the aspect ratio of the view showing the preview. The preview
+ * is the smallest size with the still's aspect ratio that covers the view.
+ *
+ * Sizes are given as {width, height} pairs in the sensor's landscape orientation; view sizes
+ * may be either way round.
+ */
+public class CaptureSizePolicy {
+
+    // Largest preview size every camera device supports alongside a still stream
+    public static final int MAX_PREVIEW_WIDTH = 1920;
+    public static final int MAX_PREVIEW_HEIGHT = 1080;
+
+    // Aspect ratios closer than this are treated as the same
+    private static final double ASPECT_TOLERANCE = 0.02;
+
+    private final long maxPixels;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param maxMegapixels largest still size in megapixels
+     * @param uploadBudgetBytes size a still should fit as a JPEG
+     * @param jpegBytesPerPixel expected JPEG size per pixel at the quality used
+     */
+    public CaptureSizePolicy(float maxMegapixels, int uploadBudgetBytes, float jpegBytesPerPixel) {
+        this.maxPixels = Math.min((long) (maxMegapixels * 1000000L),
+                (long) (uploadBudgetBytes / jpegBytesPerPixel));
+    }
+
+    /**
+     * Returns the most pixels a still may have.
+     * @return
+     */
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+
+    /**
+     * Returns the index of the still size to capture at: the largest within the pixel limit
+     * whose aspect ratio is closest to the view's, or to the sensor's if the view has not been
+     * laid out. If every size is over the limit, the smallest is used.
+     * @param sizes {width, height} pairs offered by the camera
+     * @param viewWidth
+     * @param viewHeight
+     * @return the index into sizes, or -1 if there are none
+     */
+    public int chooseStill(int[][] sizes, int viewWidth, int viewHeight) {
+        if (sizes.length == 0)
+            return -1;
+        double aspect;
+        if (viewWidth > 0 && viewHeight > 0) {
+            aspect = aspect(viewWidth, viewHeight);
+        } else {
+            int[] largest = sizes[0];
+            for (int[] size : sizes) {
+                if (pixels(size) > pixels(largest))
+                    largest = size;
+            }
+            aspect = aspect(largest[0], largest[1]);
+        }
+        int best = -1;
+        for (int i = 0; i < sizes.length; i++) {
+            if (pixels(sizes[i]) > maxPixels)
+                continue;
+            if (best == -1 || isBetterStill(sizes[i], sizes[best], aspect))
+                best = i;
+        }
+        return best != -1 ? best : smallest(sizes);
+    }
+
+    /**
+     * Returns the index of the preview size: the smallest size covering the view with the
+     * still's aspect ratio, or failing that the largest with it, within the preview limit.
+     * If no size has the still's aspect ratio, the closest ratio is used.
+     * @param sizes {width, height} pairs offered by the camera for the preview
+     * @param viewWidth
+     * @param viewHeight
+     * @param still the chosen still size
+     * @return the index into sizes, or -1 if there are none
+     */
+    public int choosePreview(int[][] sizes, int viewWidth, int viewHeight, int[] still) {
+        double aspect = aspect(still[0], still[1]);
+        int viewLong = Math.max(viewWidth, viewHeight);
+        int viewShort = Math.min(viewWidth, viewHeight);
+
+        //The closest aspect ratio on offer within the preview limit
+        double closest = Double.MAX_VALUE;
+        for (int[] size : sizes) {
+            if (fitsPreviewLimit(size))
+                closest = Math.min(closest, Math.abs(aspect(size[0], size[1]) - aspect));
+        }
+
+        int covering = -1;
+        int largest = -1;
+        for (int i = 0; i < sizes.length; i++) {
+            int[] size = sizes[i];
+            if (!fitsPreviewLimit(size)
+                    || Math.abs(aspect(size[0], size[1]) - aspect) > closest + ASPECT_TOLERANCE)
+                continue;
+            int sizeLong = Math.max(size[0], size[1]);
+            int sizeShort = Math.min(size[0], size[1]);
+            if (sizeLong >= viewLong && sizeShort >= viewShort
+                    && (covering == -1 || pixels(size) < pixels(sizes[covering])))
+                covering = i;
+            if (largest == -1 || pixels(size) > pixels(sizes[largest]))
+                largest = i;
+        }
+        if (covering != -1)
+            return covering;
+        return largest != -1 ? largest : smallest(sizes);
+    }
+
+    /**
+     * Compares stills by closeness to the aspect ratio, then by size.
+     */
+    private static boolean isBetterStill(int[] candidate, int[] best, double aspect) {
+        double candidateError = Math.abs(aspect(candidate[0], candidate[1]) - aspect);
+        double bestError = Math.abs(aspect(best[0], best[1]) - aspect);
+        if (Math.abs(candidateError - bestError) > ASPECT_TOLERANCE)
+            return candidateError < bestError;
+        return pixels(candidate) > pixels(best);
+    }
+
+    private static boolean fitsPreviewLimit(int[] size) {
+        return Math.max(size[0], size[1]) <= MAX_PREVIEW_WIDTH
+                && Math.min(size[0], size[1]) <= MAX_PREVIEW_HEIGHT;
+    }
+
+    private static int smallest(int[][] sizes) {
+        int smallest = -1;
+        for (int i = 0; i < sizes.length; i++) {
+            if (smallest == -1 || pixels(sizes[i]) < pixels(sizes[smallest]))
+                smallest = i;
+        }
+        return smallest;
+    }
+
+    private static long pixels(int[] size) {
+        return (long) size[0] * size[1];
+    }
+
+    /**
+     * Returns the ratio of the longer side to the shorter, so either orientation compares equal.
+     */
+    private static double aspect(int width, int height) {
+        if (width <= 0 || height <= 0)
+            return 1;
+        return (double) Math.max(width, height) / Math.min(width, height);
+    }
+}
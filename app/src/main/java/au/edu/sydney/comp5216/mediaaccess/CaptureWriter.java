@@ -0,0 +1,102 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.media.ExifInterface;
+import android.os.Build;
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes captured JPEGs to storage without decoding them.
+ * The sensor's JPEG is written as it is, and rotation and mirroring are recorded as EXIF
+ * orientation for viewers to apply, instead of re-rendering and re-encoding the pixels.
+ */
+public class CaptureWriter {
+
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Writes the remaining bytes of the buffer to the stream. If the stream is a file's,
+     * such as one opened by the MediaStore, a direct buffer, such as an ImageReader plane,
+     * is handed to the file channel without being copied onto the Java heap.
+     * The caller closes the stream.
+     * @param buffer
+     * @param out
+     * @throws IOException
+     */
+    public static void write(ByteBuffer buffer, OutputStream out) throws IOException {
+        if (out instanceof FileOutputStream) {
+            FileChannel channel = ((FileOutputStream) out).getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } else if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            byte[] chunk = new byte[Math.min(buffer.remaining(), COPY_BUFFER_BYTES)];
+            while (buffer.hasRemaining()) {
+                int length = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Sets the EXIF orientation of a JPEG file, rewriting only its metadata.
+     * @param file
+     * @param degrees clockwise rotation to apply when displaying the image
+     * @param mirror whether to mirror the image horizontally after rotating it
+     * @throws IOException
+     */
+    public static void setOrientation(File file, int degrees, boolean mirror) throws IOException {
+        ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION,
+                Integer.toString(exifOrientation(degrees, mirror)));
+        exif.saveAttributes();
+    }
+
+    /**
+     * Sets the EXIF orientation of a JPEG open for reading and writing, such as a photo
+     * opened through the MediaStore.
+     * @param descriptor
+     * @param degrees
+     * @param mirror
+     * @throws IOException
+     */
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    public static void setOrientation(FileDescriptor descriptor, int degrees, boolean mirror)
+            throws IOException {
+        ExifInterface exif = new ExifInterface(descriptor);
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION,
+                Integer.toString(exifOrientation(degrees, mirror)));
+        exif.saveAttributes();
+    }
+
+    /**
+     * Returns the EXIF orientation equivalent to rotating the image clockwise by the given
+     * angle and then, optionally, mirroring it horizontally, as rotateBitmap does.
+     * @param degrees a multiple of 90
+     * @param mirror
+     * @return
+     */
+    public static int exifOrientation(int degrees, boolean mirror) {
+        switch (((degrees % 360) + 360) % 360) {
+            case 90:
+                return mirror ? ExifInterface.ORIENTATION_TRANSPOSE : ExifInterface.ORIENTATION_ROTATE_90;
+            case 180:
+                return mirror ? ExifInterface.ORIENTATION_FLIP_VERTICAL : ExifInterface.ORIENTATION_ROTATE_180;
+            case 270:
+                return mirror ? ExifInterface.ORIENTATION_TRANSVERSE : ExifInterface.ORIENTATION_ROTATE_270;
+            default:
+                return mirror ? ExifInterface.ORIENTATION_FLIP_HORIZONTAL : ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+}
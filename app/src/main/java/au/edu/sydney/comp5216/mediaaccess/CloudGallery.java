@@ -0,0 +1,214 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * The photos stored in the cloud under the images/ prefix, listed a page at a time as the
+ * gallery is scrolled towards the end of those listed so far, rather than all at once.
+ *
+ * Pages and metadata are taken from a CloudListingCache while they are fresh, and cached
+ * when they are listed, so browsing the cloud again costs no requests until they expire.
+ * Listeners are called on the callback executor, the main thread in the app.
+ */
+public class CloudGallery {
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    // The next page is listed once a cell this close to the end of the listed names is bound
+    private static final int PREFETCH_DISTANCE = 40;
+
+    private final StorageBackend backend;
+    private final CloudListingCache cache;
+    private final int pageSize;
+    private final Executor callbackExecutor;
+    private final List<String> names = new ArrayList<>();
+    private Listener listener;
+    private String nextPageToken;
+    private boolean complete;
+    private boolean loading;
+    // Incremented on refresh, so a page requested before it is ignored
+    private int generation;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param backend
+     * @param cache
+     * @param pageSize number of objects listed per request
+     * @param callbackExecutor
+     */
+    public CloudGallery(StorageBackend backend, CloudListingCache cache, int pageSize,
+                        Executor callbackExecutor) {
+        this.backend = backend;
+        this.cache = cache;
+        this.pageSize = pageSize;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the number of objects listed so far.
+     * @return
+     */
+    public synchronized int getCount() {
+        return names.size();
+    }
+
+    /**
+     * Returns the name of the listed object at the given position.
+     * @param position
+     * @return
+     */
+    public synchronized String getName(int position) {
+        return names.get(position);
+    }
+
+    /**
+     * Returns true once every page has been listed.
+     * @return
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Forgets the listed names and lists the first page again.
+     */
+    public synchronized void refresh() {
+        generation++;
+        names.clear();
+        nextPageToken = null;
+        complete = false;
+        loading = false;
+        loadNext();
+    }
+
+    /**
+     * Called as the cell at a position is bound; lists the next page when the cell is near
+     * the end of the names listed so far.
+     * @param position
+     */
+    public synchronized void onBind(int position) {
+        if (position >= names.size() - PREFETCH_DISTANCE)
+            loadNext();
+    }
+
+    /**
+     * Reads an object's metadata, from the cache if it is fresh there.
+     * @param name
+     * @param callback
+     */
+    public void getMetadata(final String name, final StorageBackend.MetadataCallback callback) {
+        final CloudListingCache.Metadata cached = cache.getMetadata(name);
+        if (cached != null) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onSuccess(cached.getSizeBytes(), cached.getUpdatedTimeMillis());
+                }
+            });
+            return;
+        }
+        backend.getMetadata(name, new StorageBackend.MetadataCallback() {
+            @Override
+            public void onSuccess(final long sizeBytes, final long updatedTimeMillis) {
+                cache.putMetadata(name, sizeBytes, updatedTimeMillis);
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSuccess(sizeBytes, updatedTimeMillis);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final Exception e) {
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onFailure(e);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Lists the page after those listed so far, unless one is already being listed.
+     */
+    private void loadNext() {
+        if (loading || complete)
+            return;
+        loading = true;
+        final int requested = generation;
+        final String token = nextPageToken;
+        CloudListingCache.Page cached = cache.getPage(token);
+        if (cached != null) {
+            loaded(cached.getNames(), cached.getNextPageToken());
+            return;
+        }
+        backend.list(UploadManifest.OBJECT_PREFIX, pageSize, token, new StorageBackend.ListCallback() {
+            @Override
+            public void onSuccess(List<String> page, String next) {
+                synchronized (CloudGallery.this) {
+                    if (requested != generation)
+                        return;
+                    cache.putPage(token, page, next);
+                    loaded(page, next);
+                }
+            }
+
+            @Override
+            public void onFailure(final Exception e) {
+                final Listener current;
+                synchronized (CloudGallery.this) {
+                    if (requested != generation)
+                        return;
+                    loading = false;
+                    current = listener;
+                }
+                if (current == null)
+                    return;
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        current.onFailure(e);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Appends a listed page and tells the listener.
+     */
+    private void loaded(List<String> page, String next) {
+        final int start = names.size();
+        names.addAll(page);
+        nextPageToken = next;
+        complete = next == null;
+        loading = false;
+        final Listener current = listener;
+        final int count = page.size();
+        final boolean done = complete;
+        if (current == null)
+            return;
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                current.onPageLoaded(start, count, done);
+            }
+        });
+    }
+
+    /**
+     * Listener for pages as they are listed.
+     */
+    public interface Listener {
+        void onPageLoaded(int start, int count, boolean complete);
+        void onFailure(Exception e);
+    }
+}
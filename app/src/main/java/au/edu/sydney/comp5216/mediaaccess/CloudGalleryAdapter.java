@@ -0,0 +1,109 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Adapts the photos listed from cloud storage by a CloudGallery for the RecyclerView.
+ * Binding a cell near the end of the listed photos lists the next page; cells show thumbnails
+ * from the ThumbnailCache, downloaded once and then read from its disk cache.
+ */
+public class CloudGalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.ViewHolder> {
+
+    private Context context;
+    private CloudGallery gallery;
+    private StorageBackend backend;
+    private ThumbnailCache thumbnails;
+    private GalleryAdapter.PhotoListener photoListener;
+    // Cells shown, which trails the gallery's count until a listed page has been notified
+    private int count;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param context
+     * @param gallery
+     * @param backend the backend thumbnails are downloaded from
+     * @param photoListener
+     */
+    public CloudGalleryAdapter(Context context, CloudGallery gallery, StorageBackend backend,
+                               GalleryAdapter.PhotoListener photoListener) {
+        this.context = context;
+        this.gallery = gallery;
+        this.backend = backend;
+        this.thumbnails = ThumbnailCache.getInstance(context);
+        this.photoListener = photoListener;
+    }
+
+    /**
+     * Shows a page of photos just listed.
+     * @param start
+     * @param pageCount
+     */
+    public void onPageLoaded(int start, int pageCount) {
+        count = start + pageCount;
+        notifyItemRangeInserted(start, pageCount);
+    }
+
+    /**
+     * Removes every cell, before the gallery is listed again.
+     */
+    public void clear() {
+        count = 0;
+        notifyDataSetChanged();
+    }
+
+    @NonNull
+    @Override
+    public GalleryAdapter.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new GalleryAdapter.ViewHolder(
+                LayoutInflater.from(context).inflate(R.layout.gallery_item, parent, false)
+        );
+    }
+
+    /**
+     * Binds the photo's thumbnail to the ViewHolder, and giving its name when clicked.
+     * @param holder
+     * @param position
+     */
+    @Override
+    public void onBindViewHolder(@NonNull GalleryAdapter.ViewHolder holder, int position) {
+        gallery.onBind(position);
+        //A page delivered just before a refresh can outlast the names it listed
+        if (position >= gallery.getCount()) {
+            thumbnails.clear(holder.image);
+            holder.itemView.setOnClickListener(null);
+            return;
+        }
+        final String name = gallery.getName(position);
+        thumbnails.loadRemote(name, backend, holder.image);
+        holder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                photoListener.onPhotoClick(name);
+            }
+        });
+    }
+
+    /**
+     * Drops the thumbnail load of a recycled cell if it has not started yet.
+     * @param holder
+     */
+    @Override
+    public void onViewRecycled(@NonNull GalleryAdapter.ViewHolder holder) {
+        super.onViewRecycled(holder);
+        thumbnails.clear(holder.image);
+    }
+
+    /**
+     * Returns the number of photos listed and shown so far.
+     * @return
+     */
+    @Override
+    public int getItemCount() {
+        return count;
+    }
+}
@@ -0,0 +1,310 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the pages listed from cloud storage and of the objects' metadata, so browsing the
+ * cloud gallery again does not list or stat every object again.
+ *
+ * Each entry expires a fixed time after it was fetched. Pages are keyed by the page token
+ * they were listed with, the first page by the empty string. The cache is stored on disk,
+ * one entry per line, so it survives a restart; expired entries are dropped when it is saved.
+ */
+public class CloudListingCache {
+
+    public static final String FILE_NAME = "cloud_listing.tsv";
+    public static final long DEFAULT_TTL_MS = 15 * 60 * 1000;
+
+    private static final String PAGE = "P";
+    private static final String METADATA = "M";
+
+    private final File file;
+    private final long ttlMs;
+    private final Map<String, Page> pages = new HashMap<>();
+    private final Map<String, Metadata> metadata = new HashMap<>();
+    private boolean dirty;
+    // Pages fetched before this time were invalidated and are not used, even if read from disk
+    private long pagesValidFrom;
+    private boolean loaded;
+    // Whether the file holds pages, as of when it was last read or written
+    private boolean pagesOnDisk;
+
+    private static final Map<String, CloudListingCache> instances = new HashMap<>();
+
+    /**
+     * Returns the cache stored in the given file, shared by every caller in the process so an
+     * invalidation is seen by the gallery as soon as it is made. It is not read from disk here.
+     * @param file
+     * @param ttlMs how long an entry is used for after it was fetched
+     * @return
+     */
+    public static synchronized CloudListingCache open(File file, long ttlMs) {
+        String key = file.getAbsolutePath();
+        CloudListingCache cache = instances.get(key);
+        if (cache == null) {
+            cache = new CloudListingCache(file, ttlMs);
+            instances.put(key, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Constructor to set appropriate values.
+     * @param file
+     * @param ttlMs how long an entry is used for after it was fetched
+     */
+    public CloudListingCache(File file, long ttlMs) {
+        this.file = file;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Returns the page listed with the given token, or null if it is not cached or has expired.
+     * @param pageToken null for the first page
+     * @return
+     */
+    public synchronized Page getPage(String pageToken) {
+        Page page = pages.get(pageKey(pageToken));
+        return page == null || expired(page.fetchedAt) || page.fetchedAt < pagesValidFrom
+                ? null : page;
+    }
+
+    /**
+     * Caches a page just listed.
+     * @param pageToken token the page was listed with, null for the first page
+     * @param names
+     * @param nextPageToken token of the page after it, or null if it is the last
+     */
+    public synchronized void putPage(String pageToken, List<String> names, String nextPageToken) {
+        pages.put(pageKey(pageToken), new Page(new ArrayList<>(names), nextPageToken, now()));
+        dirty = true;
+    }
+
+    /**
+     * Returns the cached metadata of the named object, or null if it is not cached or has expired.
+     * @param name
+     * @return
+     */
+    public synchronized Metadata getMetadata(String name) {
+        Metadata entry = metadata.get(name);
+        return entry == null || expired(entry.fetchedAt) ? null : entry;
+    }
+
+    /**
+     * Caches an object's metadata.
+     * @param name
+     * @param sizeBytes
+     * @param updatedTimeMillis
+     */
+    public synchronized void putMetadata(String name, long sizeBytes, long updatedTimeMillis) {
+        metadata.put(name, new Metadata(sizeBytes, updatedTimeMillis, now()));
+        dirty = true;
+    }
+
+    /**
+     * Drops the cached pages, e.g. after an upload has added an object to the listing.
+     * Metadata is kept, since existing objects are not changed by it.
+     *
+     * The file is written again without its pages, and pages fetched earlier are not taken
+     * from a later load, so the listing is fetched again even if the cache is read afterwards.
+     */
+    public synchronized void invalidatePages() {
+        //Read first so the metadata in the file is written back
+        if (!loaded)
+            load();
+        pagesValidFrom = now();
+        if (pages.isEmpty() && !pagesOnDisk)
+            return;
+        pages.clear();
+        dirty = true;
+        save();
+    }
+
+    /**
+     * Returns the current time. Overridden by tests.
+     * @return
+     */
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private boolean expired(long fetchedAt) {
+        long age = now() - fetchedAt;
+        return age < 0 || age >= ttlMs;
+    }
+
+    private static String pageKey(String pageToken) {
+        return pageToken == null ? "" : pageToken;
+    }
+
+    /**
+     * Reads the cache from disk.
+     */
+    public synchronized void load() {
+        loaded = true;
+        if (!file.exists())
+            return;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            pagesOnDisk = false;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                if (PAGE.equals(parts[0]) && parts.length >= 4) {
+                    pagesOnDisk = true;
+                    long fetchedAt = Long.parseLong(parts[2]);
+                    if (fetchedAt < pagesValidFrom)
+                        continue;
+                    List<String> names = parts.length == 4 ? Collections.<String>emptyList()
+                            : Arrays.asList(parts).subList(4, parts.length);
+                    //The shared cache may be read again, keep what was fetched since
+                    Page cached = pages.get(parts[1]);
+                    if (cached == null || cached.fetchedAt < fetchedAt)
+                        pages.put(parts[1], new Page(new ArrayList<>(names),
+                                parts[3].isEmpty() ? null : parts[3], fetchedAt));
+                } else if (METADATA.equals(parts[0]) && parts.length == 5) {
+                    long fetchedAt = Long.parseLong(parts[2]);
+                    Metadata cached = metadata.get(parts[1]);
+                    if (cached == null || cached.fetchedAt < fetchedAt)
+                        metadata.put(parts[1], new Metadata(Long.parseLong(parts[3]),
+                                Long.parseLong(parts[4]), fetchedAt));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            //A damaged cache is fetched again
+            e.printStackTrace();
+            pages.clear();
+            metadata.clear();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the unexpired entries to disk if the cache has changed since it was last written.
+     */
+    public synchronized void save() {
+        if (!dirty)
+            return;
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+            StringBuilder line = new StringBuilder();
+            Iterator<Map.Entry<String, Page>> it = pages.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Page> entry = it.next();
+                Page page = entry.getValue();
+                if (expired(page.fetchedAt)) {
+                    it.remove();
+                    continue;
+                }
+                line.setLength(0);
+                line.append(PAGE).append('\t').append(entry.getKey()).append('\t')
+                        .append(page.fetchedAt).append('\t')
+                        .append(page.nextPageToken == null ? "" : page.nextPageToken);
+                for (String name : page.names)
+                    line.append('\t').append(name);
+                writer.write(line.append('\n').toString());
+            }
+            Iterator<Map.Entry<String, Metadata>> entries = metadata.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, Metadata> entry = entries.next();
+                Metadata value = entry.getValue();
+                if (expired(value.fetchedAt)) {
+                    entries.remove();
+                    continue;
+                }
+                line.setLength(0);
+                line.append(METADATA).append('\t').append(entry.getKey()).append('\t')
+                        .append(value.fetchedAt).append('\t')
+                        .append(value.sizeBytes).append('\t')
+                        .append(value.updatedTimeMillis).append('\n');
+                writer.write(line.toString());
+            }
+            writer.close();
+            writer = null;
+            if (tmp.renameTo(file)) {
+                dirty = false;
+                pagesOnDisk = !pages.isEmpty();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * One listed page of object names.
+     */
+    public static class Page {
+        private final List<String> names;
+        private final String nextPageToken;
+        private final long fetchedAt;
+
+        Page(List<String> names, String nextPageToken, long fetchedAt) {
+            this.names = Collections.unmodifiableList(names);
+            this.nextPageToken = nextPageToken;
+            this.fetchedAt = fetchedAt;
+        }
+
+        public List<String> getNames() {
+            return names;
+        }
+
+        public String getNextPageToken() {
+            return nextPageToken;
+        }
+    }
+
+    /**
+     * Size and last update time of one object.
+     */
+    public static class Metadata {
+        private final long sizeBytes;
+        private final long updatedTimeMillis;
+        private final long fetchedAt;
+
+        Metadata(long sizeBytes, long updatedTimeMillis, long fetchedAt) {
+            this.sizeBytes = sizeBytes;
+            this.updatedTimeMillis = updatedTimeMillis;
+            this.fetchedAt = fetchedAt;
+        }
+
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+
+        public long getUpdatedTimeMillis() {
+            return updatedTimeMillis;
+        }
+    }
+}
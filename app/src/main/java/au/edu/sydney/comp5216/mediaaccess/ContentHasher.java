@@ -0,0 +1,83 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes content hashes of images, used to give uploads stable object names
+ * and to detect images that have already been uploaded.
+ */
+public class ContentHasher {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Returns the SHA-256 of the given file as a lowercase hex string.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            if (in != null)
+                in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the SHA-256 of the given bytes as a lowercase hex string.
+     * @param bytes
+     * @return
+     */
+    public static String sha256(byte[] bytes) {
+        MessageDigest digest = newDigest();
+        digest.update(bytes);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the SHA-256 of part of the given bytes as a lowercase hex string.
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return
+     */
+    public static String sha256(byte[] bytes, int offset, int length) {
+        MessageDigest digest = newDigest();
+        digest.update(bytes, offset, length);
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required on every Java and Android platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+}
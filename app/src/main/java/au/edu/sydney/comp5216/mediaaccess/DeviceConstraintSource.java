@@ -0,0 +1,106 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.BatteryManager;
+
+/**
+ * Reads the network and battery state the UploadScheduler's constraints are checked against,
+ * and tells it when either changes. Registered once for the life of the process.
+ */
+public class DeviceConstraintSource implements UploadConstraints.Source {
+
+    private final ConnectivityManager connectivity;
+    private volatile Runnable listener;
+    private volatile boolean charging;
+    private volatile int batteryPercent = 100;
+
+    /**
+     * Constructor to set appropriate values. Starts listening for network and battery changes.
+     * @param context
+     */
+    public DeviceConstraintSource(Context context) {
+        Context app = context.getApplicationContext();
+        connectivity = (ConnectivityManager) app.getSystemService(Context.CONNECTIVITY_SERVICE);
+        connectivity.registerNetworkCallback(new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build(), new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                changed();
+            }
+
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                changed();
+            }
+
+            @Override
+            public void onLost(Network network) {
+                changed();
+            }
+        });
+
+        //The battery broadcast is sticky, so registering returns the current state at once
+        Intent battery = app.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                readBattery(intent);
+                changed();
+            }
+        }, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null)
+            readBattery(battery);
+    }
+
+    private void readBattery(Intent intent) {
+        int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL;
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level >= 0 && scale > 0)
+            batteryPercent = level * 100 / scale;
+    }
+
+    private void changed() {
+        Runnable current = listener;
+        if (current != null)
+            current.run();
+    }
+
+    @Override
+    public boolean isConnected() {
+        //The same capability the network callback is registered for
+        NetworkCapabilities capabilities =
+                connectivity.getNetworkCapabilities(connectivity.getActiveNetwork());
+        return capabilities != null
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+    }
+
+    @Override
+    public boolean isUnmetered() {
+        return !connectivity.isActiveNetworkMetered();
+    }
+
+    @Override
+    public boolean isCharging() {
+        return charging;
+    }
+
+    @Override
+    public int getBatteryPercent() {
+        return batteryPercent;
+    }
+
+    @Override
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+}
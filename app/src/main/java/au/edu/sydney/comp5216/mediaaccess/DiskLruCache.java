@@ -0,0 +1,174 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Directory of small cached files, bounded by total size, evicting the least recently used.
+ *
+ * Each entry is one file named by its key. Recency is kept in each file's modification time,
+ * so the order survives a restart; it is read back once, when the cache is first used.
+ * Keys may only contain letters, digits, '.', '_' and '-'.
+ */
+public class DiskLruCache {
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File dir;
+    private final long maxBytes;
+    // Access ordered, so the first entry is the least recently used
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long size;
+    private boolean initialised;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param dir
+     * @param maxBytes largest total size of the cached files
+     */
+    public DiskLruCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the file cached under the given key, or null if there is none.
+     * @param key
+     * @return
+     */
+    public synchronized File get(String key) {
+        init();
+        //get() rather than containsKey() so the entry becomes the most recently used
+        if (entries.get(checkKey(key)) == null)
+            return null;
+        File file = new File(dir, key);
+        if (!file.exists()) {
+            size -= entries.remove(key);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Caches the given bytes under the given key, replacing any earlier entry,
+     * then evicts the least recently used entries until the cache is within its size.
+     * @param key
+     * @param data
+     * @throws IOException
+     */
+    public synchronized void put(String key, byte[] data) throws IOException {
+        init();
+        checkKey(key);
+        File tmp = new File(dir, key + TMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        File file = new File(dir, key);
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not write cache entry " + key);
+        }
+        Long previous = entries.put(key, (long) data.length);
+        if (previous != null)
+            size -= previous;
+        size += data.length;
+        trimTo(maxBytes);
+    }
+
+    /**
+     * Removes the entry cached under the given key.
+     * @param key
+     */
+    public synchronized void remove(String key) {
+        init();
+        Long length = entries.remove(checkKey(key));
+        if (length != null) {
+            size -= length;
+            new File(dir, key).delete();
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until at most the given number of bytes are cached.
+     * @param bytes
+     */
+    public synchronized void trimTo(long bytes) {
+        init();
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > bytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            new File(dir, eldest.getKey()).delete();
+            size -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns the total size of the cached files.
+     * @return
+     */
+    public synchronized long getSize() {
+        init();
+        return size;
+    }
+
+    /**
+     * Returns the number of cached files.
+     * @return
+     */
+    public synchronized int getCount() {
+        init();
+        return entries.size();
+    }
+
+    /**
+     * Reads the cached files and their recency from the directory.
+     */
+    private void init() {
+        if (initialised)
+            return;
+        initialised = true;
+        if (!dir.exists() && !dir.mkdirs())
+            return;
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = a.lastModified();
+                long y = b.lastModified();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                //Left over from a write that did not finish
+                file.delete();
+            } else if (file.isFile()) {
+                entries.put(file.getName(), file.length());
+                size += file.length();
+            }
+        }
+        trimTo(maxBytes);
+    }
+
+    private static String checkKey(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '.' && c != '_' && c != '-')
+                throw new IllegalArgumentException("Invalid cache key " + key);
+        }
+        return key;
+    }
+}
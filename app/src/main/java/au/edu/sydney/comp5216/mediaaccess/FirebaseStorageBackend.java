@@ -0,0 +1,119 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.storage.ListResult;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.OnProgressListener;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StorageBackend that uploads to, and reads back from, Firebase Storage. Callbacks arrive on the main thread.
+ */
+public class FirebaseStorageBackend implements StorageBackend {
+
+    private final StorageReference storageReference;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param storageReference root that object names are resolved against
+     */
+    public FirebaseStorageBackend(StorageReference storageReference) {
+        this.storageReference = storageReference;
+    }
+
+    @Override
+    public void putBytes(String name, byte[] bytes, UploadCallback callback) {
+        attach(storageReference.child(name).putBytes(bytes), callback);
+    }
+
+    @Override
+    public void putFile(String name, File file, String sessionUri, UploadCallback callback) {
+        StorageReference ref = storageReference.child(name);
+        if (sessionUri != null) {
+            attach(ref.putFile(Uri.fromFile(file), null, Uri.parse(sessionUri)), callback);
+        } else {
+            attach(ref.putFile(Uri.fromFile(file)), callback);
+        }
+    }
+
+    @Override
+    public void list(String prefix, int maxResults, String pageToken, final ListCallback callback) {
+        StorageReference dir = storageReference.child(prefix);
+        Task<ListResult> task = pageToken == null ? dir.list(maxResults) : dir.list(maxResults, pageToken);
+        task.addOnSuccessListener(new OnSuccessListener<ListResult>() {
+            @Override
+            public void onSuccess(ListResult listResult) {
+                List<String> names = new ArrayList<>(listResult.getItems().size());
+                for (StorageReference item : listResult.getItems()) {
+                    String path = item.getPath();
+                    names.add(path.startsWith("/") ? path.substring(1) : path);
+                }
+                callback.onSuccess(names, listResult.getPageToken());
+            }
+        }).addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    @Override
+    public void getMetadata(String name, final MetadataCallback callback) {
+        storageReference.child(name).getMetadata().addOnSuccessListener(new OnSuccessListener<StorageMetadata>() {
+            @Override
+            public void onSuccess(StorageMetadata metadata) {
+                callback.onSuccess(metadata.getSizeBytes(), metadata.getUpdatedTimeMillis());
+            }
+        }).addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    @Override
+    public void getBytes(String name, long maxBytes, final DownloadCallback callback) {
+        storageReference.child(name).getBytes(maxBytes).addOnSuccessListener(new OnSuccessListener<byte[]>() {
+            @Override
+            public void onSuccess(byte[] bytes) {
+                callback.onSuccess(bytes);
+            }
+        }).addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    private void attach(UploadTask task, final UploadCallback callback) {
+        task.addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
+            @Override
+            public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
+                callback.onSuccess();
+            }
+        }).addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                callback.onFailure(e);
+            }
+        }).addOnProgressListener(new OnProgressListener<UploadTask.TaskSnapshot>() {
+            @Override
+            public void onProgress(UploadTask.TaskSnapshot taskSnapshot) {
+                Uri sessionUri = taskSnapshot.getUploadSessionUri();
+                callback.onProgress(taskSnapshot.getBytesTransferred(), taskSnapshot.getTotalByteCount(),
+                        sessionUri == null ? null : sessionUri.toString());
+            }
+        });
+    }
+}
@@ -7,28 +7,33 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
-import com.bumptech.glide.Glide;
 
 /**
  * Adapts the image URI's received for processing by the RecyclerView.
- *
+ * Images are read from a MediaPager, so only the pages around the visible rows are held;
+ * a cell whose page has not arrived yet is left blank and rebound when it does.
+ * Cells show thumbnails from the ThumbnailCache, never the original images.
  */
 public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.ViewHolder> {
 
     private Context context;
-    private List<String> images;
+    private MediaPager pager;
+    private ThumbnailCache thumbnails;
     protected PhotoListener photoListener;
 
     /**
      * Constructor to set appropriate values.
      * @param context
-     * @param images
+     * @param pager
      * @param photoListener
      */
-    public GalleryAdapter(Context context, List<String> images, PhotoListener photoListener) {
+    public GalleryAdapter(Context context, MediaPager pager, PhotoListener photoListener) {
         this.context = context;
-        this.images = images;
+        this.pager = pager;
+        this.thumbnails = ThumbnailCache.getInstance(context);
         this.photoListener = photoListener;
     }
 
@@ -54,8 +59,15 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.ViewHold
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
 
-        final String image = images.get(position);
-        Glide.with(context).load(image).into(holder.image);
+        MediaItem item = pager.getItem(position);
+        if (item == null) {
+            thumbnails.clear(holder.image);
+            holder.itemView.setOnClickListener(null);
+            return;
+        }
+
+        final String image = item.getPath();
+        thumbnails.load(item, holder.image);
 
         holder.itemView.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -65,14 +77,90 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.ViewHold
         });
     }
 
+    /**
+     * Drops the thumbnail load of a recycled cell if it has not started yet.
+     * @param holder
+     */
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        super.onViewRecycled(holder);
+        thumbnails.clear(holder.image);
+    }
+
+    /**
+     * Applies a change to the loaded window of images as a diff, so that e.g. a new photo
+     * inserts one cell rather than rebinding the whole grid.
+     * Rows outside the window are not loaded, so only a change in their number is applied,
+     * at the end of the window.
+     * @param start position of the window's first row
+     * @param before the window's rows before the change
+     * @param after the window's rows after the change
+     * @param oldCount total number of images before the change
+     * @param newCount total number of images after the change
+     */
+    public void applyWindowChange(final int start, final List<MediaItem> before,
+                                  final List<MediaItem> after, int oldCount, int newCount) {
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return before.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return after.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return before.get(oldItemPosition).getId() == after.get(newItemPosition).getId();
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return before.get(oldItemPosition).getDateModified()
+                        == after.get(newItemPosition).getDateModified();
+            }
+        }, false);
+
+        diff.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(start + position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(start + position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                notifyItemMoved(start + fromPosition, start + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                notifyItemRangeChanged(start + position, count, payload);
+            }
+        });
+
+        int outside = (newCount - after.size()) - (oldCount - before.size());
+        if (outside > 0) {
+            notifyItemRangeInserted(start + after.size(), outside);
+        } else if (outside < 0) {
+            notifyItemRangeRemoved(start + after.size(), -outside);
+        }
+    }
+
     /**
      * Returns the number of images.
      * @return
      */
     @Override
     public int getItemCount() {
-        if(images != null) {
-            return images.size();
+        if(pager != null) {
+            return pager.getCount();
         }
         return 0;
     }
@@ -80,7 +168,7 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.ViewHold
     /**
      * ViewHolder class
      */
-    public class ViewHolder extends RecyclerView.ViewHolder {
+    public static class ViewHolder extends RecyclerView.ViewHolder {
 
         ImageView image;
 
@@ -0,0 +1,108 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.os.SystemClock;
+import android.view.View;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.Arrays;
+
+/**
+ * Prefetches the thumbnails of the gallery rows about to scroll into view, as far ahead as a
+ * PrefetchPlanner decides from the scroll's velocity, so a fling does not show blank cells.
+ *
+ * Prefetches queued for rows the scroll no longer heads towards are dropped whenever the plan
+ * changes, and when the grid stops.
+ */
+public class GalleryPreloader extends RecyclerView.OnScrollListener {
+
+    private static final int MIN_ROWS = 1;
+    private static final long LOOKAHEAD_MS = 500;
+    // Weight of the latest frame in the smoothed velocity
+    private static final float SMOOTHING = 0.5f;
+    private static final long NEW_SCROLL_MS = 100;
+
+    private final MediaPager pager;
+    private final ThumbnailCache thumbnails;
+    private final PrefetchPlanner planner;
+    private float velocity;
+    private long lastScrollTime;
+    private int[] planned = new int[0];
+
+    /**
+     * Constructor to set appropriate values.
+     * @param pager
+     * @param thumbnails
+     */
+    public GalleryPreloader(MediaPager pager, ThumbnailCache thumbnails) {
+        this.pager = pager;
+        this.thumbnails = thumbnails;
+        this.planner = new PrefetchPlanner(ThumbnailCache.GRID_COLUMNS, MIN_ROWS, LOOKAHEAD_MS);
+    }
+
+    /**
+     * Updates the scroll velocity and prefetches ahead of it.
+     * @param recyclerView
+     * @param dx
+     * @param dy
+     */
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - lastScrollTime;
+        lastScrollTime = now;
+        if (dy == 0)
+            return;
+        //Frames more than a moment apart start a new scroll, whose speed is not known yet
+        float frameVelocity = elapsed > 0 && elapsed < NEW_SCROLL_MS ? dy * 1000f / elapsed : 0;
+        if (frameVelocity == 0)
+            velocity = Math.signum(dy);
+        else if (Math.signum(frameVelocity) != Math.signum(velocity))
+            velocity = frameVelocity;
+        else
+            velocity += SMOOTHING * (frameVelocity - velocity);
+        plan(recyclerView);
+    }
+
+    /**
+     * Drops the queued prefetches once the grid has stopped.
+     * @param recyclerView
+     * @param newState
+     */
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            velocity = 0;
+            planned = new int[0];
+            thumbnails.cancelPrefetches();
+        }
+    }
+
+    /**
+     * Prefetches the positions planned for the current velocity, if they have changed.
+     */
+    private void plan(RecyclerView recyclerView) {
+        //The grid may be showing the cloud gallery instead
+        if (!(recyclerView.getAdapter() instanceof GalleryAdapter))
+            return;
+        GridLayoutManager layout = (GridLayoutManager) recyclerView.getLayoutManager();
+        View first = recyclerView.getChildAt(0);
+        if (layout == null || first == null || first.getHeight() == 0)
+            return;
+        int rowHeight = first.getHeight();
+        //Up to a screen ahead, which the thumbnail cache holds alongside the visible one
+        int maxRows = Math.max(MIN_ROWS, recyclerView.getHeight() / rowHeight);
+        int[] positions = planner.plan(layout.findFirstVisibleItemPosition(),
+                layout.findLastVisibleItemPosition(), pager.getCount(), velocity, rowHeight, maxRows);
+        if (Arrays.equals(positions, planned))
+            return;
+        planned = positions;
+        thumbnails.cancelPrefetches();
+        for (int position : positions) {
+            MediaItem item = pager.getItem(position);
+            if (item != null)
+                thumbnails.prefetch(item);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+/**
+ * Histogram of non-negative values, such as latencies in nanoseconds or sizes in bytes,
+ * kept in a fixed number of buckets so recording never allocates.
+ *
+ * Values below 8 have a bucket each; above that every power of two is split into 8 buckets,
+ * so a percentile is within 12.5% of the true value. Count, total, minimum and maximum are exact.
+ * A histogram is not thread safe.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // One run of sub buckets for each power of two from 8 up to 2^62, plus the values below 8
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long count;
+    private long total;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Records one value. Negative values are recorded as 0.
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        buckets[bucketOf(value)]++;
+        count++;
+        total += value;
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+    }
+
+    /**
+     * Adds every value recorded in another histogram to this one.
+     * @param other
+     */
+    public void add(Histogram other) {
+        if (other.count == 0)
+            return;
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] += other.buckets[i];
+        count += other.count;
+        total += other.total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Forgets every value recorded.
+     */
+    public void clear() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = 0;
+        count = 0;
+        total = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * Returns the value below which the given fraction of recorded values fall, rounded up
+     * to the top of its bucket but no higher than the largest value recorded.
+     * @param fraction between 0 and 1
+     * @return the value, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double fraction) {
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank)
+                return Math.max(getMin(), Math.min(max, upperBound(i)));
+        }
+        return max;
+    }
+
+    /**
+     * Returns the bucket a value is counted in.
+     * @param value
+     * @return
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the largest value counted in a bucket.
+     * @param bucket
+     * @return
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (SUB_BUCKETS + sub) * width;
+        return lower + width - 1;
+    }
+}
@@ -5,42 +5,155 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.provider.MediaStore;
+import android.text.TextUtils;
 
-import androidx.annotation.RequiresApi;
-
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Receives the device's images, returning the URI as an Arraylist<String>
+ *
+ * Images are read from a MediaIndex shared by the gallery and synchronisation, which is
+ * brought up to date with only the MediaStore rows modified since it was last refreshed.
  */
 public class ImagesGallery {
 
+    // Ids inlined in one query, well under SQLite's limit on the length of a statement
+    private static final int MAX_IDS_PER_QUERY = 500;
+
+    private static MediaIndex index;
+
     /**
      * Iterates through the device's images and returns it in a List
      * @param context
      * @return
      */
-    @RequiresApi(api = Build.VERSION_CODES.Q)
     public static ArrayList<String> listOfImages (Context context) {
-        Uri uri;
-        Cursor cursor;
-        int column_index_data;
-        ArrayList<String> listOfAllImages = new ArrayList<>();
-        String absolutePathOfImage;
-
-        uri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-        String[] projection = {MediaStore.MediaColumns.DATA,
-        MediaStore.Images.Media.BUCKET_DISPLAY_NAME};
-        String orderBy = MediaStore.Video.Media.DATE_TAKEN;
-
-        cursor = context.getContentResolver().query(uri, projection, null,
-                null, orderBy+" DESC");
-        column_index_data = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATA);
-        while (cursor.moveToNext()) {
-            absolutePathOfImage = cursor.getString(column_index_data);
-            listOfAllImages.add(absolutePathOfImage);
+        List<MediaItem> items = listOfMedia(context);
+        ArrayList<String> listOfAllImages = new ArrayList<>(items.size());
+        for (MediaItem item : items) {
+            listOfAllImages.add(item.getPath());
         }
-
         return listOfAllImages;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the device's images with their MediaStore id, path and modification time,
+     * as needed to decide what a synchronisation has to upload. The list is newest first.
+     * @param context
+     * @return
+     */
+    public static List<MediaItem> listOfMedia(Context context) {
+        return refreshIndex(context).getItems();
+    }
+
+    /**
+     * Returns the shared media index, loading it from disk on first use.
+     * The index may be stale; use refreshIndex to bring it up to date.
+     * @param context
+     * @return
+     */
+    public static synchronized MediaIndex getIndex(Context context) {
+        if (index == null) {
+            index = new MediaIndex(new File(context.getApplicationContext().getFilesDir(),
+                    MediaIndex.FILE_NAME));
+            index.load();
+        }
+        return index;
+    }
+
+    /**
+     * Brings the shared media index up to date with the MediaStore.
+     * Only the rows modified since the index's watermark are read in full; deletions, and rows
+     * added with an older modification time, are found from a query of ids, which is only
+     * walked when the number of rows has changed.
+     * @param context
+     * @return
+     */
+    public static synchronized MediaIndex refreshIndex(Context context) {
+        Metrics.Timer timer = Metrics.getInstance().start(Metrics.GALLERY_QUERY);
+        try {
+            MediaIndex mediaIndex = refresh(context);
+            timer.stop();
+            return mediaIndex;
+        } finally {
+            timer.fail();
+        }
+    }
+
+    private static MediaIndex refresh(Context context) {
+        MediaIndex mediaIndex = getIndex(context);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            mediaIndex.checkVersion(MediaStore.getVersion(context));
+        }
+
+        Uri uri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+        String[] projection = {MediaStore.MediaColumns._ID, MediaStore.MediaColumns.DATA,
+                MediaStore.MediaColumns.DATE_MODIFIED, MediaStore.Images.Media.DATE_TAKEN};
+        String selection = MediaStore.MediaColumns.DATE_MODIFIED + " >= ?";
+        String[] selectionArgs = {Long.toString(mediaIndex.getWatermark())};
+
+        //DATE_MODIFIED has a resolution of one second, so rows at the watermark are read again
+        mediaIndex.update(query(context, uri, projection, selection, selectionArgs));
+
+        Cursor cursor = context.getContentResolver().query(uri,
+                new String[] {MediaStore.MediaColumns._ID}, null, null, null);
+        Set<Long> ids = null;
+        if (cursor != null) {
+            try {
+                if (cursor.getCount() != mediaIndex.size()) {
+                    ids = new HashSet<>(cursor.getCount() * 2);
+                    while (cursor.moveToNext()) {
+                        ids.add(cursor.getLong(0));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        if (ids != null) {
+            mediaIndex.retain(ids);
+            //Rows restored or moved in keep their old DATE_MODIFIED, below the watermark
+            List<Long> missing = mediaIndex.missing(ids);
+            for (int start = 0; start < missing.size(); start += MAX_IDS_PER_QUERY) {
+                List<Long> part = missing.subList(start,
+                        Math.min(missing.size(), start + MAX_IDS_PER_QUERY));
+                mediaIndex.update(query(context, uri, projection,
+                        MediaStore.MediaColumns._ID + " IN (" + TextUtils.join(",", part) + ")", null));
+            }
+        }
+
+        mediaIndex.save();
+        return mediaIndex;
+    }
+
+    /**
+     * Returns the images in the MediaStore rows matching a selection.
+     */
+    private static List<MediaItem> query(Context context, Uri uri, String[] projection,
+                                         String selection, String[] selectionArgs) {
+        Cursor cursor = context.getContentResolver().query(uri, projection, selection,
+                selectionArgs, null);
+        if (cursor == null)
+            return new ArrayList<>();
+        try {
+            int column_index_id = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns._ID);
+            int column_index_data = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATA);
+            int column_index_modified = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATE_MODIFIED);
+            int column_index_taken = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATE_TAKEN);
+            List<MediaItem> items = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                items.add(new MediaItem(cursor.getLong(column_index_id),
+                        cursor.getString(column_index_data), cursor.getLong(column_index_modified),
+                        cursor.getLong(column_index_taken)));
+            }
+            return items;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs per-image work, such as hashing, over the whole library in parallel, instead of one
+ * image at a time on a single thread.
+ *
+ * The list of images is split in halves on a ForkJoinPool until each part is small, so idle
+ * workers steal parts from busy ones. Work that reads files holds one of a fixed number of
+ * I/O permits, so storage is not swamped by as many readers as there are cores. A job can be
+ * cancelled, after which no further images are started, and reports its progress as it goes.
+ */
+public class LibraryIndexer {
+
+    // Images per part below which a part is not split further
+    private static final int MIN_PART_SIZE = 16;
+    // Storage serves a few concurrent readers well, but not one per core
+    private static final int DEFAULT_MAX_CONCURRENT_IO = 4;
+
+    private static LibraryIndexer instance;
+
+    private final ForkJoinPool pool;
+    private final int maxConcurrentIo;
+
+    /**
+     * Returns the indexer shared by the app, with a worker per core.
+     * @return
+     */
+    public static synchronized LibraryIndexer getInstance() {
+        if (instance == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            instance = new LibraryIndexer(new ForkJoinPool(cores),
+                    Math.min(cores, DEFAULT_MAX_CONCURRENT_IO));
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor to set appropriate values.
+     * @param pool
+     * @param maxConcurrentIo most images being read at once
+     */
+    public LibraryIndexer(ForkJoinPool pool, int maxConcurrentIo) {
+        if (maxConcurrentIo < 1)
+            throw new IllegalArgumentException("maxConcurrentIo must be at least 1");
+        this.pool = pool;
+        this.maxConcurrentIo = maxConcurrentIo;
+    }
+
+    /**
+     * Starts running a task over every image.
+     * @param items
+     * @param task
+     * @param listener told of progress, from the workers; may be null
+     * @param <R> the result of indexing one image
+     * @return the running job
+     */
+    public <R> Job<R> start(List<MediaItem> items, ItemTask<R> task, ProgressListener listener) {
+        Job<R> job = new Job<>(new ArrayList<>(items), task, listener, new Semaphore(maxConcurrentIo));
+        job.root = pool.submit(job.new Part(0, job.items.size()));
+        return job;
+    }
+
+    /**
+     * Indexes one image. Called on the pool's workers, for several images at once.
+     * @param <R>
+     */
+    public interface ItemTask<R> {
+        /**
+         * Returns the result for an image.
+         * @param item
+         * @param io held while reading the image's file, to bound concurrent reads
+         * @return
+         * @throws IOException if the image could not be read; its result is then null
+         */
+        R index(MediaItem item, Semaphore io) throws IOException;
+    }
+
+    /**
+     * Listener for a job's progress.
+     */
+    public interface ProgressListener {
+        void onProgress(int done, int total);
+    }
+
+    /**
+     * A run of a task over the library.
+     * @param <R>
+     */
+    public static class Job<R> {
+        private final List<MediaItem> items;
+        private final ItemTask<R> task;
+        private final ProgressListener listener;
+        private final Semaphore io;
+        private final Object[] results;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final AtomicInteger done = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        // Progress is reported about a hundred times over the job, not for every image
+        private final int progressStep;
+        private ForkJoinTask<?> root;
+
+        Job(List<MediaItem> items, ItemTask<R> task, ProgressListener listener, Semaphore io) {
+            this.items = items;
+            this.task = task;
+            this.listener = listener;
+            this.io = io;
+            this.results = new Object[items.size()];
+            this.progressStep = Math.max(1, items.size() / 100);
+        }
+
+        /**
+         * Stops starting images. Those already started finish.
+         */
+        public void cancel() {
+            cancelled.set(true);
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        /**
+         * Returns the number of images indexed so far, including those that failed.
+         * @return
+         */
+        public int getDone() {
+            return done.get();
+        }
+
+        /**
+         * Returns the number of images that could not be indexed.
+         * @return
+         */
+        public int getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * Waits for the job to finish.
+         * @return the results in the order of the images, null for those that failed
+         * @throws CancellationException if the job was cancelled
+         */
+        @SuppressWarnings("unchecked")
+        public List<R> await() {
+            root.join();
+            if (cancelled.get())
+                throw new CancellationException("Indexing cancelled after " + done.get()
+                        + " of " + items.size());
+            return (List<R>) Arrays.asList(results);
+        }
+
+        private void index(int position) {
+            try {
+                results[position] = task.index(items.get(position), io);
+            } catch (IOException | RuntimeException e) {
+                //e.g. a damaged photo the decoder cannot read, which must not stop the others
+                e.printStackTrace();
+                failed.incrementAndGet();
+            }
+            int count = done.incrementAndGet();
+            if (listener != null && (count % progressStep == 0 || count == items.size()))
+                listener.onProgress(count, items.size());
+        }
+
+        /**
+         * The images in [start, end), split in halves until small enough to index in turn.
+         */
+        private class Part extends RecursiveAction {
+            private final int start;
+            private final int end;
+
+            Part(int start, int end) {
+                this.start = start;
+                this.end = end;
+            }
+
+            @Override
+            protected void compute() {
+                if (cancelled.get())
+                    return;
+                if (end - start > MIN_PART_SIZE) {
+                    int middle = (start + end) >>> 1;
+                    invokeAll(new Part(start, middle), new Part(middle, end));
+                    return;
+                }
+                for (int i = start; i < end && !cancelled.get(); i++)
+                    index(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs background loads on a fixed number of threads, taking queued loads in order of
+ * priority and then of submission, and drops a load that is removed before it starts.
+ *
+ * The threads are started up front. A ThreadPoolExecutor hands the tasks it is given while it
+ * has fewer threads than its core size straight to new threads, past the queue, where they can
+ * neither be ordered behind more urgent loads nor removed.
+ */
+class LoadQueue {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param threads
+     */
+    LoadQueue(int threads) {
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>());
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Queues a load.
+     * @param task
+     */
+    void execute(Task task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Drops a load if it has not started.
+     * @param task
+     * @return true if the load was dropped
+     */
+    boolean remove(Task task) {
+        return executor.remove(task);
+    }
+
+    /**
+     * Stops the threads once the queued loads have run.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * A queued load. Lower priorities are taken first, then earlier tasks.
+     */
+    static class Task implements Runnable, Comparable<Task> {
+        private static final AtomicLong sequence = new AtomicLong();
+
+        private final int priority;
+        private final long order = sequence.getAndIncrement();
+        private final Runnable work;
+
+        Task(int priority, Runnable work) {
+            this.priority = priority;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            work.run();
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority)
+                return priority < other.priority ? -1 : 1;
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * StorageBackend that stores objects in a local directory, with a configurable latency per
+ * request and bandwidth limit, so upload paths can be tested and benchmarked repeatably
+ * without Firebase. Callbacks arrive on the backend's worker threads.
+ *
+ * Uploads are written to a session file first and moved into place when complete, so a
+ * putFile given the session URI of an interrupted upload continues from where it stopped.
+ */
+public class LocalStorageBackend implements StorageBackend {
+
+    private static final String SESSION_SCHEME = "local:";
+    private static final String SESSIONS_DIR = ".sessions";
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final File root;
+    private final long latencyMs;
+    private final long bytesPerSecond;
+    private final ExecutorService executor;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param root directory the objects are stored in
+     * @param latencyMs delay before each request starts
+     * @param bytesPerSecond transfer rate of each upload, or 0 for no limit
+     * @param threads number of requests served at the same time
+     */
+    public LocalStorageBackend(File root, long latencyMs, long bytesPerSecond, int threads) {
+        this.root = root;
+        this.latencyMs = latencyMs;
+        this.bytesPerSecond = bytesPerSecond;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Returns the file that holds the named object.
+     * @param name
+     * @return
+     */
+    public File getFile(String name) {
+        return new File(root, name);
+    }
+
+    /**
+     * Stops the worker threads once queued requests have completed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public void putBytes(final String name, final byte[] bytes, final UploadCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    delay();
+                    transfer(name, new ByteArrayInputStream(bytes), bytes.length, newSession(), 0, callback);
+                    callback.onSuccess();
+                } catch (IOException | InterruptedException e) {
+                    callback.onFailure(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void putFile(final String name, final File file, final String sessionUri,
+                        final UploadCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                InputStream in = null;
+                try {
+                    delay();
+                    String session = sessionUri;
+                    long offset = 0;
+                    if (session != null && session.startsWith(SESSION_SCHEME) && sessionFile(session).exists()) {
+                        offset = sessionFile(session).length();
+                    } else {
+                        session = newSession();
+                    }
+                    in = new FileInputStream(file);
+                    long skipped = 0;
+                    while (skipped < offset) {
+                        long n = in.skip(offset - skipped);
+                        if (n <= 0)
+                            throw new IOException("Session is longer than " + file);
+                        skipped += n;
+                    }
+                    transfer(name, in, file.length(), session, offset, callback);
+                    callback.onSuccess();
+                } catch (IOException | InterruptedException e) {
+                    callback.onFailure(e);
+                } finally {
+                    if (in != null) {
+                        try {
+                            in.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void list(final String prefix, final int maxResults, final String pageToken,
+                     final ListCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    delay();
+                } catch (InterruptedException e) {
+                    callback.onFailure(e);
+                    return;
+                }
+                String dirName = prefix.endsWith("/") ? prefix.substring(0, prefix.length() - 1) : prefix;
+                String[] files = new File(root, dirName).list();
+                if (files == null)
+                    files = new String[0];
+                Arrays.sort(files);
+
+                //Page tokens are the last name of the previous page
+                List<String> names = new ArrayList<>();
+                String nextPageToken = null;
+                for (String file : files) {
+                    if (file.startsWith(".") || (pageToken != null && file.compareTo(pageToken) <= 0))
+                        continue;
+                    if (names.size() == maxResults) {
+                        nextPageToken = names.isEmpty() ? null : lastName(names, dirName);
+                        break;
+                    }
+                    names.add(dirName + "/" + file);
+                }
+                callback.onSuccess(names, nextPageToken);
+            }
+        });
+    }
+
+    @Override
+    public void getMetadata(final String name, final MetadataCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    delay();
+                } catch (InterruptedException e) {
+                    callback.onFailure(e);
+                    return;
+                }
+                File file = getFile(name);
+                if (!file.isFile()) {
+                    callback.onFailure(new FileNotFoundException(name));
+                    return;
+                }
+                callback.onSuccess(file.length(), file.lastModified());
+            }
+        });
+    }
+
+    @Override
+    public void getBytes(final String name, final long maxBytes, final DownloadCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    delay();
+                    File file = getFile(name);
+                    if (file.length() > maxBytes)
+                        throw new IOException(name + " is larger than " + maxBytes + " bytes");
+                    byte[] bytes = new byte[(int) file.length()];
+                    DataInputStream in = new DataInputStream(new FileInputStream(file));
+                    try {
+                        in.readFully(bytes);
+                    } finally {
+                        in.close();
+                    }
+                    callback.onSuccess(bytes);
+                } catch (IOException | InterruptedException e) {
+                    callback.onFailure(e);
+                }
+            }
+        });
+    }
+
+    private static String lastName(List<String> names, String dirName) {
+        return names.get(names.size() - 1).substring(dirName.length() + 1);
+    }
+
+    private void delay() throws InterruptedException {
+        if (latencyMs > 0)
+            Thread.sleep(latencyMs);
+    }
+
+    private String newSession() {
+        return SESSION_SCHEME + UUID.randomUUID().toString();
+    }
+
+    private File sessionFile(String session) {
+        return new File(new File(root, SESSIONS_DIR), session.substring(SESSION_SCHEME.length()));
+    }
+
+    /**
+     * Appends the stream to the session file at the configured rate, reporting progress
+     * after each chunk, then moves the completed file into place.
+     */
+    private void transfer(String name, InputStream in, long totalBytes, String session, long offset,
+                          UploadCallback callback) throws IOException, InterruptedException {
+        File part = sessionFile(session);
+        File parent = part.getParentFile();
+        if (!parent.exists() && !parent.mkdirs())
+            throw new IOException("Cannot create " + parent);
+        OutputStream out = new FileOutputStream(part, offset > 0);
+        long transferred = offset;
+        long start = System.nanoTime();
+        try {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            callback.onProgress(transferred, totalBytes, session);
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                transferred += read;
+                if (bytesPerSecond > 0) {
+                    long dueMs = (transferred - offset) * 1000 / bytesPerSecond;
+                    long elapsedMs = (System.nanoTime() - start) / 1000000;
+                    if (dueMs > elapsedMs)
+                        Thread.sleep(dueMs - elapsedMs);
+                }
+                callback.onProgress(transferred, totalBytes, session);
+            }
+        } finally {
+            out.close();
+        }
+
+        File target = getFile(name);
+        File targetDir = target.getParentFile();
+        if (!targetDir.exists() && !targetDir.mkdirs())
+            throw new IOException("Cannot create " + targetDir);
+        if (target.exists() && !target.delete())
+            throw new IOException("Cannot replace " + target);
+        if (!part.renameTo(target))
+            throw new IOException("Cannot move upload to " + target);
+    }
+}
@@ -1,30 +1,40 @@
 package au.edu.sydney.comp5216.mediaaccess;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import android.Manifest;
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.net.Uri;
+import android.database.ContentObserver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
 import android.view.View;
+import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
-import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.firebase.storage.FirebaseStorage;
-import com.google.firebase.storage.OnProgressListener;
-import com.google.firebase.storage.StorageReference;
-import com.google.firebase.storage.UploadTask;
 
 /**
  * Main activity class controlling the main view. Displays all photos stored on the user's device.
@@ -36,16 +46,78 @@ public class MainActivity extends Activity {
     private static final int REQUEST_CODE = 101;
     private static final int MY_READ_PERMISSION_CODE = 101;
 
-    //Firebase
-    FirebaseStorage storage;
-    StorageReference storageReference;
-
     MarshmallowPermission marshmallowPermission = new MarshmallowPermission(this);
     RecyclerView recyclerView;
     GalleryAdapter galleryAdapter;
-    List<String> images;
+    MediaPager pager;
+    GalleryPreloader preloader;
     TextView gallery_number;
 
+    //Photos already in cloud storage, shown instead of the device's by the "Cloud" button
+    CloudGallery cloudGallery;
+    CloudGalleryAdapter cloudAdapter;
+    CloudListingCache cloudCache;
+    private boolean showingCloud;
+
+    //Most bits the perceptual hashes of near-duplicates differ in, out of 64
+    private static final int NEAR_DUPLICATE_DISTANCE = 4;
+    //Perceptual hashes are taken from images decoded to about this many pixels across
+    private static final int PERCEPTUAL_HASH_SIZE = 32;
+    //Decodes a photo read into memory at a small subsampling and returns its perceptual hash
+    private static final PhotoHasher.Decoder PERCEPTUAL_HASH_DECODER = new PhotoHasher.Decoder() {
+        @Override
+        public Long perceptualHash(byte[] data, int length) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, length, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0)
+                return null;
+            int sampleSize = 1;
+            while (Math.min(options.outWidth, options.outHeight) / (sampleSize * 2) >= PERCEPTUAL_HASH_SIZE)
+                sampleSize *= 2;
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+            if (bitmap == null)
+                return null;
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            bitmap.recycle();
+            return PerceptualHash.dHash(pixels, width, height);
+        }
+    };
+
+    //The hashing pass of the synchronisation in progress, if any
+    private volatile LibraryIndexer.Job<?> syncScan;
+
+    //Gallery pages are read from the MediaStore off the main thread
+    private static final ExecutorService galleryExecutor = Executors.newSingleThreadExecutor();
+
+    //Bursts of MediaStore changes, e.g. while a photo is being written, cause a single reload
+    private static final long GALLERY_RELOAD_DELAY_MS = 300;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable reloadGallery = new Runnable() {
+        @Override
+        public void run() {
+            if (pager != null)
+                pager.reload();
+        }
+    };
+    private final ContentObserver mediaObserver = new ContentObserver(handler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            //The camera's own photos are added by id when it returns
+            if (awaitingCapture)
+                changedWhileCapturing = true;
+            else
+                scheduleGalleryReload();
+        }
+    };
+    private boolean awaitingCapture;
+    private boolean changedWhileCapturing;
+
     /**
      * Handles the creation of the activity, and calling loadImages() to load the device's photos.
      * Permissions are also checked appropriately, and Firebase is initialised.
@@ -58,9 +130,11 @@ public class MainActivity extends Activity {
         gallery_number = findViewById(R.id.gallery_number);
         recyclerView = findViewById(R.id.recyclerview_gallery_images);
 
-        //Firebase
-        storage = FirebaseStorage.getInstance();
-        storageReference = storage.getReference();
+        //Firebase, resumes any uploads left unfinished when the app was last closed
+        UploadScheduler.getInstance(this);
+
+        //Trims the pools and thumbnail cache when the system is low on memory
+        MemoryManager.getInstance(this);
 
         //Permission check & call to load images
         if (ContextCompat.checkSelfPermission(MainActivity.this,
@@ -73,43 +147,383 @@ public class MainActivity extends Activity {
     }
 
     /**
-     * Iterates through the list of URI's in the device and uploads them to Firebase Storage.
+     * Uploads the device's photos to Firebase Storage, skipping any photo that the
+     * upload manifest shows has already been uploaded.
+     * Each photo is stored under a name derived from its content hash. Photos are hashed in
+     * parallel by the LibraryIndexer, which the dialog's Cancel button stops, and then handed
+     * to the UploadScheduler, which limits how many transfer at once.
+     * With the batch uploads setting on, small photos are packed into bundles instead, see
+     * BundleQueue.
+     * Photos whose perceptual hash is within a few bits of one already uploaded or queued are
+     * counted as near-duplicates and still uploaded, unless the user has chosen to skip them.
      * @param view
      */
     public void upload(View view) {
-
-        //Iterates through the entire list of photo URI's
-        for (int i = 0; i < ImagesGallery.listOfImages(this).size(); i++) {
-            Uri uri = Uri.parse("file://"+ImagesGallery.listOfImages(this).get(i));
-            System.out.println(uri);
-            if(uri != null) {
-                final ProgressDialog progressDialog = new ProgressDialog(this);
-                progressDialog.setTitle("Uploading...");
-                progressDialog.show();
-                StorageReference ref = storageReference.child("images/"+ UUID.randomUUID().toString());
-
-                //Adds the URI as a reference for Firebase Storage
-                ref.putFile(uri).addOnSuccessListener(new OnSuccessListener<UploadTask.TaskSnapshot>() {
+        AppSettings settings = AppSettings.getInstance(this);
+        final boolean batchUploads = settings.isBatchUploads();
+        final boolean skipNearDuplicates = settings.isSkipNearDuplicates();
+        final UploadManifest manifest = UploadManifest.open(
+                new File(getFilesDir(), UploadManifest.FILE_NAME));
+        final ProgressDialog progressDialog = new ProgressDialog(this);
+        progressDialog.setTitle("Uploading...");
+        progressDialog.setMessage("Checking for new photos");
+        progressDialog.setButton(DialogInterface.BUTTON_NEGATIVE, "Cancel",
+                new DialogInterface.OnClickListener() {
                     @Override
-                    public void onSuccess(UploadTask.TaskSnapshot taskSnapshot) {
-                        progressDialog.dismiss();
-                        Toast.makeText(MainActivity.this, "Uploaded", Toast.LENGTH_SHORT).show();
+                    public void onClick(DialogInterface dialog, int which) {
+                        cancelSyncScan();
                     }
-                }).addOnFailureListener(new OnFailureListener() {
-                    @Override
-                    public void onFailure(@NonNull Exception e) {
-                        progressDialog.dismiss();
-                        Toast.makeText(MainActivity.this, "Failed "+e.getMessage(), Toast.LENGTH_SHORT).show();
+                });
+        progressDialog.show();
+        final SyncProgress progress = new SyncProgress(progressDialog, skipNearDuplicates);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                UploadScheduler scheduler = UploadScheduler.getInstance(MainActivity.this);
+                BundleQueue bundles = new BundleQueue(scheduler, manifest, progress);
+                final PerceptualHashIndex perceptualHashes = new PerceptualHashIndex(
+                        new File(getFilesDir(), PerceptualHashIndex.FILE_NAME));
+                perceptualHashes.load();
+
+                //Only the new or changed photos need hashing
+                List<MediaItem> items = new ArrayList<>();
+                for (MediaItem item : ImagesGallery.listOfMedia(MainActivity.this)) {
+                    if (!manifest.isUploaded(item))
+                        items.add(item);
+                }
+                List<String> hashes;
+                PhotoHasher hasher = new PhotoHasher(manifest, perceptualHashes,
+                        BufferPool.getInstance(), PERCEPTUAL_HASH_DECODER);
+                LibraryIndexer.Job<String> scan = LibraryIndexer.getInstance().start(items,
+                        hasher, new LibraryIndexer.ProgressListener() {
+                            @Override
+                            public void onProgress(final int done, final int total) {
+                                runOnUiThread(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        progress.hashed(done, total);
+                                    }
+                                });
+                            }
+                        });
+                syncScan = scan;
+                try {
+                    hashes = scan.await();
+                } catch (CancellationException e) {
+                    //Keep what was hashed, so the next synchronisation need not decode it again
+                    perceptualHashes.save();
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            progress.cancelled();
+                        }
+                    });
+                    return;
+                } finally {
+                    syncScan = null;
+                }
+                BkTree<String> uploaded = perceptualHashes.treeOf(manifest.getHashes());
+
+                //Queues the new or changed photos, in the order they were listed
+                for (int i = 0; i < items.size(); i++) {
+                    MediaItem item = items.get(i);
+                    String hash = hashes.get(i);
+                    if (hash == null)
+                        continue;
+
+                    //Same content already uploaded, e.g. a copy or a photo whose metadata changed
+                    if (manifest.containsHash(hash)) {
+                        recordUpload(manifest, item, hash);
+                        continue;
+                    }
+
+                    if (isNearDuplicate(uploaded, perceptualHashes.get(hash), hash)) {
+                        progress.nearDuplicate();
+                        if (skipNearDuplicates)
+                            continue;
                     }
-                }).addOnProgressListener(new OnProgressListener<UploadTask.TaskSnapshot>() {
+
+                    if (batchUploads && new File(item.getPath()).length() <= MediaBundle.SMALL_FILE_BYTES) {
+                        bundles.add(item, hash);
+                        continue;
+                    }
+
+                    final MediaItem queuedItem = item;
+                    final String queuedHash = hash;
+                    progress.queued();
+                    scheduler.enqueue(UploadManifest.objectName(hash), new File(item.getPath()),
+                            UploadScheduler.PRIORITY_SYNC, new UploadScheduler.UploadListener() {
+                                @Override
+                                public void onProgress(UploadJob job, long bytesTransferred, long totalBytes) {
+                                }
+
+                                @Override
+                                public void onSuccess(UploadJob job) {
+                                    recordUpload(manifest, queuedItem, queuedHash);
+                                    progress.uploaded();
+                                }
+
+                                @Override
+                                public void onFailure(UploadJob job, Exception e) {
+                                    progress.failed();
+                                }
+                            });
+                }
+                bundles.flush();
+                //The user is watching this synchronisation, so do not hold it for a full batch
+                scheduler.flush();
+                perceptualHashes.save();
+                final String waitingFor = scheduler.getWaitingFor();
+                runOnUiThread(new Runnable() {
                     @Override
-                    public void onProgress(UploadTask.TaskSnapshot taskSnapshot) {
-                        double progress = (100.0*taskSnapshot.getBytesTransferred()/taskSnapshot
-                                .getTotalByteCount());
-                        progressDialog.setMessage("Uploaded "+(int)progress+"%");
+                    public void run() {
+                        progress.scanFinished(waitingFor);
                     }
                 });
             }
+        }, "Sync").start();
+    }
+
+    /**
+     * Stops hashing the photos of a synchronisation in progress. Photos already queued
+     * still upload.
+     */
+    private void cancelSyncScan() {
+        LibraryIndexer.Job<?> job = syncScan;
+        if (job != null)
+            job.cancel();
+    }
+
+    /**
+     * Returns true if a photo looks nearly the same as one in the tree, and otherwise adds it
+     * to the tree.
+     * @param tree perceptual hashes of the photos uploaded or queued
+     * @param perceptual the photo's perceptual hash, or null if it could not be decoded
+     * @param hash the photo's content hash
+     * @return
+     */
+    private static boolean isNearDuplicate(BkTree<String> tree, Long perceptual, String hash) {
+        if (perceptual == null)
+            return false;
+        if (!tree.search(perceptual, NEAR_DUPLICATE_DISTANCE).isEmpty())
+            return true;
+        tree.add(perceptual, hash);
+        return false;
+    }
+
+    /**
+     * Records a completed upload in the manifest.
+     * @param manifest
+     * @param item
+     * @param hash
+     */
+    private static void recordUpload(UploadManifest manifest, MediaItem item, String hash) {
+        try {
+            manifest.record(item, hash);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Packs the small photos of a synchronisation into bundles on disk and queues each bundle
+     * as a single upload once it is full. Bundles are written to the files directory so an
+     * unfinished upload can resume after a restart, and deleted once done with.
+     * Used from the synchronisation's scanning thread.
+     */
+    private class BundleQueue {
+
+        private final UploadScheduler scheduler;
+        private final UploadManifest manifest;
+        private final SyncProgress progress;
+        private final List<MediaItem> items = new ArrayList<>();
+        private final List<String> hashes = new ArrayList<>();
+        private MediaBundle.Writer writer;
+        private File file;
+
+        BundleQueue(UploadScheduler scheduler, UploadManifest manifest, SyncProgress progress) {
+            this.scheduler = scheduler;
+            this.manifest = manifest;
+            this.progress = progress;
+        }
+
+        /**
+         * Adds a photo to the current bundle, queueing the bundle if that fills it.
+         * @param item
+         * @param hash
+         */
+        void add(MediaItem item, String hash) {
+            progress.queued();
+            try {
+                if (writer == null) {
+                    File dir = new File(getFilesDir(), MediaBundle.DIR_NAME);
+                    dir.mkdirs();
+                    file = new File(dir, UUID.randomUUID().toString());
+                    writer = new MediaBundle.Writer(file);
+                }
+                writer.add(hash, new File(item.getPath()));
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed(1);
+                return;
+            }
+            items.add(item);
+            hashes.add(hash);
+            if (writer.getSize() >= MediaBundle.TARGET_BUNDLE_BYTES
+                    || writer.getEntries().size() >= MediaBundle.MAX_ENTRIES)
+                flush();
+        }
+
+        /**
+         * Queues the current bundle, if it has any photos.
+         */
+        void flush() {
+            if (writer == null)
+                return;
+            final List<MediaItem> bundledItems = new ArrayList<>(items);
+            final List<String> bundledHashes = new ArrayList<>(hashes);
+            final File bundle = file;
+            List<MediaBundle.Entry> entries = writer.getEntries();
+            items.clear();
+            hashes.clear();
+            try {
+                writer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                bundle.delete();
+                failed(bundledItems.size());
+                return;
+            } finally {
+                writer = null;
+                file = null;
+            }
+            if (entries.isEmpty()) {
+                bundle.delete();
+                return;
+            }
+
+            UploadJob job = scheduler.enqueue(MediaBundle.objectName(entries), bundle,
+                    UploadScheduler.PRIORITY_SYNC, new UploadScheduler.UploadListener() {
+                        @Override
+                        public void onProgress(UploadJob job, long bytesTransferred, long totalBytes) {
+                        }
+
+                        @Override
+                        public void onSuccess(UploadJob job) {
+                            for (int i = 0; i < bundledItems.size(); i++) {
+                                recordUpload(manifest, bundledItems.get(i), bundledHashes.get(i));
+                                progress.uploaded();
+                            }
+                            job.getFile().delete();
+                        }
+
+                        @Override
+                        public void onFailure(UploadJob job, Exception e) {
+                            for (int i = 0; i < bundledItems.size(); i++)
+                                progress.failed();
+                            job.getFile().delete();
+                        }
+                    });
+            //The same bundle is already queued, so this copy is not needed
+            if (!bundle.equals(job.getFile()))
+                bundle.delete();
+        }
+
+        private void failed(final int count) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; i++)
+                        progress.failed();
+                }
+            });
+        }
+    }
+
+    /**
+     * Tracks the uploads queued by a single synchronisation and reports their progress.
+     * Uploads are queued from the scanning thread; results arrive on the main thread.
+     */
+    private class SyncProgress {
+
+        private final ProgressDialog progressDialog;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicInteger nearDuplicates = new AtomicInteger();
+        private final boolean skipNearDuplicates;
+        private int uploaded;
+        private int failed;
+        private boolean scanFinished;
+
+        SyncProgress(ProgressDialog progressDialog, boolean skipNearDuplicates) {
+            this.progressDialog = progressDialog;
+            this.skipNearDuplicates = skipNearDuplicates;
+        }
+
+        void queued() {
+            queued.incrementAndGet();
+        }
+
+        void nearDuplicate() {
+            nearDuplicates.incrementAndGet();
+        }
+
+        void hashed(int done, int total) {
+            if (!scanFinished)
+                progressDialog.setMessage("Checked " + done + " of " + total + " photos");
+        }
+
+        void cancelled() {
+            progressDialog.dismiss();
+            Toast.makeText(MainActivity.this, "Synchronisation cancelled", Toast.LENGTH_SHORT).show();
+        }
+
+        /**
+         * Called once every new photo is queued.
+         * @param waitingFor what the uploads are held for, or null if they can start now
+         */
+        void scanFinished(String waitingFor) {
+            scanFinished = true;
+            int total = queued.get();
+            if (waitingFor != null && uploaded + failed < total) {
+                //The uploads start by themselves later, so don't block the gallery meanwhile
+                progressDialog.dismiss();
+                Toast.makeText(MainActivity.this, "Queued " + total + " photos, waiting for "
+                        + waitingFor + nearDuplicateSummary(), Toast.LENGTH_LONG).show();
+                return;
+            }
+            update();
+        }
+
+        void uploaded() {
+            uploaded++;
+            update();
+        }
+
+        void failed() {
+            failed++;
+            update();
+        }
+
+        private void update() {
+            int total = queued.get();
+            if (scanFinished && uploaded + failed >= total) {
+                progressDialog.dismiss();
+                String message = total == 0 ? "No new photos to upload" : "Uploaded " + uploaded;
+                if (failed > 0)
+                    message += ", failed " + failed;
+                message += nearDuplicateSummary();
+                Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+            } else {
+                progressDialog.setMessage("Uploaded " + (uploaded + failed) + " of " + total);
+            }
+        }
+
+        private String nearDuplicateSummary() {
+            int count = nearDuplicates.get();
+            if (count == 0)
+                return "";
+            return (skipNearDuplicates ? ", skipped " : ", found ") + count + " near-duplicates";
         }
     }
 
@@ -124,33 +538,234 @@ public class MainActivity extends Activity {
             marshmallowPermission.requestPermissionForCamera();
         } else {
             Intent intent = new Intent(MainActivity.this, CameraActivity.class);
+            awaitingCapture = true;
+            changedWhileCapturing = false;
             startActivityForResult(intent, REQUEST_CODE);
         }
     }
 
     /**
-     * Receives the list of image URI's, passes it through the galleryAdapter, and
-     * loads the images into the recyclerView.
+     * Writes the timings recorded so far to a file, to compare one build with another,
+     * and saves the cloud listing for the next time the app is opened.
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        final File dump = new File(getFilesDir(), Metrics.FILE_NAME);
+        final CloudListingCache listing = cloudCache;
+        galleryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (listing != null)
+                    listing.save();
+                try {
+                    Metrics.getInstance().dump(dump, BuildConfig.VERSION_NAME + " ("
+                            + BuildConfig.VERSION_CODE + ")");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops watching the MediaStore, and stops hashing for a synchronisation in progress.
+     */
+    @Override
+    protected void onDestroy() {
+        cancelSyncScan();
+        getContentResolver().unregisterContentObserver(mediaObserver);
+        handler.removeCallbacks(reloadGallery);
+        super.onDestroy();
+    }
+
+    /**
+     * Reloads the gallery shortly, unless a reload is already due.
+     */
+    private void scheduleGalleryReload() {
+        handler.removeCallbacks(reloadGallery);
+        handler.postDelayed(reloadGallery, GALLERY_RELOAD_DELAY_MS);
+    }
+
+    /**
+     * Pages the device's images through the galleryAdapter into the recyclerView.
+     * Only the count and the first page are read before the first screen is shown; later
+     * pages are read as they are scrolled to, and thumbnails are prefetched ahead of the scroll.
+     * The MediaStore is then watched, and changes are applied to the gallery as diffs.
      */
     @RequiresApi(api = Build.VERSION_CODES.Q)
     public void loadImages() {
-        recyclerView.setHasFixedSize(true);
-        recyclerView.setLayoutManager(new GridLayoutManager(this, 4));
-        images = ImagesGallery.listOfImages(this);
-        galleryAdapter = new GalleryAdapter(this, images, new GalleryAdapter.PhotoListener() {
+        setUpGrid();
+        pager = new MediaPager(new MediaStorePageLoader(getContentResolver()),
+                MediaPager.DEFAULT_PAGE_SIZE, MediaPager.DEFAULT_MAX_PAGES, galleryExecutor,
+                ContextCompat.getMainExecutor(this));
+        galleryAdapter = new GalleryAdapter(this, pager, new GalleryAdapter.PhotoListener() {
             @Override
             public void onPhotoClick(String path) {
                 Toast.makeText(MainActivity.this, "" + path, Toast.LENGTH_SHORT).show();
             }
         });
+        pager.setListener(new MediaPager.Listener() {
+            @Override
+            public void onCountChanged(int count) {
+                galleryAdapter.notifyDataSetChanged();
+                if (!showingCloud)
+                    gallery_number.setText("Photos (" + count + ")");
+            }
+
+            @Override
+            public void onPageLoaded(int start, int count) {
+                galleryAdapter.notifyItemRangeChanged(start, count);
+            }
+
+            @Override
+            public void onWindowChanged(int start, List<MediaItem> before, List<MediaItem> after,
+                                        int oldCount, int newCount) {
+                galleryAdapter.applyWindowChange(start, before, after, oldCount, newCount);
+                if (!showingCloud)
+                    gallery_number.setText("Photos (" + newCount + ")");
+            }
+        });
+
+        if (preloader != null)
+            recyclerView.removeOnScrollListener(preloader);
+        preloader = new GalleryPreloader(pager, ThumbnailCache.getInstance(this));
+        recyclerView.addOnScrollListener(preloader);
+
+        if (!showingCloud)
+            recyclerView.setAdapter(galleryAdapter);
+        pager.refresh();
+
+        getContentResolver().unregisterContentObserver(mediaObserver);
+        getContentResolver().registerContentObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                true, mediaObserver);
+    }
+
+    private void setUpGrid() {
+        if (recyclerView.getLayoutManager() != null)
+            return;
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setLayoutManager(new GridLayoutManager(this, ThumbnailCache.GRID_COLUMNS));
+    }
+
+    /**
+     * Shows the settings dialog, where the user switches the modes listed in AppSettings.
+     * Changes are saved as they are made and apply from the next capture or synchronisation.
+     * @param view
+     */
+    public void onSettingsClick(View view) {
+        final AppSettings settings = AppSettings.getInstance(this);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_settings)
+                .setMultiChoiceItems(AppSettings.LABELS, settings.getAll(),
+                        new DialogInterface.OnMultiChoiceClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                                settings.set(AppSettings.KEYS[which], isChecked);
+                            }
+                        })
+                .setPositiveButton("Done", null)
+                .show();
+    }
+
+    /**
+     * Switches the gallery between the device's photos and those in cloud storage.
+     * @param view
+     */
+    public void onGalleryModeClick(View view) {
+        showingCloud = !showingCloud;
+        Button button = (Button) view;
+        if (showingCloud) {
+            button.setText("Device");
+            showCloudGallery();
+        } else {
+            button.setText("Cloud");
+            recyclerView.setAdapter(galleryAdapter);
+            gallery_number.setText("Photos (" + (pager == null ? 0 : pager.getCount()) + ")");
+        }
+    }
+
+    /**
+     * Shows the photos in cloud storage, listed a page at a time as the grid is scrolled.
+     * Listings cached within their time to live are used without asking the cloud again.
+     */
+    private void showCloudGallery() {
+        setUpGrid();
+        gallery_number.setText("Cloud");
+        if (cloudGallery != null) {
+            recyclerView.setAdapter(cloudAdapter);
+            cloudAdapter.clear();
+            cloudGallery.refresh();
+            return;
+        }
+
+        final StorageBackend backend = UploadScheduler.getInstance(this).getBackend();
+        cloudCache = CloudListingCache.open(new File(getFilesDir(), CloudListingCache.FILE_NAME),
+                CloudListingCache.DEFAULT_TTL_MS);
+        cloudGallery = new CloudGallery(backend, cloudCache, CloudGallery.DEFAULT_PAGE_SIZE,
+                ContextCompat.getMainExecutor(this));
+        cloudAdapter = new CloudGalleryAdapter(this, cloudGallery, backend,
+                new GalleryAdapter.PhotoListener() {
+                    @Override
+                    public void onPhotoClick(String path) {
+                        showCloudDetails(path);
+                    }
+                });
+        cloudGallery.setListener(new CloudGallery.Listener() {
+            @Override
+            public void onPageLoaded(int start, int count, boolean complete) {
+                cloudAdapter.onPageLoaded(start, count);
+                if (showingCloud)
+                    gallery_number.setText("Cloud (" + (start + count) + (complete ? "" : "+") + ")");
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Toast.makeText(MainActivity.this, "Could not list cloud photos: " + e.getMessage(),
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
+        recyclerView.setAdapter(cloudAdapter);
+
+        //The cached listing is read off the main thread before the first page is asked for
+        galleryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                cloudCache.load();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        cloudGallery.refresh();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Shows the size and upload time of a photo in cloud storage.
+     * @param name
+     */
+    private void showCloudDetails(final String name) {
+        cloudGallery.getMetadata(name, new StorageBackend.MetadataCallback() {
+            @Override
+            public void onSuccess(long sizeBytes, long updatedTimeMillis) {
+                Toast.makeText(MainActivity.this, name + "\n" + (sizeBytes / 1024) + " KB, "
+                        + DateFormat.getDateTimeInstance().format(new Date(updatedTimeMillis)),
+                        Toast.LENGTH_SHORT).show();
+            }
 
-        recyclerView.setAdapter(galleryAdapter);
-        gallery_number.setText("Photos (" + images.size() + ")");
+            @Override
+            public void onFailure(Exception e) {
+                Toast.makeText(MainActivity.this, name, Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     /**
      * Given a request code received from returning from the CameraActivity,
-     * reload the gallery with the updated images.
+     * adds the photos it took to the gallery by their MediaStore ids, rather than
+     * querying the MediaStore again. The gallery is reloaded if no ids came back.
      * @param requestCode
      * @param resultCode
      * @param data
@@ -159,9 +774,16 @@ public class MainActivity extends Activity {
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
-        if (requestCode == REQUEST_CODE && resultCode == RESULT_OK) {
-            loadImages();
-            recreate();
+        if (requestCode != REQUEST_CODE)
+            return;
+        awaitingCapture = false;
+        long[] ids = data == null ? null : data.getLongArrayExtra(CameraActivity.EXTRA_MEDIA_IDS);
+        if (ids != null && ids.length > 0 && pager != null) {
+            //Adds just the new photos, reloading only if anything else changed meanwhile
+            pager.insertNewest(ids);
+        } else if (changedWhileCapturing || resultCode == RESULT_OK) {
+            scheduleGalleryReload();
         }
+        changedWhileCapturing = false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.File;
+
+/**
+ * StorageBackend that records how long each upload to another backend takes, and how many
+ * bytes it moved, in a Metrics registry.
+ */
+public class MeasuredStorageBackend implements StorageBackend {
+
+    private final StorageBackend backend;
+    private final Metrics metrics;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param backend the backend uploads are passed on to
+     * @param metrics
+     */
+    public MeasuredStorageBackend(StorageBackend backend, Metrics metrics) {
+        this.backend = backend;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void putBytes(String name, byte[] bytes, UploadCallback callback) {
+        backend.putBytes(name, bytes, new MeasuredCallback(
+                metrics.startAsync(Metrics.UPLOAD_PUT_BYTES), bytes.length, callback));
+    }
+
+    @Override
+    public void putFile(String name, File file, String sessionUri, UploadCallback callback) {
+        backend.putFile(name, file, sessionUri, new MeasuredCallback(
+                metrics.startAsync(Metrics.UPLOAD_PUT_FILE), file.length(), callback));
+    }
+
+    @Override
+    public void list(String prefix, int maxResults, String pageToken, ListCallback callback) {
+        backend.list(prefix, maxResults, pageToken, callback);
+    }
+
+    @Override
+    public void getMetadata(String name, MetadataCallback callback) {
+        backend.getMetadata(name, callback);
+    }
+
+    @Override
+    public void getBytes(String name, long maxBytes, DownloadCallback callback) {
+        backend.getBytes(name, maxBytes, callback);
+    }
+
+    /**
+     * Stops an upload's timer when it succeeds or fails, then passes the outcome on.
+     */
+    private static class MeasuredCallback implements UploadCallback {
+        private final Metrics.Timer timer;
+        private final long bytes;
+        private final UploadCallback callback;
+
+        MeasuredCallback(Metrics.Timer timer, long bytes, UploadCallback callback) {
+            this.timer = timer;
+            this.bytes = bytes;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onProgress(long bytesTransferred, long totalBytes, String sessionUri) {
+            callback.onProgress(bytesTransferred, totalBytes, sessionUri);
+        }
+
+        @Override
+        public void onSuccess() {
+            timer.stop(bytes);
+            callback.onSuccess();
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            timer.fail();
+            callback.onFailure(e);
+        }
+    }
+}
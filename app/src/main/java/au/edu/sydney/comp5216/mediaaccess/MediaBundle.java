@@ -0,0 +1,325 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Archive of many small images uploaded as one Storage object, so a library of screenshots
+ * and thumbnails does not pay the cost of a request per image.
+ *
+ * A bundle is a header, the images' bytes one after another, then an index of each image's
+ * name, offset and length, and a fixed size footer giving where the index starts. The index
+ * is written last, so a bundle is streamed from the source files in a single pass with one
+ * small buffer, and any one image can be read back from its offset without reading the rest.
+ * Images are named by their content hash.
+ *
+ * Layout, big endian:
+ *   header: MAGIC, VERSION
+ *   data:   the images' bytes
+ *   index:  count, then per image: name (modified UTF-8), offset, length
+ *   footer: index offset, MAGIC
+ */
+public class MediaBundle {
+
+    // "MBND"
+    public static final int MAGIC = 0x4D424E44;
+    public static final int VERSION = 1;
+
+    // Images up to this size are packed into bundles; larger ones are uploaded on their own
+    public static final long SMALL_FILE_BYTES = 256 * 1024;
+    // A bundle is closed once it holds this many bytes or entries
+    public static final long TARGET_BUNDLE_BYTES = 8 * 1024 * 1024;
+    public static final int MAX_ENTRIES = 500;
+
+    public static final String DIR_NAME = "bundles";
+
+    private static final String OBJECT_PREFIX = "bundles/";
+    private static final int HEADER_BYTES = 8;
+    private static final int FOOTER_BYTES = 12;
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Returns the Storage object name for a bundle of the given entries. The name depends only
+     * on the entries' names, so queueing the same bundle again resolves to the same object.
+     * @param entries
+     * @return
+     */
+    public static String objectName(List<Entry> entries) {
+        StringBuilder names = new StringBuilder(entries.size() * 65);
+        for (Entry entry : entries)
+            names.append(entry.getName()).append('\n');
+        return OBJECT_PREFIX + ContentHasher.sha256(names.toString().getBytes(Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Returns true if the given Storage object name is a bundle's.
+     * @param objectName
+     * @return
+     */
+    public static boolean isBundle(String objectName) {
+        return objectName.startsWith(OBJECT_PREFIX);
+    }
+
+    /**
+     * One image in a bundle.
+     */
+    public static class Entry {
+        private final String name;
+        private final long offset;
+        private final long length;
+
+        /**
+         * Constructor to set appropriate values.
+         * @param name
+         * @param offset position of the image's first byte in the bundle
+         * @param length
+         */
+        public Entry(String name, long offset, long length) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Writes a bundle to a file, copying each image straight from its source file.
+     * Not thread safe.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final List<Entry> entries = new ArrayList<>();
+        private final Map<String, Entry> names = new HashMap<>();
+        private final byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        private long position;
+        private boolean closed;
+
+        /**
+         * Constructor to set appropriate values.
+         * @param file the bundle to write, replacing any file already there
+         * @throws IOException
+         */
+        public Writer(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                    COPY_BUFFER_BYTES));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            position = HEADER_BYTES;
+        }
+
+        /**
+         * Appends an image to the bundle. An image already added under the same name is
+         * not added again. If the source cannot be read the bundle is still usable; the part
+         * copied is left unindexed.
+         * @param name the image's content hash
+         * @param source
+         * @return the image's entry
+         * @throws IOException
+         */
+        public Entry add(String name, File source) throws IOException {
+            Entry existing = names.get(name);
+            if (existing != null)
+                return existing;
+            long offset = position;
+            InputStream in = new FileInputStream(source);
+            try {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    position += read;
+                }
+            } finally {
+                in.close();
+            }
+            Entry entry = new Entry(name, offset, position - offset);
+            entries.add(entry);
+            names.put(name, entry);
+            return entry;
+        }
+
+        /**
+         * Returns the number of bytes written so far, not counting the index.
+         * @return
+         */
+        public long getSize() {
+            return position;
+        }
+
+        /**
+         * Returns the entries added so far, in the order added.
+         * @return
+         */
+        public List<Entry> getEntries() {
+            return Collections.unmodifiableList(entries);
+        }
+
+        /**
+         * Writes the index and footer and closes the file.
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                long indexOffset = position;
+                out.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    out.writeUTF(entry.getName());
+                    out.writeLong(entry.getOffset());
+                    out.writeLong(entry.getLength());
+                }
+                out.writeLong(indexOffset);
+                out.writeInt(MAGIC);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Reads images back out of a bundle file by their offset, without reading the others.
+     */
+    public static class Reader implements Closeable {
+        private final RandomAccessFile file;
+        private final List<Entry> entries;
+        private final Map<String, Entry> names = new HashMap<>();
+
+        /**
+         * Constructor to set appropriate values. Reads the bundle's index.
+         * @param bundle
+         * @throws IOException if the file is not a complete bundle
+         */
+        public Reader(File bundle) throws IOException {
+            file = new RandomAccessFile(bundle, "r");
+            try {
+                entries = readIndex();
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            for (Entry entry : entries)
+                names.put(entry.getName(), entry);
+        }
+
+        /**
+         * Returns the bundle's entries, in the order they were added.
+         * @return
+         */
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Returns the entry with the given name, or null if the bundle has none.
+         * @param name
+         * @return
+         */
+        public Entry find(String name) {
+            return names.get(name);
+        }
+
+        /**
+         * Copies one image to a stream.
+         * @param entry
+         * @param out
+         * @throws IOException
+         */
+        public synchronized void extract(Entry entry, OutputStream out) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(COPY_BUFFER_BYTES, Math.max(1, entry.getLength()))];
+            file.seek(entry.getOffset());
+            long remaining = entry.getLength();
+            while (remaining > 0) {
+                int read = file.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1)
+                    throw new EOFException("Bundle ends inside " + entry.getName());
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+
+        /**
+         * Returns the bytes of the image with the given name.
+         * @param name
+         * @return
+         * @throws IOException if the bundle has no such image
+         */
+        public byte[] read(String name) throws IOException {
+            Entry entry = find(name);
+            if (entry == null)
+                throw new IOException("No entry " + name);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) entry.getLength());
+            extract(entry, out);
+            return out.toByteArray();
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+
+        private List<Entry> readIndex() throws IOException {
+            long length = file.length();
+            if (length < HEADER_BYTES + 4 + FOOTER_BYTES)
+                throw new IOException("Not a bundle");
+            file.seek(0);
+            if (file.readInt() != MAGIC)
+                throw new IOException("Not a bundle");
+            int version = file.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported bundle version " + version);
+
+            file.seek(length - FOOTER_BYTES);
+            long indexOffset = file.readLong();
+            if (file.readInt() != MAGIC || indexOffset < HEADER_BYTES
+                    || indexOffset > length - FOOTER_BYTES)
+                throw new IOException("Bundle is incomplete");
+
+            //The index is small, so read it whole and parse it from memory
+            byte[] index = new byte[(int) (length - FOOTER_BYTES - indexOffset)];
+            file.seek(indexOffset);
+            file.readFully(index);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+            int count = in.readInt();
+            List<Entry> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong());
+                if (entry.getOffset() < HEADER_BYTES
+                        || entry.getOffset() + entry.getLength() > indexOffset)
+                    throw new IOException("Bundle entry " + entry.getName() + " out of range");
+                list.add(entry);
+            }
+            return Collections.unmodifiableList(list);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cached index of the device's images, kept up to date incrementally.
+ *
+ * The index remembers the newest DATE_MODIFIED it has seen, so a refresh only needs to fetch
+ * the rows modified since then, plus the set of ids when rows have been deleted, or added
+ * without moving the watermark. It is stored on disk so the first refresh after a restart is
+ * incremental as well.
+ */
+public class MediaIndex {
+
+    public static final String FILE_NAME = "media_index.tsv";
+
+    private static final String HEADER = "#";
+
+    // Newest first, matching the order of the gallery
+    private static final Comparator<MediaItem> NEWEST_FIRST = new Comparator<MediaItem>() {
+        @Override
+        public int compare(MediaItem a, MediaItem b) {
+            if (a.getDateTaken() != b.getDateTaken())
+                return a.getDateTaken() > b.getDateTaken() ? -1 : 1;
+            if (a.getId() != b.getId())
+                return a.getId() > b.getId() ? -1 : 1;
+            return 0;
+        }
+    };
+
+    private final File file;
+    private final Map<Long, MediaItem> items = new HashMap<>();
+    private List<MediaItem> sorted;
+    private String version = "";
+    private long watermark;
+    private boolean dirty;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param file
+     */
+    public MediaIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the newest DATE_MODIFIED held in the index. Rows modified at or after this
+     * time must be fetched to bring the index up to date.
+     * @return
+     */
+    public synchronized long getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * Returns the MediaStore version the index was built against.
+     * @return
+     */
+    public synchronized String getVersion() {
+        return version;
+    }
+
+    /**
+     * Discards the index if it was built against a different MediaStore version,
+     * since ids are not stable across versions.
+     * @param version
+     */
+    public synchronized void checkVersion(String version) {
+        if (version == null || version.equals(this.version))
+            return;
+        items.clear();
+        sorted = null;
+        watermark = 0;
+        this.version = version;
+        dirty = true;
+    }
+
+    /**
+     * Adds or replaces the given rows.
+     * @param changed
+     */
+    public synchronized void update(Collection<MediaItem> changed) {
+        for (MediaItem item : changed) {
+            items.put(item.getId(), item);
+            if (item.getDateModified() > watermark)
+                watermark = item.getDateModified();
+        }
+        if (!changed.isEmpty()) {
+            sorted = null;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Removes every row whose id is not in the given set.
+     * @param ids
+     */
+    public synchronized void retain(Collection<Long> ids) {
+        Iterator<Long> it = items.keySet().iterator();
+        while (it.hasNext()) {
+            if (!ids.contains(it.next())) {
+                it.remove();
+                sorted = null;
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the ids in the given set that are not in the index, such as rows restored or
+     * moved into the MediaStore with a DATE_MODIFIED older than the watermark.
+     * @param ids
+     * @return
+     */
+    public synchronized List<Long> missing(Collection<Long> ids) {
+        List<Long> missing = new ArrayList<>();
+        for (Long id : ids) {
+            if (!items.containsKey(id))
+                missing.add(id);
+        }
+        return missing;
+    }
+
+    /**
+     * Returns the number of images in the index.
+     * @return
+     */
+    public synchronized int size() {
+        return items.size();
+    }
+
+    /**
+     * Returns the indexed images, newest first.
+     * @return
+     */
+    public synchronized List<MediaItem> getItems() {
+        if (sorted == null) {
+            List<MediaItem> list = new ArrayList<>(items.values());
+            Collections.sort(list, NEWEST_FIRST);
+            sorted = Collections.unmodifiableList(list);
+        }
+        return sorted;
+    }
+
+    /**
+     * Reads the index from disk.
+     */
+    public synchronized void load() {
+        if (!file.exists())
+            return;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(HEADER))
+                return;
+            String[] header = line.substring(HEADER.length()).split("\t", -1);
+            version = header[0];
+            watermark = Long.parseLong(header[1]);
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 4);
+                if (parts.length == 4) {
+                    MediaItem item = new MediaItem(Long.parseLong(parts[0]), parts[3],
+                            Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                    items.put(item.getId(), item);
+                }
+            }
+        } catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            //A damaged index is rebuilt from scratch
+            e.printStackTrace();
+            items.clear();
+            version = "";
+            watermark = 0;
+        } finally {
+            sorted = null;
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the index to disk if it has changed since it was last written.
+     */
+    public synchronized void save() {
+        if (!dirty)
+            return;
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+            writer.write(HEADER + version + "\t" + watermark + "\n");
+            StringBuilder line = new StringBuilder();
+            for (MediaItem item : items.values()) {
+                line.setLength(0);
+                line.append(item.getId()).append('\t')
+                        .append(item.getDateModified()).append('\t')
+                        .append(item.getDateTaken()).append('\t')
+                        .append(item.getPath()).append('\n');
+                writer.write(line.toString());
+            }
+            writer.close();
+            writer = null;
+            if (tmp.renameTo(file))
+                dirty = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
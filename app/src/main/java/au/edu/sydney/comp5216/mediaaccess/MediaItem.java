@@ -0,0 +1,43 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+/**
+ * A single image row from the device's MediaStore, holding the values needed to
+ * identify it across synchronisations.
+ */
+public class MediaItem {
+
+    private final long id;
+    private final String path;
+    private final long dateModified;
+    private final long dateTaken;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param id MediaStore _ID of the image
+     * @param path absolute path of the image on the device
+     * @param dateModified MediaStore DATE_MODIFIED of the image, in seconds
+     * @param dateTaken MediaStore DATE_TAKEN of the image, in milliseconds, or 0 if unknown
+     */
+    public MediaItem(long id, String path, long dateModified, long dateTaken) {
+        this.id = id;
+        this.path = path;
+        this.dateModified = dateModified;
+        this.dateTaken = dateTaken;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getDateModified() {
+        return dateModified;
+    }
+
+    public long getDateTaken() {
+        return dateTaken;
+    }
+}
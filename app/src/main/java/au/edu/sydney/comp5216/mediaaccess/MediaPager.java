@@ -0,0 +1,418 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Pages the device's images into the gallery a page at a time, newest first, so only a small
+ * window of rows is held in memory however large the library is.
+ *
+ * Pages are loaded on a background executor and delivered on the callback executor. A page
+ * that follows one already loaded is fetched by keyset, starting after that page's last item;
+ * otherwise, e.g. after a fast scroll, it is fetched by offset. Only the most recently used
+ * pages are kept.
+ *
+ * When the MediaStore changes, reload() reads the loaded pages again as one window and hands
+ * the listener the window before and after, so the change can be applied as a diff.
+ *
+ * Images the app has just created, such as photos just taken, are added by insertNewest(),
+ * which reads only their rows instead of the whole window.
+ *
+ * A pager is not thread safe and must only be used from the callback executor's thread.
+ */
+public class MediaPager {
+
+    public static final int DEFAULT_PAGE_SIZE = 60;
+    public static final int DEFAULT_MAX_PAGES = 8;
+
+    // The gallery's order
+    private static final Comparator<MediaItem> NEWEST_FIRST = new Comparator<MediaItem>() {
+        @Override
+        public int compare(MediaItem a, MediaItem b) {
+            if (a.getDateTaken() != b.getDateTaken())
+                return a.getDateTaken() > b.getDateTaken() ? -1 : 1;
+            if (a.getId() != b.getId())
+                return a.getId() > b.getId() ? -1 : 1;
+            return 0;
+        }
+    };
+
+    private final PageLoader loader;
+    private final int pageSize;
+    private final Executor loadExecutor;
+    private final Executor callbackExecutor;
+
+    private final LinkedHashMap<Integer, List<MediaItem>> pages;
+    // Last item of each page loaded, used as the key to fetch the following page
+    private final Map<Integer, MediaItem> pageEnds = new HashMap<>();
+    private final Set<Integer> loading = new HashSet<>();
+    private Listener listener;
+    private int count;
+    private int generation;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param loader reads pages from the MediaStore
+     * @param pageSize rows per page
+     * @param maxPages most pages held in memory
+     * @param loadExecutor runs the loader
+     * @param callbackExecutor delivers pages to the listener
+     */
+    public MediaPager(PageLoader loader, int pageSize, final int maxPages, Executor loadExecutor,
+                      Executor callbackExecutor) {
+        this.loader = loader;
+        this.pageSize = pageSize;
+        this.loadExecutor = loadExecutor;
+        this.callbackExecutor = callbackExecutor;
+        // Access ordered, so the eldest page is the least recently used
+        this.pages = new LinkedHashMap<Integer, List<MediaItem>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<MediaItem>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /**
+     * Sets the listener told when the count changes or a page arrives.
+     * @param listener
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Discards the loaded pages and reloads the count and the first page.
+     */
+    public void refresh() {
+        final int refreshGeneration = ++generation;
+        pages.clear();
+        pageEnds.clear();
+        loading.clear();
+        loading.add(0);
+        loadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int newCount = -1;
+                List<MediaItem> first = null;
+                try {
+                    newCount = loader.count();
+                    first = loader.loadPage(null, 0, pageSize);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                final int loadedCount = newCount;
+                final List<MediaItem> loadedFirst = first;
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (refreshGeneration != generation)
+                            return;
+                        if (loadedCount < 0) {
+                            loading.remove(0);
+                            return;
+                        }
+                        count = loadedCount;
+                        deliver(0, loadedFirst);
+                        if (listener != null)
+                            listener.onCountChanged(count);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads the count and the loaded window of pages again after the MediaStore has changed,
+     * and tells the listener how the window changed. If the loaded pages are not contiguous,
+     * or none are loaded, everything is refreshed instead.
+     */
+    public void reload() {
+        if (pages.isEmpty()) {
+            refresh();
+            return;
+        }
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (int page : pages.keySet()) {
+            first = Math.min(first, page);
+            last = Math.max(last, page);
+        }
+        final List<MediaItem> before = new ArrayList<>();
+        for (int page = first; page <= last; page++) {
+            List<MediaItem> items = pages.get(page);
+            if (items == null) {
+                refresh();
+                return;
+            }
+            before.addAll(items);
+        }
+
+        final int reloadGeneration = ++generation;
+        final int firstPage = first;
+        final int start = first * pageSize;
+        final int limit = (last - first + 1) * pageSize;
+        loading.clear();
+        loadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int newCount = -1;
+                List<MediaItem> window = null;
+                try {
+                    newCount = loader.count();
+                    window = loader.loadPage(null, start, limit);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                final int loadedCount = newCount;
+                final List<MediaItem> after = window;
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (reloadGeneration != generation || after == null)
+                            return;
+                        int oldCount = count;
+                        count = loadedCount;
+                        pages.clear();
+                        pageEnds.clear();
+                        for (int i = 0; i < after.size(); i += pageSize) {
+                            deliver(firstPage + i / pageSize, new ArrayList<>(
+                                    after.subList(i, Math.min(i + pageSize, after.size()))));
+                        }
+                        if (listener != null)
+                            listener.onWindowChanged(start, before, after, oldCount, count);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Adds images the app has just created, such as photos just taken, reading only their
+     * rows and the count rather than the loaded window, and tells the listener how the
+     * window changed. New images are the newest, so they go at the start of the gallery.
+     * If the first page is not held, or the count shows that other images changed as well,
+     * the pager is reloaded instead. Images already held are not added again.
+     * @param ids MediaStore ids of the new images
+     */
+    public void insertNewest(final long[] ids) {
+        final int insertGeneration = generation;
+        loadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<MediaItem> items = null;
+                int newCount = -1;
+                try {
+                    items = loader.loadItems(ids);
+                    newCount = loader.count();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                final List<MediaItem> added = items;
+                final int loadedCount = newCount;
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        //A refresh or reload since has read the new images already
+                        if (insertGeneration != generation)
+                            return;
+                        if (added == null) {
+                            reload();
+                            return;
+                        }
+                        insertWindow(added, loadedCount);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Puts new images at the start of the loaded window, which must begin at the first page.
+     */
+    private void insertWindow(List<MediaItem> added, int newCount) {
+        int last = -1;
+        for (int page : pages.keySet())
+            last = Math.max(last, page);
+        if (last < 0) {
+            reload();
+            return;
+        }
+        List<MediaItem> before = new ArrayList<>();
+        for (int page = 0; page <= last; page++) {
+            List<MediaItem> items = pages.get(page);
+            if (items == null) {
+                reload();
+                return;
+            }
+            before.addAll(items);
+        }
+
+        Set<Long> held = new HashSet<>();
+        for (MediaItem item : before)
+            held.add(item.getId());
+        List<MediaItem> fresh = new ArrayList<>(added.size());
+        for (MediaItem item : added) {
+            if (held.add(item.getId()))
+                fresh.add(item);
+        }
+        if (count + fresh.size() != newCount) {
+            reload();
+            return;
+        }
+        if (fresh.isEmpty())
+            return;
+        Collections.sort(fresh, NEWEST_FIRST);
+
+        List<MediaItem> after = new ArrayList<>(fresh);
+        after.addAll(before);
+        //Images pushed past the window's last page belong to the next page, which is not held
+        if (before.size() < count)
+            after = after.subList(0, before.size());
+        int oldCount = count;
+        count = newCount;
+        generation++;
+        pages.clear();
+        pageEnds.clear();
+        loading.clear();
+        for (int i = 0; i < after.size(); i += pageSize) {
+            deliver(i / pageSize, new ArrayList<>(
+                    after.subList(i, Math.min(i + pageSize, after.size()))));
+        }
+        if (listener != null)
+            listener.onWindowChanged(0, before, after, oldCount, count);
+    }
+
+    /**
+     * Returns the number of images, as of the last refresh.
+     * @return
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the image at the given position, or null if its page has not been loaded yet,
+     * in which case the page is requested and the listener told when it arrives.
+     * The following page is requested as well once past the middle of a page.
+     * @param position
+     * @return
+     */
+    public MediaItem getItem(int position) {
+        if (position < 0 || position >= count)
+            return null;
+        int page = position / pageSize;
+        int offset = position % pageSize;
+        if (offset >= pageSize / 2 && (page + 1) * pageSize < count)
+            request(page + 1);
+
+        List<MediaItem> items = pages.get(page);
+        if (items == null) {
+            request(page);
+            //The page may have been delivered already if the executors run in place
+            items = pages.get(page);
+            if (items == null)
+                return null;
+        }
+        return offset < items.size() ? items.get(offset) : null;
+    }
+
+    /**
+     * Returns the number of pages held in memory.
+     * @return
+     */
+    public int getLoadedPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Loads a page in the background unless it is already held or loading.
+     */
+    private void request(final int page) {
+        if (pages.containsKey(page) || loading.contains(page))
+            return;
+        loading.add(page);
+        final int requestGeneration = generation;
+        final MediaItem after = page > 0 ? pageEnds.get(page - 1) : null;
+        loadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<MediaItem> items = null;
+                try {
+                    items = loader.loadPage(after, page * pageSize, pageSize);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                final List<MediaItem> loaded = items;
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (requestGeneration != generation)
+                            return;
+                        if (deliver(page, loaded) && listener != null)
+                            listener.onPageLoaded(page * pageSize, loaded.size());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stores a loaded page. A failed load is left to be requested again.
+     */
+    private boolean deliver(int page, List<MediaItem> items) {
+        loading.remove(page);
+        if (items == null)
+            return false;
+        pages.put(page, Collections.unmodifiableList(items));
+        if (!items.isEmpty())
+            pageEnds.put(page, items.get(items.size() - 1));
+        return true;
+    }
+
+    /**
+     * Reads pages of images, newest first.
+     */
+    public interface PageLoader {
+
+        /**
+         * Returns the number of images.
+         */
+        int count();
+
+        /**
+         * Returns up to limit images, starting after the given item if there is one and the
+         * loader can key on it, otherwise at the given offset. The offset is always the
+         * position of the page's first image.
+         */
+        List<MediaItem> loadPage(MediaItem after, int offset, int limit);
+
+        /**
+         * Returns the images with the given ids, in any order.
+         */
+        List<MediaItem> loadItems(long[] ids);
+    }
+
+    /**
+     * Listener told when the pager's contents change.
+     */
+    public interface Listener {
+        void onCountChanged(int count);
+        void onPageLoaded(int start, int count);
+
+        /**
+         * Called after a reload with the loaded window, starting at position start,
+         * as it was before and is now, and the total count before and now.
+         */
+        void onWindowChanged(int start, List<MediaItem> before, List<MediaItem> after,
+                             int oldCount, int newCount);
+    }
+}
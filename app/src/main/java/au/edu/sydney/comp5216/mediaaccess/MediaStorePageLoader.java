@@ -0,0 +1,152 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.provider.MediaStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads pages of the device's images from the MediaStore, newest first, with only the rows
+ * of the page in the cursor.
+ *
+ * Rows are ordered by DATE_TAKEN then _ID, both descending, which is the gallery's order, so a
+ * page can start after the last row of the previous one without counting the rows before it.
+ */
+public class MediaStorePageLoader implements MediaPager.PageLoader {
+
+    // Build.VERSION_CODES.R, from which the MediaStore no longer accepts LIMIT in the sort order
+    private static final int SDK_LIMIT_ARGS = 30;
+
+    private static final String[] PROJECTION = {MediaStore.MediaColumns._ID,
+            MediaStore.MediaColumns.DATA, MediaStore.MediaColumns.DATE_MODIFIED,
+            MediaStore.Images.Media.DATE_TAKEN};
+
+    private static final String SORT_ORDER = MediaStore.Images.Media.DATE_TAKEN + " DESC, "
+            + MediaStore.MediaColumns._ID + " DESC";
+
+    // Rows after a key; images without DATE_TAKEN sort last
+    private static final String AFTER_KEY = "(" + MediaStore.Images.Media.DATE_TAKEN + " < ? OR "
+            + MediaStore.Images.Media.DATE_TAKEN + " IS NULL OR ("
+            + MediaStore.Images.Media.DATE_TAKEN + " = ? AND " + MediaStore.MediaColumns._ID + " < ?))";
+
+    private final ContentResolver resolver;
+    private final Uri uri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param resolver
+     */
+    public MediaStorePageLoader(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Returns the number of images.
+     * @return
+     */
+    @Override
+    public int count() {
+        Cursor cursor = resolver.query(uri, new String[] {MediaStore.MediaColumns._ID},
+                null, null, null);
+        if (cursor == null)
+            return 0;
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns up to limit images, starting after the given item if it has a DATE_TAKEN to key
+     * on, otherwise at the given offset.
+     * @param after
+     * @param offset the position of the page's first image
+     * @param limit
+     * @return
+     */
+    @Override
+    public List<MediaItem> loadPage(MediaItem after, int offset, int limit) {
+        Metrics.Timer timer = Metrics.getInstance().start(Metrics.GALLERY_PAGE);
+        try {
+            List<MediaItem> page = query(after, offset, limit);
+            timer.stop();
+            return page;
+        } finally {
+            timer.fail();
+        }
+    }
+
+    private List<MediaItem> query(MediaItem after, int offset, int limit) {
+        String selection = null;
+        String[] selectionArgs = null;
+        //A missing DATE_TAKEN reads as 0 and cannot be used as a key, so fall back to the offset
+        if (after != null && after.getDateTaken() != 0) {
+            selection = AFTER_KEY;
+            String taken = Long.toString(after.getDateTaken());
+            selectionArgs = new String[] {taken, taken, Long.toString(after.getId())};
+            offset = 0;
+        }
+
+        Cursor cursor;
+        if (Build.VERSION.SDK_INT >= SDK_LIMIT_ARGS) {
+            Bundle args = new Bundle();
+            args.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+            args.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+            args.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, SORT_ORDER);
+            args.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+            args.putInt(ContentResolver.QUERY_ARG_OFFSET, offset);
+            cursor = resolver.query(uri, PROJECTION, args, null);
+        } else {
+            cursor = resolver.query(uri, PROJECTION, selection, selectionArgs,
+                    SORT_ORDER + " LIMIT " + limit + " OFFSET " + offset);
+        }
+        return read(cursor);
+    }
+
+    /**
+     * Returns the images with the given ids, such as photos just taken, newest first.
+     * @param ids
+     * @return
+     */
+    @Override
+    public List<MediaItem> loadItems(long[] ids) {
+        if (ids.length == 0)
+            return Collections.emptyList();
+        StringBuilder selection = new StringBuilder(MediaStore.MediaColumns._ID).append(" IN (");
+        String[] selectionArgs = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = Long.toString(ids[i]);
+        }
+        selection.append(')');
+        return read(resolver.query(uri, PROJECTION, selection.toString(), selectionArgs, SORT_ORDER));
+    }
+
+    private static List<MediaItem> read(Cursor cursor) {
+        if (cursor == null)
+            return Collections.emptyList();
+
+        try {
+            int column_index_id = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns._ID);
+            int column_index_data = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATA);
+            int column_index_modified = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATE_MODIFIED);
+            int column_index_taken = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATE_TAKEN);
+            List<MediaItem> items = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                items.add(new MediaItem(cursor.getLong(column_index_id),
+                        cursor.getString(column_index_data), cursor.getLong(column_index_modified),
+                        cursor.getLong(column_index_taken)));
+            }
+            return items;
+        } finally {
+            cursor.close();
+        }
+    }
+}
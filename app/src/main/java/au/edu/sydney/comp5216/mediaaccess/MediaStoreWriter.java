@@ -0,0 +1,163 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Saves captured photos through the MediaStore, so each one has its row, and is in the
+ * gallery, as soon as it is written rather than after a media scan.
+ *
+ * On Q and later the row is inserted first with IS_PENDING set, which hides it from other
+ * apps while the photo is streamed into the file the MediaStore opens for it, and is then
+ * published by clearing IS_PENDING. Earlier versions have no pending rows, so the row is
+ * inserted with the path of a new file in DCIM/Camera and written the same way.
+ */
+public class MediaStoreWriter {
+
+    private static final String RELATIVE_PATH = "DCIM/Camera";
+    private static final String MIME_TYPE = "image/jpeg";
+
+    private final ContentResolver resolver;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param resolver
+     */
+    public MediaStoreWriter(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Inserts the row for a new photo, pending until it is published.
+     * @return
+     * @throws IOException if the MediaStore does not accept the row
+     */
+    public Pending insert() throws IOException {
+        String name = UUID.randomUUID().toString() + ".jpg";
+        long now = System.currentTimeMillis();
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, name);
+        values.put(MediaStore.MediaColumns.MIME_TYPE, MIME_TYPE);
+        values.put(MediaStore.Images.Media.DATE_TAKEN, now);
+        values.put(MediaStore.MediaColumns.DATE_MODIFIED, now / 1000);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            values.put(MediaStore.MediaColumns.RELATIVE_PATH, RELATIVE_PATH);
+            values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+        } else {
+            File dir = new File(Environment.getExternalStorageDirectory(), RELATIVE_PATH);
+            if (!dir.exists() && !dir.mkdirs())
+                throw new IOException("Could not create " + dir);
+            values.put(MediaStore.MediaColumns.DATA, new File(dir, name).getPath());
+        }
+        Uri uri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+        if (uri == null)
+            throw new IOException("MediaStore did not insert " + name);
+        return new Pending(uri);
+    }
+
+    /**
+     * A photo whose row has been inserted but not yet published.
+     */
+    public class Pending {
+        private final Uri uri;
+
+        Pending(Uri uri) {
+            this.uri = uri;
+        }
+
+        public Uri getUri() {
+            return uri;
+        }
+
+        /**
+         * Returns the photo's MediaStore id.
+         * @return
+         */
+        public long getId() {
+            return ContentUris.parseId(uri);
+        }
+
+        /**
+         * Opens the photo's file for writing. The caller closes the stream.
+         * @return
+         * @throws IOException
+         */
+        public OutputStream openOutputStream() throws IOException {
+            OutputStream out = resolver.openOutputStream(uri, "w");
+            if (out == null)
+                throw new IOException("Could not open " + uri);
+            return out;
+        }
+
+        /**
+         * Sets the photo's EXIF orientation once it has been written.
+         * @param degrees
+         * @param mirror
+         * @throws IOException
+         */
+        public void setOrientation(int degrees, boolean mirror) throws IOException {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+                //ExifInterface only takes a file descriptor from N
+                CaptureWriter.setOrientation(getFile(), degrees, mirror);
+                return;
+            }
+            ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "rw");
+            if (descriptor == null)
+                throw new IOException("Could not open " + uri);
+            try {
+                CaptureWriter.setOrientation(descriptor.getFileDescriptor(), degrees, mirror);
+            } finally {
+                descriptor.close();
+            }
+        }
+
+        /**
+         * Makes the written photo visible to the gallery and other apps.
+         */
+        public void publish() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                ContentValues values = new ContentValues();
+                values.put(MediaStore.MediaColumns.IS_PENDING, 0);
+                resolver.update(uri, values, null, null);
+            }
+        }
+
+        /**
+         * Deletes the row and its file, after the photo could not be written.
+         */
+        public void abort() {
+            resolver.delete(uri, null, null);
+        }
+
+        /**
+         * Returns the file the MediaStore stores the photo in, which uploads are read from.
+         * @return
+         * @throws IOException if the row has no file
+         */
+        public File getFile() throws IOException {
+            Cursor cursor = resolver.query(uri, new String[] {MediaStore.MediaColumns.DATA},
+                    null, null, null);
+            if (cursor != null) {
+                try {
+                    if (cursor.moveToFirst() && cursor.getString(0) != null)
+                        return new File(cursor.getString(0));
+                } finally {
+                    cursor.close();
+                }
+            }
+            throw new IOException("No file for " + uri);
+        }
+    }
+}
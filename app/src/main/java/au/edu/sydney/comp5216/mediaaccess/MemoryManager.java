@@ -0,0 +1,191 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of the app's in-memory caches and pools, and trims them when the system reports
+ * memory pressure, so the process holds less and is less likely to be killed in the background
+ * while uploads are still running.
+ *
+ * Trimming is tiered by priority. Pools of free buffers and Bitmaps cost only an allocation
+ * to rebuild, so they are trimmed first; caches of what is shown, such as thumbnails, are only
+ * trimmed once memory is low or the UI is hidden. Everything is released when memory is
+ * critical or the app is in the background.
+ */
+public class MemoryManager {
+
+    // Free buffers and Bitmaps, reallocated on demand
+    public static final int PRIORITY_POOL = 0;
+    // Decoded content shown in the UI, read again from disk on demand
+    public static final int PRIORITY_CACHE = 1;
+
+    private static final String TAG = "MemoryManager";
+
+    private static MemoryManager instance;
+
+    private final Map<String, Entry> caches = new LinkedHashMap<>();
+    private int lastLevel;
+
+    /**
+     * Returns the app's memory manager, tracking the shared pools and thumbnail cache and
+     * registered for the application's memory callbacks.
+     * @param context
+     * @return
+     */
+    public static synchronized MemoryManager getInstance(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            final MemoryManager manager = new MemoryManager();
+            manager.register("buffers", PRIORITY_POOL, BufferPool.getInstance());
+            manager.register("bitmaps", PRIORITY_POOL, BitmapPool.getInstance());
+            manager.register("thumbnails", PRIORITY_CACHE, ThumbnailCache.getInstance(app));
+            app.registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    long before = manager.getTotalResidentBytes();
+                    manager.onTrimMemory(level);
+                    Log.d(TAG, "Trim level " + level + " released "
+                            + (before - manager.getTotalResidentBytes()) + " bytes; " + manager.report());
+                }
+
+                @Override
+                public void onLowMemory() {
+                    manager.onLowMemory();
+                    Log.d(TAG, "Low memory; " + manager.report());
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration configuration) {
+                }
+            });
+            instance = manager;
+        }
+        return instance;
+    }
+
+    /**
+     * Starts tracking a cache or pool, replacing any registered under the same name.
+     * @param name
+     * @param priority PRIORITY_POOL or PRIORITY_CACHE
+     * @param cache
+     */
+    public synchronized void register(String name, int priority, Trimmable cache) {
+        caches.put(name, new Entry(priority, cache));
+    }
+
+    /**
+     * Stops tracking a cache or pool.
+     * @param name
+     */
+    public synchronized void unregister(String name) {
+        caches.remove(name);
+    }
+
+    /**
+     * Trims the tracked caches for the given ComponentCallbacks2 trim level.
+     * @param level
+     */
+    public synchronized void onTrimMemory(int level) {
+        lastLevel = level;
+        for (Entry entry : caches.values()) {
+            float keep = keepFraction(level, entry.priority);
+            if (keep >= 1)
+                continue;
+            entry.cache.trimTo((long) (entry.cache.getResidentBytes() * keep));
+        }
+    }
+
+    /**
+     * Releases everything tracked, as the system is about to kill background processes.
+     */
+    public void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * Returns the last trim level reported, or 0 if there has been none.
+     * @return
+     */
+    public synchronized int getLastLevel() {
+        return lastLevel;
+    }
+
+    /**
+     * Returns the bytes held by each tracked cache, in the order they were registered.
+     * @return
+     */
+    public synchronized Map<String, Long> getResidentBytes() {
+        Map<String, Long> resident = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> entry : caches.entrySet())
+            resident.put(entry.getKey(), entry.getValue().cache.getResidentBytes());
+        return resident;
+    }
+
+    /**
+     * Returns the bytes held by all the tracked caches.
+     * @return
+     */
+    public synchronized long getTotalResidentBytes() {
+        long total = 0;
+        for (Entry entry : caches.values())
+            total += entry.cache.getResidentBytes();
+        return total;
+    }
+
+    /**
+     * Returns the bytes held by each cache as a line of text, e.g. "buffers=4096 bitmaps=0".
+     * @return
+     */
+    public synchronized String report() {
+        StringBuilder line = new StringBuilder();
+        for (Map.Entry<String, Long> entry : getResidentBytes().entrySet()) {
+            if (line.length() > 0)
+                line.append(' ');
+            line.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return line.toString();
+    }
+
+    /**
+     * Returns the fraction of its resident bytes a cache of the given priority keeps at a
+     * trim level, 1 to keep everything.
+     * @param level
+     * @param priority
+     * @return
+     */
+    static float keepFraction(int level, int priority) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+            return 0;
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            return priority == PRIORITY_POOL ? 0 : 0.5f;
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE)
+            return priority == PRIORITY_POOL ? 0.5f : 1;
+        return 1;
+    }
+
+    /**
+     * A cache or pool that can report and release the memory it holds.
+     */
+    public interface Trimmable {
+        long getResidentBytes();
+        void trimTo(long bytes);
+    }
+
+    private static class Entry {
+        final int priority;
+        final Trimmable cache;
+
+        Entry(int priority, Trimmable cache) {
+            this.priority = priority;
+            this.cache = cache;
+        }
+    }
+}
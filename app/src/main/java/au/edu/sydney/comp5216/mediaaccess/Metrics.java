@@ -0,0 +1,366 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Registry of timings for the app's hot paths: capture, save, gallery queries and uploads.
+ *
+ * Each stage keeps a histogram of its latency and, where it moves data, of the bytes moved,
+ * in memory. A stage is timed by wrapping it in a Timer, which also marks it as a Trace
+ * section so it shows in systrace and Perfetto captures. The totals can be written to a
+ * JSON file with dump, to compare one build with another.
+ */
+public class Metrics {
+
+    public static final String FILE_NAME = "metrics.json";
+
+    // Stage names
+    public static final String CAPTURE_CONVERT = "capture.convert";
+    public static final String CAPTURE_DECODE = "capture.decode";
+    public static final String CAPTURE_ROTATE = "capture.rotate";
+    public static final String CAPTURE_COMPRESS = "capture.compress";
+    public static final String CAPTURE_SAVE = "capture.save";
+    public static final String GALLERY_QUERY = "gallery.query";
+    public static final String GALLERY_PAGE = "gallery.page";
+    public static final String UPLOAD_PUT_FILE = "upload.putFile";
+    public static final String UPLOAD_PUT_BYTES = "upload.putBytes";
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private static Metrics instance;
+
+    private final Tracer tracer;
+    private final Map<String, Stage> stages = new TreeMap<>();
+    private int nextCookie;
+
+    /**
+     * Returns the registry shared by the app, which marks stages with android.os.Trace.
+     * @return
+     */
+    public static synchronized Metrics getInstance() {
+        if (instance == null) {
+            instance = new Metrics(new Tracer() {
+                @Override
+                public void beginSection(String name) {
+                    Trace.beginSection(name);
+                }
+
+                @Override
+                public void endSection() {
+                    Trace.endSection();
+                }
+
+                @Override
+                public void beginAsyncSection(String name, int cookie) {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+                        Trace.beginAsyncSection(name, cookie);
+                }
+
+                @Override
+                public void endAsyncSection(String name, int cookie) {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+                        Trace.endAsyncSection(name, cookie);
+                }
+            });
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor to set appropriate values.
+     * @param tracer marks the stages timed, or null to not mark them
+     */
+    public Metrics(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Starts timing a stage on the current thread. The Timer must be stopped on the same thread.
+     * @param stage
+     * @return
+     */
+    public Timer start(String stage) {
+        if (tracer != null)
+            tracer.beginSection(stage);
+        return new Timer(stage, false, 0);
+    }
+
+    /**
+     * Starts timing a stage that finishes on another thread, such as an upload.
+     * @param stage
+     * @return
+     */
+    public Timer startAsync(String stage) {
+        int cookie;
+        synchronized (this) {
+            cookie = nextCookie++;
+        }
+        if (tracer != null)
+            tracer.beginAsyncSection(stage, cookie);
+        return new Timer(stage, true, cookie);
+    }
+
+    /**
+     * Records one run of a stage.
+     * @param stage
+     * @param nanos how long it took, or -1 if not timed
+     * @param bytes how many bytes it moved, or -1 if none
+     */
+    public synchronized void record(String stage, long nanos, long bytes) {
+        Stage s = stages.get(stage);
+        if (s == null) {
+            s = new Stage();
+            stages.put(stage, s);
+        }
+        s.count++;
+        if (nanos >= 0)
+            s.nanos.record(nanos);
+        if (bytes >= 0) {
+            s.bytes.record(bytes);
+            if (nanos >= 0)
+                s.timedBytesNanos += nanos;
+        }
+    }
+
+    /**
+     * Records a failed run of a stage, which is counted but not timed.
+     * @param stage
+     */
+    public synchronized void recordFailure(String stage) {
+        record(stage, -1, -1);
+        stages.get(stage).failures++;
+    }
+
+    /**
+     * Returns the number of runs recorded for a stage.
+     * @param stage
+     * @return
+     */
+    public synchronized long getCount(String stage) {
+        Stage s = stages.get(stage);
+        return s == null ? 0 : s.count;
+    }
+
+    /**
+     * Returns a copy of the latency histogram of a stage, in nanoseconds.
+     * @param stage
+     * @return
+     */
+    public synchronized Histogram getLatency(String stage) {
+        Histogram copy = new Histogram();
+        Stage s = stages.get(stage);
+        if (s != null)
+            copy.add(s.nanos);
+        return copy;
+    }
+
+    /**
+     * Returns a copy of the histogram of bytes moved by a stage.
+     * @param stage
+     * @return
+     */
+    public synchronized Histogram getBytes(String stage) {
+        Histogram copy = new Histogram();
+        Stage s = stages.get(stage);
+        if (s != null)
+            copy.add(s.bytes);
+        return copy;
+    }
+
+    /**
+     * Returns the names of the stages recorded, in order.
+     * @return
+     */
+    public synchronized List<String> getStages() {
+        return new ArrayList<>(stages.keySet());
+    }
+
+    /**
+     * Forgets everything recorded.
+     */
+    public synchronized void reset() {
+        stages.clear();
+    }
+
+    /**
+     * Writes everything recorded to a JSON file, replacing it whole.
+     * @param file
+     * @param label identifies the build, for example its version name
+     * @throws IOException
+     */
+    public void dump(File file, String label) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            writeJson(out, label, System.currentTimeMillis());
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    /**
+     * Writes everything recorded as JSON. Latencies are in milliseconds.
+     * @param out
+     * @param label
+     * @param timeMillis when the figures were taken
+     * @throws IOException
+     */
+    public synchronized void writeJson(Writer out, String label, long timeMillis) throws IOException {
+        out.write("{\n  \"label\": " + quote(label) + ",\n  \"time\": " + timeMillis
+                + ",\n  \"stages\": {");
+        boolean first = true;
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            Stage s = entry.getValue();
+            out.write(first ? "\n" : ",\n");
+            first = false;
+            out.write("    " + quote(entry.getKey()) + ": {\"count\": " + s.count
+                    + ", \"failures\": " + s.failures);
+            if (s.nanos.getCount() > 0) {
+                out.write(", \"ms\": ");
+                writeSummary(out, s.nanos, NANOS_PER_MILLI);
+            }
+            if (s.bytes.getCount() > 0) {
+                out.write(", \"bytes\": ");
+                writeSummary(out, s.bytes, 1);
+                if (s.timedBytesNanos > 0) {
+                    double seconds = s.timedBytesNanos / 1e9;
+                    out.write(", \"bytesPerSecond\": " + number(s.bytes.getTotal() / seconds));
+                }
+            }
+            out.write("}");
+        }
+        out.write(first ? "}\n}\n" : "\n  }\n}\n");
+    }
+
+    private static void writeSummary(Writer out, Histogram h, double scale) throws IOException {
+        out.write("{\"total\": " + number(h.getTotal() / scale)
+                + ", \"mean\": " + number(h.getMean() / scale)
+                + ", \"min\": " + number(h.getMin() / scale)
+                + ", \"p50\": " + number(h.getPercentile(0.5) / scale)
+                + ", \"p90\": " + number(h.getPercentile(0.9) / scale)
+                + ", \"p99\": " + number(h.getPercentile(0.99) / scale)
+                + ", \"max\": " + number(h.getMax() / scale) + "}");
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+
+    private static String quote(String value) {
+        if (value == null)
+            return "null";
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * One stage's figures.
+     */
+    private static class Stage {
+        final Histogram nanos = new Histogram();
+        final Histogram bytes = new Histogram();
+        long count;
+        long failures;
+        // Time taken by the timed runs that moved bytes, for throughput
+        long timedBytesNanos;
+    }
+
+    /**
+     * Times one run of a stage, from when it was started until it is stopped.
+     */
+    public class Timer {
+        private final String stage;
+        private final boolean async;
+        private final int cookie;
+        private final long startNanos = System.nanoTime();
+        private boolean stopped;
+
+        private Timer(String stage, boolean async, int cookie) {
+            this.stage = stage;
+            this.async = async;
+            this.cookie = cookie;
+        }
+
+        /**
+         * Stops timing and records the run.
+         * @return how long it took, in nanoseconds
+         */
+        public long stop() {
+            return stop(-1);
+        }
+
+        /**
+         * Stops timing and records the run with the number of bytes it moved.
+         * Only the first stop of a Timer is recorded.
+         * @param bytes
+         * @return how long it took, in nanoseconds
+         */
+        public long stop(long bytes) {
+            long nanos = System.nanoTime() - startNanos;
+            if (stopped)
+                return nanos;
+            stopped = true;
+            endSection();
+            record(stage, nanos, bytes);
+            return nanos;
+        }
+
+        /**
+         * Stops timing and records the run as failed, unless it has already been stopped,
+         * so it can be called from a finally block after stop.
+         */
+        public void fail() {
+            if (stopped)
+                return;
+            stopped = true;
+            endSection();
+            recordFailure(stage);
+        }
+
+        private void endSection() {
+            if (tracer == null)
+                return;
+            if (async) {
+                tracer.endAsyncSection(stage, cookie);
+            } else {
+                tracer.endSection();
+            }
+        }
+    }
+
+    /**
+     * Marks the stages timed in a trace.
+     */
+    public interface Tracer {
+        void beginSection(String name);
+        void endSection();
+        void beginAsyncSection(String name, int cookie);
+        void endAsyncSection(String name, int cookie);
+    }
+}
@@ -0,0 +1,77 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+/**
+ * Difference hash (dHash) of an image: a 64 bit fingerprint that stays nearly the same when
+ * the image is re-encoded, rescaled or slightly changed, as the frames of a burst are, unlike
+ * a content hash which changes with every byte.
+ *
+ * The image is reduced to a 9x8 grid of average brightness, and each bit records whether a
+ * cell is brighter than its right neighbour. Near-duplicates are hashes a small Hamming
+ * distance apart.
+ */
+public class PerceptualHash {
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Returns the dHash of an image.
+     * @param argb the image's pixels, row by row, as Bitmap.getPixels gives them
+     * @param width
+     * @param height
+     * @return
+     */
+    public static long dHash(int[] argb, int width, int height) {
+        if (width < 1 || height < 1 || argb.length < width * height)
+            throw new IllegalArgumentException("Invalid image " + width + "x" + height);
+        long[] grid = new long[GRID_WIDTH * GRID_HEIGHT];
+        for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+            int y0 = gy * height / GRID_HEIGHT;
+            //Images smaller than the grid repeat their pixels
+            int y1 = Math.max(y0 + 1, (gy + 1) * height / GRID_HEIGHT);
+            for (int gx = 0; gx < GRID_WIDTH; gx++) {
+                int x0 = gx * width / GRID_WIDTH;
+                int x1 = Math.max(x0 + 1, (gx + 1) * width / GRID_WIDTH);
+                long sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++)
+                        sum += luma(argb[y * width + x]);
+                }
+                //Averages are scaled up so that integer division keeps small differences
+                grid[gy * GRID_WIDTH + gx] = sum * 1024 / ((long) (y1 - y0) * (x1 - x0));
+            }
+        }
+        long hash = 0;
+        for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+            for (int gx = 0; gx < GRID_WIDTH - 1; gx++) {
+                hash <<= 1;
+                if (grid[gy * GRID_WIDTH + gx] > grid[gy * GRID_WIDTH + gx + 1])
+                    hash |= 1;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the number of bits two hashes differ in.
+     * @param a
+     * @param b
+     * @return
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Returns the brightness of an ARGB pixel, 0 to 255.
+     */
+    private static int luma(int pixel) {
+        int r = (pixel >> 16) & 0xff;
+        int g = (pixel >> 8) & 0xff;
+        int b = pixel & 0xff;
+        return (r * 299 + g * 587 + b * 114) / 1000;
+    }
+}
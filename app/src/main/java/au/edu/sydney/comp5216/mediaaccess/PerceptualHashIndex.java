@@ -0,0 +1,147 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The perceptual hash of every image hashed so far, keyed by its content hash, so a
+ * synchronisation only decodes images it has not seen before.
+ *
+ * A content hash identifies the bytes of an image exactly, so its perceptual hash never
+ * changes and entries never need refreshing. The index is stored on disk, one entry per line.
+ */
+public class PerceptualHashIndex {
+
+    public static final String FILE_NAME = "perceptual_hashes.tsv";
+
+    private final File file;
+    private final Map<String, Long> hashes = new HashMap<>();
+    private boolean dirty;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param file
+     */
+    public PerceptualHashIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the perceptual hash of the image with the given content hash, or null if it
+     * has not been hashed.
+     * @param contentHash
+     * @return
+     */
+    public synchronized Long get(String contentHash) {
+        return hashes.get(contentHash);
+    }
+
+    /**
+     * Records the perceptual hash of the image with the given content hash.
+     * @param contentHash
+     * @param perceptualHash
+     */
+    public synchronized void put(String contentHash, long perceptualHash) {
+        Long previous = hashes.put(contentHash, perceptualHash);
+        if (previous == null || previous != perceptualHash)
+            dirty = true;
+    }
+
+    /**
+     * Returns the number of images recorded.
+     * @return
+     */
+    public synchronized int size() {
+        return hashes.size();
+    }
+
+    /**
+     * Returns a tree of the perceptual hashes of the given images, with their content hashes
+     * as values, to search for near-duplicates of them. Images not in the index are left out.
+     * @param contentHashes
+     * @return
+     */
+    public synchronized BkTree<String> treeOf(Collection<String> contentHashes) {
+        BkTree<String> tree = new BkTree<>();
+        for (String contentHash : contentHashes) {
+            Long hash = hashes.get(contentHash);
+            if (hash != null)
+                tree.add(hash, contentHash);
+        }
+        return tree;
+    }
+
+    /**
+     * Reads the index from disk.
+     */
+    public synchronized void load() {
+        if (!file.exists())
+            return;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length == 2)
+                    hashes.put(parts[0], new BigInteger(parts[1], 16).longValue());
+            }
+        } catch (IOException | NumberFormatException e) {
+            //A damaged index is rebuilt as images are hashed again
+            e.printStackTrace();
+            hashes.clear();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the index to disk if it has changed since it was last written.
+     */
+    public synchronized void save() {
+        if (!dirty)
+            return;
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+            StringBuilder line = new StringBuilder();
+            for (Map.Entry<String, Long> entry : hashes.entrySet()) {
+                line.setLength(0);
+                line.append(entry.getKey()).append('\t')
+                        .append(Long.toHexString(entry.getValue())).append('\n');
+                writer.write(line.toString());
+            }
+            writer.close();
+            writer = null;
+            if (tmp.renameTo(file))
+                dirty = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
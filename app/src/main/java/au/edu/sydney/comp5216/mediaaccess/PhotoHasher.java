@@ -0,0 +1,117 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The work a synchronisation does for each photo on the LibraryIndexer's workers: returns the
+ * photo's content hash, and records its perceptual hash if the photo is new.
+ *
+ * The photo is read once, into a pooled buffer, and the I/O permit is only held while it is
+ * read; hashing and decoding the buffer run without it, so other workers can read meanwhile.
+ * Photos whose content is already uploaded are never decoded, since they are skipped anyway.
+ */
+public class PhotoHasher implements LibraryIndexer.ItemTask<String> {
+
+    // Larger photos are hashed from the file, holding the permit, and get no perceptual hash
+    static final int MAX_BUFFERED_BYTES = 16 * 1024 * 1024;
+
+    private final UploadManifest manifest;
+    private final PerceptualHashIndex index;
+    private final BufferPool buffers;
+    private final Decoder decoder;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param manifest
+     * @param index
+     * @param buffers
+     * @param decoder
+     */
+    public PhotoHasher(UploadManifest manifest, PerceptualHashIndex index, BufferPool buffers,
+                       Decoder decoder) {
+        this.manifest = manifest;
+        this.index = index;
+        this.buffers = buffers;
+        this.decoder = decoder;
+    }
+
+    /**
+     * Returns a photo's perceptual hash from its encoded bytes.
+     */
+    public interface Decoder {
+        /**
+         * @param data
+         * @param length
+         * @return the hash, or null if the photo could not be decoded
+         */
+        Long perceptualHash(byte[] data, int length);
+    }
+
+    /**
+     * Returns the content hash of a photo, and adds its perceptual hash to the index if the
+     * photo is neither uploaded nor indexed yet.
+     * @param item
+     * @param io held while the photo is read
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public String index(MediaItem item, Semaphore io) throws IOException {
+        File file = new File(item.getPath());
+        long size = file.length();
+        if (size > MAX_BUFFERED_BYTES) {
+            io.acquireUninterruptibly();
+            try {
+                return ContentHasher.sha256(file);
+            } finally {
+                io.release();
+            }
+        }
+
+        byte[] buffer = buffers.acquire((int) size);
+        try {
+            int length;
+            io.acquireUninterruptibly();
+            try {
+                length = read(file, buffer);
+            } finally {
+                io.release();
+            }
+            String hash = ContentHasher.sha256(buffer, 0, length);
+            if (!manifest.containsHash(hash) && index.get(hash) == null) {
+                Long perceptual = decoder.perceptualHash(buffer, length);
+                if (perceptual != null)
+                    index.put(hash, perceptual);
+            }
+            return hash;
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * Reads a file into a buffer.
+     * @return the number of bytes read
+     * @throws IOException if the file has grown past the buffer since its size was taken
+     */
+    private static int read(File file, byte[] buffer) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            int length = 0;
+            int read;
+            while (length < buffer.length
+                    && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            if (length == buffer.length && in.read() != -1)
+                throw new IOException("File changed while being read: " + file);
+            return length;
+        } finally {
+            in.close();
+        }
+    }
+}
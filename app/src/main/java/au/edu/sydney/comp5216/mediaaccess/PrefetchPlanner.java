@@ -0,0 +1,81 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+/**
+ * Decides which cells of a grid to prefetch while it scrolls: the rows just past the visible
+ * ones in the direction of the scroll, as many as the scroll will reach within a lookahead
+ * time at its current velocity, so a fling prefetches further ahead than a slow drag.
+ *
+ * At least minRows are prefetched while scrolling, and at most the maxRows given for each
+ * plan, which the caller sizes to what the thumbnail cache can hold without evicting the
+ * visible cells.
+ */
+public class PrefetchPlanner {
+
+    private final int columns;
+    private final int minRows;
+    private final long lookaheadMs;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param columns cells per row
+     * @param minRows rows prefetched however slowly the grid scrolls
+     * @param lookaheadMs how far ahead in time the scroll is prefetched
+     */
+    public PrefetchPlanner(int columns, int minRows, long lookaheadMs) {
+        if (columns < 1)
+            throw new IllegalArgumentException("columns must be at least 1");
+        this.columns = columns;
+        this.minRows = minRows;
+        this.lookaheadMs = lookaheadMs;
+    }
+
+    /**
+     * Returns the number of rows to prefetch at a scroll velocity.
+     * @param velocityPxPerSec
+     * @param rowHeightPx
+     * @param maxRows
+     * @return
+     */
+    public int rows(float velocityPxPerSec, int rowHeightPx, int maxRows) {
+        int rows = minRows;
+        if (rowHeightPx > 0) {
+            double distance = Math.abs(velocityPxPerSec) * lookaheadMs / 1000.0;
+            rows = Math.max(rows, (int) Math.ceil(distance / rowHeightPx));
+        }
+        return Math.max(0, Math.min(rows, maxRows));
+    }
+
+    /**
+     * Returns the positions to prefetch, nearest to the visible cells first.
+     * @param firstVisible position of the first visible cell
+     * @param lastVisible position of the last visible cell
+     * @param itemCount number of cells in the grid
+     * @param velocityPxPerSec scroll velocity, positive towards the end of the grid
+     * @param rowHeightPx
+     * @param maxRows
+     * @return the positions, empty if the grid is not scrolling or is at its end
+     */
+    public int[] plan(int firstVisible, int lastVisible, int itemCount, float velocityPxPerSec,
+                      int rowHeightPx, int maxRows) {
+        if (velocityPxPerSec == 0 || firstVisible < 0 || lastVisible < firstVisible)
+            return new int[0];
+        int cells = rows(velocityPxPerSec, rowHeightPx, maxRows) * columns;
+        int start;
+        int end;
+        if (velocityPxPerSec > 0) {
+            //Whole rows below the last visible one
+            start = (lastVisible / columns + 1) * columns;
+            end = Math.min(itemCount, start + cells);
+        } else {
+            //Whole rows above the first visible one
+            end = firstVisible / columns * columns;
+            start = Math.max(0, end - cells);
+        }
+        if (end <= start)
+            return new int[0];
+        int[] positions = new int[end - start];
+        for (int i = 0; i < positions.length; i++)
+            positions[i] = velocityPxPerSec > 0 ? start + i : end - 1 - i;
+        return positions;
+    }
+}
@@ -0,0 +1,35 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * ByteArrayOutputStream whose buffer can be read without copying and is kept across reset(),
+ * so repeated encodes reuse one allocation once it has grown to fit.
+ */
+public class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+
+    /**
+     * Constructor to set appropriate values.
+     * @param initialCapacity
+     */
+    public ReusableByteArrayOutputStream(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    /**
+     * Returns the internal buffer. Only the first size() bytes are valid, and the buffer
+     * is overwritten by the next write after reset().
+     * @return
+     */
+    public synchronized byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * Returns the allocated capacity of the internal buffer.
+     * @return
+     */
+    public synchronized int capacity() {
+        return buf.length;
+    }
+}
@@ -0,0 +1,86 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Remote store that photos are uploaded to, and listed and read back from by the cloud gallery.
+ * FirebaseStorageBackend is used by the app; LocalStorageBackend stands in for it so
+ * uploads can be tested and measured without the live service.
+ */
+public interface StorageBackend {
+
+    /**
+     * Uploads bytes held in memory to the named object.
+     * @param name
+     * @param bytes
+     * @param callback
+     */
+    void putBytes(String name, byte[] bytes, UploadCallback callback);
+
+    /**
+     * Uploads a file to the named object, resuming the given upload session if it is not null.
+     * @param name
+     * @param file
+     * @param sessionUri
+     * @param callback
+     */
+    void putFile(String name, File file, String sessionUri, UploadCallback callback);
+
+    /**
+     * Lists one page of the object names under the given prefix.
+     * @param prefix
+     * @param maxResults
+     * @param pageToken token returned with the previous page, or null for the first page
+     * @param callback
+     */
+    void list(String prefix, int maxResults, String pageToken, ListCallback callback);
+
+    /**
+     * Reads the size and last update time of the named object.
+     * @param name
+     * @param callback
+     */
+    void getMetadata(String name, MetadataCallback callback);
+
+    /**
+     * Downloads the named object into memory.
+     * @param name
+     * @param maxBytes largest object to download; a larger one fails
+     * @param callback
+     */
+    void getBytes(String name, long maxBytes, DownloadCallback callback);
+
+    /**
+     * Callback for the progress and outcome of an upload.
+     */
+    interface UploadCallback {
+        void onProgress(long bytesTransferred, long totalBytes, String sessionUri);
+        void onSuccess();
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Callback for a page of listed object names.
+     */
+    interface ListCallback {
+        void onSuccess(List<String> names, String nextPageToken);
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Callback for an object's metadata.
+     */
+    interface MetadataCallback {
+        void onSuccess(long sizeBytes, long updatedTimeMillis);
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Callback for a downloaded object.
+     */
+    interface DownloadCallback {
+        void onSuccess(byte[] bytes);
+        void onFailure(Exception e);
+    }
+}
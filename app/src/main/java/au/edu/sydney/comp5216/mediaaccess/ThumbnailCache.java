@@ -0,0 +1,472 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.DisplayMetrics;
+import android.util.LruCache;
+import android.util.Size;
+import android.widget.ImageView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Thumbnails for the gallery grid, held in a memory LRU sized to a few screens of the grid and
+ * in a disk cache of small JPEGs, keyed by MediaStore id and DATE_MODIFIED so an edited image
+ * gets a new thumbnail.
+ *
+ * A thumbnail missing from both is taken from the system's thumbnail for the image, which the
+ * MediaStore usually already has. Only if there is none is the original decoded, subsampled,
+ * once, to seed the disk cache; scrolling afterwards reads only thumbnails.
+ *
+ * Thumbnails of photos in cloud storage are made the same way from the downloaded object,
+ * keyed by the object's name, and share the disk cache, so each is downloaded only once
+ * until it is evicted.
+ *
+ * Loads for the cells on screen run before thumbnails prefetched for rows about to scroll in,
+ * and a load still queued when its cell is recycled is dropped without running.
+ */
+public class ThumbnailCache implements MemoryManager.Trimmable {
+
+    public static final int GRID_COLUMNS = 4;
+    // Screens of the grid held in memory
+    private static final int MEMORY_SCREENS = 3;
+    private static final long DISK_CACHE_BYTES = 64 * 1024 * 1024;
+    private static final int DISK_JPEG_QUALITY = 80;
+    private static final int LOADER_THREADS = 2;
+    private static final String DIR_NAME = "thumbnails";
+    // Largest cloud object downloaded to make a thumbnail of
+    private static final long MAX_REMOTE_BYTES = 16 * 1024 * 1024;
+    private static final String REMOTE_KEY_PREFIX = "cloud_";
+    // Loads for visible cells are taken from the queue before prefetches
+    private static final int PRIORITY_VISIBLE = 0;
+    private static final int PRIORITY_PREFETCH = 1;
+
+    private static ThumbnailCache instance;
+
+    private final ContentResolver resolver;
+    private final int size;
+    private final LruCache<String, Bitmap> memory;
+    private final DiskLruCache disk;
+    private final LoadQueue loads = new LoadQueue(LOADER_THREADS);
+    // Queued loads by the view they are for, so a recycled cell's load can be dropped
+    private final Map<ImageView, LoadTask> pending = new WeakHashMap<>();
+    // Queued prefetches by key
+    private final Map<String, LoadTask> prefetches = new HashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Returns the application's thumbnail cache, sized to the device's screen.
+     * @param context
+     * @return
+     */
+    public static synchronized ThumbnailCache getInstance(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            DisplayMetrics metrics = app.getResources().getDisplayMetrics();
+            int cell = Math.max(1, metrics.widthPixels / GRID_COLUMNS);
+            int rows = metrics.heightPixels / cell + 1;
+            int memoryBytes = GRID_COLUMNS * rows * MEMORY_SCREENS * cell * cell * 4;
+            instance = new ThumbnailCache(app.getContentResolver(), cell, memoryBytes,
+                    new DiskLruCache(new File(app.getCacheDir(), DIR_NAME), DISK_CACHE_BYTES));
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor to set appropriate values.
+     * @param resolver
+     * @param size width and height of a grid cell in pixels
+     * @param memoryBytes largest total size of the thumbnails held in memory
+     * @param disk
+     */
+    public ThumbnailCache(ContentResolver resolver, int size, int memoryBytes, DiskLruCache disk) {
+        this.resolver = resolver;
+        this.size = size;
+        this.disk = disk;
+        this.memory = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * Shows the thumbnail of an image in a view, at once if it is in memory,
+     * otherwise once it has been loaded in the background. The view is cleared meanwhile.
+     * @param item
+     * @param view
+     */
+    public void load(final MediaItem item, final ImageView view) {
+        final String key = key(item);
+        view.setTag(R.id.image, key);
+        Bitmap cached = memory.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageDrawable(null);
+        cancelPrefetch(key);
+        submit(view, new Runnable() {
+            @Override
+            public void run() {
+                //Skip views rebound to another image while waiting, e.g. during a fling
+                if (!key.equals(view.getTag(R.id.image)))
+                    return;
+                show(view, key, get(item));
+            }
+        });
+    }
+
+    /**
+     * Loads the thumbnail of an image into memory in the background, behind the loads for
+     * visible cells, so it can be shown at once when its cell is bound.
+     * @param item
+     */
+    public void prefetch(final MediaItem item) {
+        final String key = key(item);
+        if (memory.get(key) != null)
+            return;
+        LoadTask task;
+        synchronized (prefetches) {
+            if (prefetches.containsKey(key))
+                return;
+            task = new LoadTask(PRIORITY_PREFETCH, null, new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (prefetches) {
+                        prefetches.remove(key);
+                    }
+                    get(item);
+                }
+            });
+            prefetches.put(key, task);
+        }
+        loads.execute(task);
+    }
+
+    /**
+     * Drops the prefetches that have not started, e.g. once the scroll has changed direction.
+     */
+    public void cancelPrefetches() {
+        synchronized (prefetches) {
+            for (LoadTask task : prefetches.values())
+                loads.remove(task);
+            prefetches.clear();
+        }
+    }
+
+    /**
+     * Drops a queued prefetch of a thumbnail about to be loaded for a visible cell instead.
+     */
+    private void cancelPrefetch(String key) {
+        synchronized (prefetches) {
+            LoadTask task = prefetches.remove(key);
+            if (task != null)
+                loads.remove(task);
+        }
+    }
+
+    /**
+     * Shows the thumbnail of an object in cloud storage in a view, at once if it is in memory,
+     * otherwise once it has been read from disk or downloaded and made. The view is cleared
+     * meanwhile.
+     * @param objectName
+     * @param backend
+     * @param view
+     */
+    public void loadRemote(final String objectName, final StorageBackend backend,
+                           final ImageView view) {
+        final String key = remoteKey(objectName);
+        view.setTag(R.id.image, key);
+        Bitmap cached = memory.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageDrawable(null);
+        submit(view, new Runnable() {
+            @Override
+            public void run() {
+                if (!key.equals(view.getTag(R.id.image)))
+                    return;
+                Bitmap bitmap = fromDisk(key);
+                if (bitmap != null) {
+                    memory.put(key, bitmap);
+                    show(view, key, bitmap);
+                    return;
+                }
+                backend.getBytes(objectName, MAX_REMOTE_BYTES, new StorageBackend.DownloadCallback() {
+                    @Override
+                    public void onSuccess(final byte[] bytes) {
+                        loads.execute(new LoadTask(PRIORITY_VISIBLE, null, new Runnable() {
+                            @Override
+                            public void run() {
+                                Bitmap bitmap = decodeSampled(bytes);
+                                if (bitmap == null)
+                                    return;
+                                bitmap = fit(bitmap);
+                                store(key, bitmap);
+                                memory.put(key, bitmap);
+                                show(view, key, bitmap);
+                            }
+                        }));
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Shows a loaded thumbnail in a view, unless the view has been rebound meanwhile.
+     */
+    private void show(final ImageView view, final String key, final Bitmap bitmap) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (bitmap != null && key.equals(view.getTag(R.id.image)))
+                    view.setImageBitmap(bitmap);
+            }
+        });
+    }
+
+    /**
+     * Queues a load for a visible cell, dropping the view's previous load if it has not started.
+     */
+    private void submit(ImageView view, Runnable work) {
+        LoadTask task = new LoadTask(PRIORITY_VISIBLE, view, work);
+        LoadTask previous;
+        synchronized (pending) {
+            previous = pending.put(view, task);
+        }
+        if (previous != null)
+            loads.remove(previous);
+        loads.execute(task);
+    }
+
+    /**
+     * Clears a view so a pending load no longer updates it, dropping the load if it has
+     * not started, e.g. when its cell is recycled.
+     * @param view
+     */
+    public void clear(ImageView view) {
+        LoadTask task;
+        synchronized (pending) {
+            task = pending.remove(view);
+        }
+        if (task != null)
+            loads.remove(task);
+        view.setTag(R.id.image, null);
+        view.setImageDrawable(null);
+    }
+
+    /**
+     * Returns the thumbnail of an image, loading it from disk or creating it if needed.
+     * Should not be called on the main thread.
+     * @param item
+     * @return the thumbnail, or null if none could be made
+     */
+    public Bitmap get(MediaItem item) {
+        String key = key(item);
+        Bitmap bitmap = memory.get(key);
+        if (bitmap != null)
+            return bitmap;
+
+        bitmap = fromDisk(key);
+        if (bitmap == null) {
+            bitmap = create(item);
+            if (bitmap == null)
+                return null;
+            store(key, bitmap);
+        }
+        memory.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Reads a thumbnail from the disk cache.
+     * @return the thumbnail, or null if it is not on disk
+     */
+    private Bitmap fromDisk(String key) {
+        File file = disk.get(key);
+        if (file == null)
+            return null;
+        return BitmapFactory.decodeFile(file.getPath());
+    }
+
+    /**
+     * Drops the thumbnails held in memory. The disk cache is kept.
+     */
+    public void clearMemory() {
+        memory.evictAll();
+    }
+
+    /**
+     * Drops the least recently used thumbnails held in memory until at most the given number
+     * of bytes are held. The disk cache is kept.
+     * @param bytes
+     */
+    @Override
+    public void trimTo(long bytes) {
+        memory.trimToSize((int) Math.min(bytes, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Returns the number of bytes of thumbnails held in memory.
+     * @return
+     */
+    @Override
+    public long getResidentBytes() {
+        return memory.size();
+    }
+
+    /**
+     * Makes a thumbnail from the system's thumbnail for the image, or failing that from the
+     * original, scaled to cover a grid cell.
+     */
+    private Bitmap create(MediaItem item) {
+        Uri uri = ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, item.getId());
+        Bitmap bitmap = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            try {
+                bitmap = resolver.loadThumbnail(uri, new Size(size, size), null);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            bitmap = MediaStore.Images.Thumbnails.getThumbnail(resolver, item.getId(),
+                    MediaStore.Images.Thumbnails.MINI_KIND, null);
+        }
+        if (bitmap == null && item.getPath() != null)
+            bitmap = decodeSampled(item.getPath());
+        return bitmap == null ? null : fit(bitmap);
+    }
+
+    /**
+     * Decodes the original at the largest power of two subsampling that still covers a cell.
+     */
+    private Bitmap decodeSampled(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (!sample(options))
+            return null;
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    /**
+     * Decodes a downloaded image the same way.
+     */
+    private Bitmap decodeSampled(byte[] bytes) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (!sample(options))
+            return null;
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+
+    /**
+     * Sets the subsampling for an image whose bounds have been read.
+     * @return false if the bounds could not be read
+     */
+    private boolean sample(BitmapFactory.Options options) {
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return false;
+        int sampleSize = 1;
+        while (Math.min(options.outWidth, options.outHeight) / (sampleSize * 2) >= size)
+            sampleSize *= 2;
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        return true;
+    }
+
+    /**
+     * Scales a bitmap down so its shorter side matches a cell.
+     */
+    private Bitmap fit(Bitmap bitmap) {
+        int shorter = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        if (shorter <= size)
+            return bitmap;
+        float scale = (float) size / shorter;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale),
+                Math.round(bitmap.getHeight() * scale), true);
+        if (scaled != bitmap)
+            bitmap.recycle();
+        return scaled;
+    }
+
+    /**
+     * Writes a thumbnail to the disk cache.
+     */
+    private void store(String key, Bitmap bitmap) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_JPEG_QUALITY, out);
+        try {
+            disk.put(key, out.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the cache key of an image, which changes whenever the image is modified.
+     * @param item
+     * @return
+     */
+    static String key(MediaItem item) {
+        return item.getId() + "_" + item.getDateModified();
+    }
+
+    /**
+     * Returns the cache key of an object in cloud storage. Objects are named by their
+     * content, so the key never needs to change.
+     * @param objectName
+     * @return
+     */
+    static String remoteKey(String objectName) {
+        return REMOTE_KEY_PREFIX + ContentHasher.sha256(objectName.getBytes(Charset.forName("UTF-8")));
+    }
+
+    /**
+     * A queued load, for a visible cell's view or, without one, a prefetch.
+     */
+    private class LoadTask extends LoadQueue.Task {
+        private final ImageView view;
+
+        LoadTask(int priority, ImageView view, Runnable work) {
+            super(priority, work);
+            this.view = view;
+        }
+
+        @Override
+        public void run() {
+            if (view != null) {
+                synchronized (pending) {
+                    if (pending.get(view) == this)
+                        pending.remove(view);
+                }
+            }
+            super.run();
+        }
+    }
+}
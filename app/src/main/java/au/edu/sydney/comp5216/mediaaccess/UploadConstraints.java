@@ -0,0 +1,91 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+/**
+ * Conditions the device must be in before the UploadScheduler starts an upload, so that
+ * a library synchronisation does not spend cellular data or a nearly flat battery.
+ *
+ * The device's state comes from a Source: DeviceConstraintSource in the app, and a fake
+ * in tests. Uploads already transferring are left to finish when the conditions change.
+ */
+public class UploadConstraints {
+
+    //Uploads start whenever the device is online
+    public static final UploadConstraints NONE = new UploadConstraints(false, false, 0);
+
+    //Used by the app: wait for Wi-Fi or another unmetered network, and a battery that
+    //is charging or above a fifth
+    public static final UploadConstraints DEFAULT = new UploadConstraints(true, false, 20);
+
+    private final boolean requireUnmetered;
+    private final boolean requireCharging;
+    private final int minBatteryPercent;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param requireUnmetered
+     * @param requireCharging
+     * @param minBatteryPercent battery level below which uploads wait, unless charging
+     */
+    public UploadConstraints(boolean requireUnmetered, boolean requireCharging,
+                             int minBatteryPercent) {
+        if (minBatteryPercent < 0 || minBatteryPercent > 100)
+            throw new IllegalArgumentException("minBatteryPercent must be between 0 and 100");
+        this.requireUnmetered = requireUnmetered;
+        this.requireCharging = requireCharging;
+        this.minBatteryPercent = minBatteryPercent;
+    }
+
+    public boolean isRequireUnmetered() {
+        return requireUnmetered;
+    }
+
+    public boolean isRequireCharging() {
+        return requireCharging;
+    }
+
+    public int getMinBatteryPercent() {
+        return minBatteryPercent;
+    }
+
+    /**
+     * Returns why uploads cannot start in the source's current state, or null if they can.
+     * @param source
+     * @return
+     */
+    public String waitingFor(Source source) {
+        if (!source.isConnected())
+            return "a network connection";
+        if (requireUnmetered && !source.isUnmetered())
+            return "an unmetered network";
+        if (requireCharging && !source.isCharging())
+            return "the device to charge";
+        if (!source.isCharging() && source.getBatteryPercent() < minBatteryPercent)
+            return "the battery to charge";
+        return null;
+    }
+
+    /**
+     * Returns true if uploads can start in the source's current state.
+     * @param source
+     * @return
+     */
+    public boolean isSatisfiedBy(Source source) {
+        return waitingFor(source) == null;
+    }
+
+    /**
+     * State of the device's network and battery.
+     */
+    public interface Source {
+        boolean isConnected();
+        boolean isUnmetered();
+        boolean isCharging();
+        int getBatteryPercent();
+
+        /**
+         * Sets the listener to run whenever the state may have changed, on any thread.
+         * @param listener
+         */
+        void setListener(Runnable listener);
+    }
+}
@@ -0,0 +1,134 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single upload waiting in, or running from, the UploadScheduler.
+ * Jobs with a higher priority run first; jobs of equal priority run in the order queued.
+ *
+ * File jobs also carry the resumable session URI and progress of their last attempt, which
+ * the UploadJournal persists so the upload can continue after the process is restarted.
+ */
+public class UploadJob implements Comparable<UploadJob> {
+
+    private final String objectName;
+    private final File file;
+    private final byte[] bytes;
+    private final int priority;
+    private final long sequence;
+    private final List<UploadScheduler.UploadListener> listeners = new ArrayList<>();
+
+    private String sessionUri;
+    private long bytesTransferred;
+    private long journaledBytes;
+    private int attempts;
+
+    /**
+     * Constructor to set appropriate values. Exactly one of file and bytes is set.
+     * @param objectName
+     * @param file
+     * @param bytes
+     * @param priority
+     * @param sequence
+     */
+    UploadJob(String objectName, File file, byte[] bytes, int priority, long sequence) {
+        this.objectName = objectName;
+        this.file = file;
+        this.bytes = bytes;
+        this.priority = priority;
+        this.sequence = sequence;
+    }
+
+    public String getObjectName() {
+        return objectName;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the resumable upload session of the last attempt, or null if there is none.
+     * @return
+     */
+    public String getSessionUri() {
+        return sessionUri;
+    }
+
+    void setSessionUri(String sessionUri) {
+        this.sessionUri = sessionUri;
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    void setBytesTransferred(long bytesTransferred) {
+        this.bytesTransferred = bytesTransferred;
+    }
+
+    long getJournaledBytes() {
+        return journaledBytes;
+    }
+
+    void setJournaledBytes(long journaledBytes) {
+        this.journaledBytes = journaledBytes;
+    }
+
+    /**
+     * Returns the number of attempts that have failed so far.
+     * @return
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * Returns true if the job can be written to the UploadJournal.
+     * Uploads of bytes held in memory do not survive the process, so are not journaled.
+     * @return
+     */
+    boolean isDurable() {
+        return file != null;
+    }
+
+    synchronized void addListener(UploadScheduler.UploadListener listener) {
+        if (listener != null)
+            listeners.add(listener);
+    }
+
+    synchronized List<UploadScheduler.UploadListener> getListeners() {
+        return new ArrayList<>(listeners);
+    }
+
+    /**
+     * Orders jobs by descending priority, then by the order they were queued.
+     * @param other
+     * @return
+     */
+    @Override
+    public int compareTo(UploadJob other) {
+        if (priority != other.priority) {
+            return other.priority < priority ? -1 : 1;
+        }
+        return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+}
@@ -0,0 +1,173 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk journal of the file uploads that have not yet completed.
+ *
+ * Each change to a job appends a line holding its full state, and a completed or abandoned
+ * job appends a removal line; the last line for an object name wins. This lets queued uploads,
+ * and the resumable session of an upload in progress, survive the process being killed.
+ */
+public class UploadJournal {
+
+    public static final String FILE_NAME = "upload_journal.tsv";
+
+    private static final String OP_JOB = "J";
+    private static final String OP_DONE = "D";
+    private static final String NONE = "-";
+
+    private final File file;
+    private int lineCount;
+
+    /**
+     * Constructor to set appropriate values.
+     * @param file
+     */
+    public UploadJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the unfinished jobs from disk, in the order they were first queued.
+     * The journal is rewritten when it holds many superseded lines.
+     * @return
+     */
+    public synchronized List<UploadJob> load() {
+        Map<String, UploadJob> jobs = new LinkedHashMap<>();
+        lineCount = 0;
+        if (file.exists()) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+                String line;
+                long sequence = 0;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t");
+                    lineCount++;
+                    if (parts.length == 2 && OP_DONE.equals(parts[0])) {
+                        jobs.remove(parts[1]);
+                    } else if (parts.length == 7 && OP_JOB.equals(parts[0])) {
+                        UploadJob job = parse(parts, sequence++);
+                        if (job != null) {
+                            UploadJob previous = jobs.get(job.getObjectName());
+                            jobs.put(job.getObjectName(), previous == null ? job : copyState(job, previous));
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        List<UploadJob> result = new ArrayList<>(jobs.values());
+        if (lineCount > 2 * result.size() + 64) {
+            rewrite(result);
+        }
+        return result;
+    }
+
+    /**
+     * Records the current state of a job.
+     * @param job
+     */
+    public synchronized void save(UploadJob job) {
+        if (!job.isDurable())
+            return;
+        append(OP_JOB + "\t" + job.getObjectName() + "\t" + job.getFile().getAbsolutePath()
+                + "\t" + job.getPriority()
+                + "\t" + (job.getSessionUri() == null ? NONE : job.getSessionUri())
+                + "\t" + job.getBytesTransferred()
+                + "\t" + job.getAttempts() + "\n");
+    }
+
+    /**
+     * Records that a job has completed or been abandoned.
+     * @param job
+     */
+    public synchronized void remove(UploadJob job) {
+        if (!job.isDurable())
+            return;
+        append(OP_DONE + "\t" + job.getObjectName() + "\n");
+    }
+
+    private void append(String line) {
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+            writer.write(line);
+            lineCount++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void rewrite(List<UploadJob> jobs) {
+        if (jobs.isEmpty()) {
+            if (file.delete())
+                lineCount = 0;
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        if (tmp.exists() && !tmp.delete())
+            return;
+        UploadJournal journal = new UploadJournal(tmp);
+        for (UploadJob job : jobs) {
+            journal.save(job);
+        }
+        if (tmp.renameTo(file)) {
+            lineCount = jobs.size();
+        }
+    }
+
+    private static UploadJob parse(String[] parts, long sequence) {
+        try {
+            UploadJob job = new UploadJob(parts[1], new File(parts[2]), null,
+                    Integer.parseInt(parts[3]), sequence);
+            job.setSessionUri(NONE.equals(parts[4]) ? null : parts[4]);
+            job.setBytesTransferred(Long.parseLong(parts[5]));
+            job.setJournaledBytes(job.getBytesTransferred());
+            job.setAttempts(Integer.parseInt(parts[6]));
+            return job;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the queue position of the first record of a job while taking the latest state.
+     */
+    private static UploadJob copyState(UploadJob latest, UploadJob first) {
+        first.setSessionUri(latest.getSessionUri());
+        first.setBytesTransferred(latest.getBytesTransferred());
+        first.setJournaledBytes(latest.getJournaledBytes());
+        first.setAttempts(latest.getAttempts());
+        return first;
+    }
+}
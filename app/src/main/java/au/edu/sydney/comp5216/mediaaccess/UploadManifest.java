@@ -0,0 +1,249 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent record of the images that have already been uploaded, so a synchronisation
+ * only needs to upload new or changed photos.
+ *
+ * Entries are keyed by MediaStore _ID and DATE_MODIFIED, with the content hash of each
+ * upload kept alongside so that copies of an already uploaded image are skipped as well.
+ * The manifest is stored as an append-only log of tab separated lines, one per record.
+ */
+public class UploadManifest {
+
+    public static final String FILE_NAME = "upload_manifest.tsv";
+
+    // Used for uploads that do not have a MediaStore row, such as a fresh capture
+    public static final long NO_ID = -1;
+
+    static final String OBJECT_PREFIX = "images/";
+
+    private static final Map<String, UploadManifest> instances = new HashMap<>();
+
+    private final File file;
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final Set<String> hashes = new HashSet<>();
+    private int lineCount;
+
+    /**
+     * Returns the shared manifest stored in the given file, loading it on first use.
+     * @param file
+     * @return
+     */
+    public static synchronized UploadManifest open(File file) {
+        UploadManifest manifest = instances.get(file.getAbsolutePath());
+        if (manifest == null) {
+            manifest = new UploadManifest(file);
+            manifest.load();
+            instances.put(file.getAbsolutePath(), manifest);
+        }
+        return manifest;
+    }
+
+    /**
+     * Returns the stable Storage object name for an image with the given content hash.
+     * @param hash
+     * @return
+     */
+    public static String objectName(String hash) {
+        return OBJECT_PREFIX + hash;
+    }
+
+    /**
+     * Returns the content hash that the given Storage object name was derived from.
+     * @param objectName
+     * @return
+     */
+    public static String hashOf(String objectName) {
+        return objectName.substring(objectName.lastIndexOf('/') + 1);
+    }
+
+    UploadManifest(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns true if the image has been uploaded and has not changed since.
+     * @param item
+     * @return
+     */
+    public synchronized boolean isUploaded(MediaItem item) {
+        Entry entry = entries.get(item.getId());
+        return entry != null && entry.dateModified == item.getDateModified();
+    }
+
+    /**
+     * Returns true if an image with the given content hash has already been uploaded.
+     * @param hash
+     * @return
+     */
+    public synchronized boolean containsHash(String hash) {
+        return hashes.contains(hash);
+    }
+
+    /**
+     * Returns the content hashes of every image uploaded.
+     * @return
+     */
+    public synchronized Set<String> getHashes() {
+        return new HashSet<>(hashes);
+    }
+
+    /**
+     * Returns the number of distinct images recorded.
+     * @return
+     */
+    public synchronized int size() {
+        return hashes.size();
+    }
+
+    /**
+     * Records that the given image is stored remotely under the given content hash.
+     * @param item
+     * @param hash
+     * @throws IOException
+     */
+    public synchronized void record(MediaItem item, String hash) throws IOException {
+        record(item.getId(), item.getDateModified(), hash);
+    }
+
+    /**
+     * Records that content with the given hash has been uploaded without a MediaStore row.
+     * @param hash
+     * @throws IOException
+     */
+    public synchronized void recordHash(String hash) throws IOException {
+        record(NO_ID, 0, hash);
+    }
+
+    private void record(long id, long dateModified, String hash) throws IOException {
+        Entry entry = new Entry(id, dateModified, hash);
+        put(entry);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+            writer.write(entry.toLine());
+        } finally {
+            if (writer != null)
+                writer.close();
+        }
+        lineCount++;
+    }
+
+    private void put(Entry entry) {
+        if (entry.id != NO_ID) {
+            entries.put(entry.id, entry);
+        }
+        hashes.add(entry.hash);
+    }
+
+    /**
+     * Reads the manifest from disk, and rewrites it when the log holds many superseded lines.
+     */
+    synchronized void load() {
+        if (!file.exists())
+            return;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry = Entry.parse(line);
+                if (entry != null) {
+                    put(entry);
+                    lineCount++;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (lineCount > 2 * (entries.size() + hashes.size()) + 64) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+            Set<String> written = new HashSet<>();
+            for (Entry entry : entries.values()) {
+                writer.write(entry.toLine());
+                written.add(entry.hash);
+            }
+            for (String hash : hashes) {
+                if (!written.contains(hash)) {
+                    writer.write(new Entry(NO_ID, 0, hash).toLine());
+                    written.add(hash);
+                }
+            }
+            writer.close();
+            writer = null;
+            if (tmp.renameTo(file)) {
+                lineCount = written.size();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * A single uploaded image.
+     */
+    private static class Entry {
+
+        final long id;
+        final long dateModified;
+        final String hash;
+
+        Entry(long id, long dateModified, String hash) {
+            this.id = id;
+            this.dateModified = dateModified;
+            this.hash = hash;
+        }
+
+        String toLine() {
+            return id + "\t" + dateModified + "\t" + hash + "\n";
+        }
+
+        static Entry parse(String line) {
+            String[] parts = line.split("\t");
+            if (parts.length != 3)
+                return null;
+            try {
+                return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
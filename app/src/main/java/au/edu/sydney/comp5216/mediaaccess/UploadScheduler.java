@@ -0,0 +1,548 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.content.Context;
+import androidx.core.content.ContextCompat;
+import com.google.firebase.storage.FirebaseStorage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue through which all uploads to the StorageBackend, Firebase Storage in the app, are made.
+ * Only a bounded number of transfers run at once; the rest wait in priority, then FIFO, order.
+ *
+ * File uploads are recorded in an UploadJournal together with their resumable session URI,
+ * so after the process is killed they are queued again and continue from where they stopped.
+ * A failed upload is retried with exponential backoff before it is reported as failed.
+ *
+ * Uploads only start while the device meets the scheduler's UploadConstraints, such as being
+ * on an unmetered network, and waiting uploads are started together in batches: a batch opens
+ * once enough uploads are waiting, the oldest has waited long enough, a photo just taken
+ * is waiting, or the queue is flushed because the user is waiting on it, and stays open until
+ * the queue is empty. Batching lets the radio stay idle
+ * between batches instead of waking for every photo.
+ * Listeners are called on the callback executor, the main thread in the app.
+ */
+public class UploadScheduler {
+
+    public static final int DEFAULT_MAX_PARALLEL_UPLOADS = 3;
+
+    //Priorities, a photo just taken is uploaded ahead of a library synchronisation
+    public static final int PRIORITY_SYNC = 0;
+    public static final int PRIORITY_CAPTURE = 10;
+
+    //Retry policy
+    static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_RETRY_DELAY_MS = 2000;
+    private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+
+    //Batching used by the app
+    static final int DEFAULT_MIN_BATCH_UPLOADS = 10;
+    static final long DEFAULT_MAX_BATCH_DELAY_MS = 60 * 1000;
+
+    //Progress is journaled at most once per this many bytes
+    private static final long JOURNAL_PROGRESS_BYTES = 1024 * 1024;
+
+    private static UploadScheduler instance;
+
+    private final StorageBackend backend;
+    private final UploadJournal journal;
+    private final Executor callbackExecutor;
+    private final ScheduledExecutorService retryTimer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Upload retry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private final Random random = new Random();
+    private final PriorityQueue<UploadJob> pending = new PriorityQueue<>();
+    private final Map<String, UploadJob> jobs = new HashMap<>();
+    private long baseRetryDelayMs = BASE_RETRY_DELAY_MS;
+    private long maxRetryDelayMs = MAX_RETRY_DELAY_MS;
+    private UploadConstraints constraints = UploadConstraints.NONE;
+    private UploadConstraints.Source constraintSource;
+    private int minBatchUploads = 1;
+    private long maxBatchDelayMs;
+    private boolean batchOpen;
+    private boolean batchTimerScheduled;
+    private long waitingSince = -1;
+    private int maxParallelUploads;
+    private int running;
+    private long sequence;
+    private volatile Runnable uploadedListener;
+
+    /**
+     * Returns the scheduler shared by all activities, queueing any unfinished uploads
+     * from the journal the first time it is created.
+     * @param context
+     * @return
+     */
+    public static synchronized UploadScheduler getInstance(Context context) {
+        if (instance == null) {
+            final File dir = context.getApplicationContext().getFilesDir();
+            StorageBackend backend = new MeasuredStorageBackend(
+                    new FirebaseStorageBackend(FirebaseStorage.getInstance().getReference()),
+                    Metrics.getInstance());
+            instance = new UploadScheduler(backend,
+                    DEFAULT_MAX_PARALLEL_UPLOADS, new UploadJournal(new File(dir, UploadJournal.FILE_NAME)),
+                    ContextCompat.getMainExecutor(context));
+            instance.setConstraints(UploadConstraints.DEFAULT, new DeviceConstraintSource(context));
+            instance.setBatching(DEFAULT_MIN_BATCH_UPLOADS, DEFAULT_MAX_BATCH_DELAY_MS);
+            instance.setUploadedListener(new Runnable() {
+                @Override
+                public void run() {
+                    //Every uploader adds to the cloud listing, not only a synchronisation
+                    CloudListingCache.open(new File(dir, CloudListingCache.FILE_NAME),
+                            CloudListingCache.DEFAULT_TTL_MS).invalidatePages();
+                }
+            });
+            instance.restore(UploadManifest.open(new File(dir, UploadManifest.FILE_NAME)));
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor to set appropriate values.
+     * @param backend
+     * @param maxParallelUploads
+     * @param journal
+     * @param callbackExecutor
+     */
+    UploadScheduler(StorageBackend backend, int maxParallelUploads, UploadJournal journal,
+                    Executor callbackExecutor) {
+        this.backend = backend;
+        this.journal = journal;
+        this.callbackExecutor = callbackExecutor;
+        setMaxParallelUploads(maxParallelUploads);
+    }
+
+    /**
+     * Queues the unfinished uploads recorded in the journal. Their original listeners did not
+     * survive the restart, so completion is recorded straight into the upload manifest.
+     * @param manifest
+     */
+    synchronized void restore(final UploadManifest manifest) {
+        List<UploadJob> restored = journal.load();
+        UploadListener listener = new UploadListener() {
+            @Override
+            public void onProgress(UploadJob job, long bytesTransferred, long totalBytes) {
+            }
+
+            @Override
+            public void onSuccess(UploadJob job) {
+                try {
+                    if (MediaBundle.isBundle(job.getObjectName())) {
+                        recordBundle(manifest, job.getFile());
+                    } else {
+                        manifest.recordHash(UploadManifest.hashOf(job.getObjectName()));
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            @Override
+            public void onFailure(UploadJob job, Exception e) {
+                //The next synchronisation packs the bundle's photos again
+                if (MediaBundle.isBundle(job.getObjectName()))
+                    job.getFile().delete();
+            }
+        };
+        //The journal numbers jobs in the order they were queued, including finished ones
+        long next = 0;
+        for (UploadJob job : restored) {
+            next = Math.max(next, job.getSequence() + 1);
+            if (!job.getFile().exists()) {
+                journal.remove(job);
+                continue;
+            }
+            job.addListener(listener);
+            jobs.put(job.getObjectName(), job);
+            pending.add(job);
+        }
+        sequence = next;
+        pump();
+    }
+
+    /**
+     * Records every photo in an uploaded bundle in the manifest, then deletes the bundle.
+     * @param manifest
+     * @param bundle
+     * @throws IOException
+     */
+    static void recordBundle(UploadManifest manifest, File bundle) throws IOException {
+        MediaBundle.Reader reader = new MediaBundle.Reader(bundle);
+        try {
+            for (MediaBundle.Entry entry : reader.getEntries())
+                manifest.recordHash(entry.getName());
+        } finally {
+            reader.close();
+        }
+        bundle.delete();
+    }
+
+    /**
+     * Sets the number of uploads allowed to transfer at the same time.
+     * @param maxParallelUploads
+     */
+    public synchronized void setMaxParallelUploads(int maxParallelUploads) {
+        if (maxParallelUploads < 1)
+            throw new IllegalArgumentException("maxParallelUploads must be at least 1");
+        this.maxParallelUploads = maxParallelUploads;
+        pump();
+    }
+
+    /**
+     * Sets what is run after any upload succeeds, on the thread the upload completed on and
+     * before its listeners are called.
+     * @param listener null for none
+     */
+    public void setUploadedListener(Runnable listener) {
+        this.uploadedListener = listener;
+    }
+
+    /**
+     * Sets the delay before the first retry, and the cap that later retries back off to.
+     * @param baseRetryDelayMs
+     * @param maxRetryDelayMs
+     */
+    public synchronized void setRetryDelays(long baseRetryDelayMs, long maxRetryDelayMs) {
+        this.baseRetryDelayMs = baseRetryDelayMs;
+        this.maxRetryDelayMs = maxRetryDelayMs;
+    }
+
+    /**
+     * Sets the conditions uploads wait for, and where the device's state is read from.
+     * Waiting uploads are started as soon as the source reports that the conditions are met.
+     * @param constraints
+     * @param source
+     */
+    public synchronized void setConstraints(UploadConstraints constraints,
+                                            UploadConstraints.Source source) {
+        if (constraintSource != null)
+            constraintSource.setListener(null);
+        this.constraints = constraints;
+        this.constraintSource = source;
+        if (source != null) {
+            source.setListener(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (UploadScheduler.this) {
+                        pump();
+                    }
+                }
+            });
+        }
+        pump();
+    }
+
+    /**
+     * Sets how uploads are coalesced: waiting uploads start once at least minBatchUploads
+     * are queued, or the oldest has waited maxBatchDelayMs. A minimum of 1 starts each
+     * upload as soon as it is queued.
+     * @param minBatchUploads
+     * @param maxBatchDelayMs
+     */
+    public synchronized void setBatching(int minBatchUploads, long maxBatchDelayMs) {
+        if (minBatchUploads < 1)
+            throw new IllegalArgumentException("minBatchUploads must be at least 1");
+        this.minBatchUploads = minBatchUploads;
+        this.maxBatchDelayMs = maxBatchDelayMs;
+        pump();
+    }
+
+    /**
+     * Opens a batch for the uploads already waiting, without waiting for more of them, as when
+     * the user has asked for them. They still wait for the constraints to be met.
+     */
+    public synchronized void flush() {
+        if (!pending.isEmpty())
+            batchOpen = true;
+        pump();
+    }
+
+    /**
+     * Returns what queued uploads are waiting for, such as "an unmetered network",
+     * or null if they can start now.
+     * @return
+     */
+    public synchronized String getWaitingFor() {
+        if (constraintSource == null)
+            return null;
+        return constraints.waitingFor(constraintSource);
+    }
+
+    /**
+     * Queues a file on the device for upload. If the same object is already queued,
+     * the listener is added to the existing job instead.
+     * @param objectName
+     * @param file
+     * @param priority
+     * @param listener
+     * @return
+     */
+    public synchronized UploadJob enqueue(String objectName, File file, int priority,
+                                          UploadListener listener) {
+        UploadJob job = jobs.get(objectName);
+        if (job == null) {
+            job = new UploadJob(objectName, file, null, priority, sequence++);
+            journal.save(job);
+        }
+        return enqueue(job, listener);
+    }
+
+    /**
+     * Queues bytes held in memory for upload. Such uploads are not journaled.
+     * @param objectName
+     * @param bytes
+     * @param priority
+     * @param listener
+     * @return
+     */
+    public synchronized UploadJob enqueue(String objectName, byte[] bytes, int priority,
+                                          UploadListener listener) {
+        UploadJob job = jobs.get(objectName);
+        if (job == null) {
+            job = new UploadJob(objectName, null, bytes, priority, sequence++);
+        }
+        return enqueue(job, listener);
+    }
+
+    private UploadJob enqueue(UploadJob job, UploadListener listener) {
+        job.addListener(listener);
+        if (!jobs.containsKey(job.getObjectName())) {
+            jobs.put(job.getObjectName(), job);
+            pending.add(job);
+            pump();
+        }
+        return job;
+    }
+
+    /**
+     * Returns the backend uploads are made to, for reading back what has been stored.
+     * @return
+     */
+    public StorageBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Returns the number of uploads waiting to start, including those waiting to retry.
+     * @return
+     */
+    public synchronized int getPendingCount() {
+        return jobs.size() - running;
+    }
+
+    /**
+     * Returns the number of uploads currently transferring.
+     * @return
+     */
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /**
+     * Starts queued uploads until the parallel limit is reached, if the constraints are met
+     * and a batch is open, or opens one if enough uploads are waiting.
+     */
+    private void pump() {
+        if (pending.isEmpty()) {
+            batchOpen = false;
+            waitingSince = -1;
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (waitingSince < 0)
+            waitingSince = now;
+        if (constraintSource != null && !constraints.isSatisfiedBy(constraintSource))
+            return;
+        if (!batchOpen) {
+            long waited = now - waitingSince;
+            if (pending.size() >= minBatchUploads || waited >= maxBatchDelayMs
+                    || pending.peek().getPriority() >= PRIORITY_CAPTURE) {
+                batchOpen = true;
+            } else {
+                scheduleBatch(maxBatchDelayMs - waited);
+                return;
+            }
+        }
+        while (running < maxParallelUploads && !pending.isEmpty()) {
+            start(pending.poll());
+        }
+        if (pending.isEmpty()) {
+            batchOpen = false;
+            waitingSince = -1;
+        }
+    }
+
+    /**
+     * Pumps the queue again once the oldest waiting upload has waited long enough.
+     * @param delayMs
+     */
+    private void scheduleBatch(long delayMs) {
+        if (batchTimerScheduled)
+            return;
+        batchTimerScheduled = true;
+        retryTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (UploadScheduler.this) {
+                    batchTimerScheduled = false;
+                    pump();
+                }
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts the transfer of a single job, resuming its previous session if it has one,
+     * and frees its slot once it succeeds or fails.
+     * @param job
+     */
+    private void start(final UploadJob job) {
+        running++;
+        final String resumedSession = job.getSessionUri();
+        final long resumedBytes = job.getBytesTransferred();
+        StorageBackend.UploadCallback callback = new StorageBackend.UploadCallback() {
+            @Override
+            public void onProgress(long bytesTransferred, long totalBytes, String sessionUri) {
+                progressed(job, sessionUri, bytesTransferred, totalBytes);
+            }
+
+            @Override
+            public void onSuccess() {
+                succeeded(job);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                //A session that could not be resumed is abandoned so the retry starts afresh
+                synchronized (UploadScheduler.this) {
+                    if (resumedSession != null && job.getBytesTransferred() <= resumedBytes) {
+                        job.setSessionUri(null);
+                        job.setBytesTransferred(0);
+                    }
+                }
+                failed(job, e);
+            }
+        };
+        if (job.getBytes() != null) {
+            backend.putBytes(job.getObjectName(), job.getBytes(), callback);
+        } else {
+            backend.putFile(job.getObjectName(), job.getFile(), resumedSession, callback);
+        }
+    }
+
+    private void progressed(final UploadJob job, String sessionUri, final long bytesTransferred,
+                            final long totalBytes) {
+        synchronized (this) {
+            boolean newSession = sessionUri != null && !sessionUri.equals(job.getSessionUri());
+            job.setBytesTransferred(bytesTransferred);
+            if (newSession) {
+                job.setSessionUri(sessionUri);
+            }
+            if (newSession || bytesTransferred - job.getJournaledBytes() >= JOURNAL_PROGRESS_BYTES) {
+                job.setJournaledBytes(bytesTransferred);
+                journal.save(job);
+            }
+        }
+        for (final UploadListener listener : job.getListeners()) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onProgress(job, bytesTransferred, totalBytes);
+                }
+            });
+        }
+    }
+
+    private void succeeded(final UploadJob job) {
+        synchronized (this) {
+            running--;
+            jobs.remove(job.getObjectName());
+            journal.remove(job);
+            pump();
+        }
+        Runnable uploaded = uploadedListener;
+        if (uploaded != null)
+            uploaded.run();
+        for (final UploadListener listener : job.getListeners()) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onSuccess(job);
+                }
+            });
+        }
+    }
+
+    private void failed(final UploadJob job, final Exception e) {
+        boolean retry;
+        synchronized (this) {
+            running--;
+            job.setAttempts(job.getAttempts() + 1);
+            retry = job.getAttempts() < MAX_ATTEMPTS;
+            if (retry) {
+                journal.save(job);
+            } else {
+                jobs.remove(job.getObjectName());
+                journal.remove(job);
+            }
+            pump();
+        }
+        if (retry) {
+            retryTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (UploadScheduler.this) {
+                        pending.add(job);
+                        pump();
+                    }
+                }
+            }, retryDelay(job.getAttempts()), TimeUnit.MILLISECONDS);
+            return;
+        }
+        for (final UploadListener listener : job.getListeners()) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onFailure(job, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the delay before the given retry, doubling with each failed attempt up to a cap,
+     * with up to a quarter added at random so that failed uploads do not all retry together.
+     * @param attempts
+     * @return
+     */
+    synchronized long retryDelay(int attempts) {
+        long delay = baseRetryDelayMs << Math.min(attempts - 1, 20);
+        delay = Math.min(delay, maxRetryDelayMs);
+        return delay + (long) (random.nextDouble() * delay / 4);
+    }
+
+    /**
+     * Listener for the progress and outcome of a queued upload.
+     */
+    public interface UploadListener {
+        void onProgress(UploadJob job, long bytesTransferred, long totalBytes);
+        void onSuccess(UploadJob job);
+        void onFailure(UploadJob job, Exception e);
+    }
+}
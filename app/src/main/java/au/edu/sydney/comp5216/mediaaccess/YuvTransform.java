@@ -0,0 +1,143 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rotates and mirrors YUV_420_888 frames into NV21, the layout YuvImage encodes to JPEG,
+ * so a frame can be saved upright with a single encode instead of decoding and re-encoding
+ * a JPEG to rotate it.
+ *
+ * The planes are read in place, with their row and pixel strides, and written into a caller's
+ * array in one pass; nothing is allocated. Each output row is a fixed step through the source
+ * plane, which depends only on the rotation and mirroring, so the inner loop is one add per pixel.
+ */
+public class YuvTransform {
+
+    /**
+     * Returns the width of a frame after rotation.
+     * @param width
+     * @param height
+     * @param rotation clockwise degrees, a multiple of 90
+     * @return
+     */
+    public static int rotatedWidth(int width, int height, int rotation) {
+        return normalise(rotation) % 180 == 0 ? width : height;
+    }
+
+    /**
+     * Returns the height of a frame after rotation.
+     * @param width
+     * @param height
+     * @param rotation clockwise degrees, a multiple of 90
+     * @return
+     */
+    public static int rotatedHeight(int width, int height, int rotation) {
+        return normalise(rotation) % 180 == 0 ? height : width;
+    }
+
+    /**
+     * Returns the number of bytes of an NV21 frame of the given size.
+     * @param width
+     * @param height
+     * @return
+     */
+    public static int nv21Size(int width, int height) {
+        return width * height + 2 * (width / 2) * (height / 2);
+    }
+
+    /**
+     * Writes a YUV_420_888 frame, rotated clockwise and then mirrored left to right if asked,
+     * into out as NV21. The frame's width and height must be even.
+     * @param y luma plane
+     * @param yRowStride
+     * @param yPixelStride
+     * @param u Cb plane
+     * @param v Cr plane
+     * @param uvRowStride row stride of both chroma planes
+     * @param uvPixelStride pixel stride of both chroma planes
+     * @param width frame width before rotation
+     * @param height frame height before rotation
+     * @param rotation clockwise degrees, a multiple of 90
+     * @param mirror whether to mirror the rotated frame left to right
+     * @param out at least nv21Size of the rotated frame
+     */
+    public static void toNv21(ByteBuffer y, int yRowStride, int yPixelStride,
+                              ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                              int width, int height, int rotation, boolean mirror, byte[] out) {
+        if ((width & 1) != 0 || (height & 1) != 0)
+            throw new IllegalArgumentException("Frame size must be even: " + width + "x" + height);
+        int outWidth = rotatedWidth(width, height, rotation);
+        int outHeight = rotatedHeight(width, height, rotation);
+        if (out.length < nv21Size(outWidth, outHeight))
+            throw new IllegalArgumentException("Output too small for " + outWidth + "x" + outHeight);
+
+        int[] steps = new int[3];
+        //Luma
+        steps(width, height, yRowStride, yPixelStride, rotation, mirror, steps);
+        int dst = 0;
+        for (int r = 0; r < outHeight; r++) {
+            int src = steps[0] + r * steps[1];
+            for (int c = 0; c < outWidth; c++) {
+                out[dst++] = y.get(src);
+                src += steps[2];
+            }
+        }
+
+        //Chroma, interleaved V then U
+        int chromaWidth = outWidth / 2;
+        int chromaHeight = outHeight / 2;
+        steps(width / 2, height / 2, uvRowStride, uvPixelStride, rotation, mirror, steps);
+        for (int r = 0; r < chromaHeight; r++) {
+            int src = steps[0] + r * steps[1];
+            for (int c = 0; c < chromaWidth; c++) {
+                out[dst++] = v.get(src);
+                out[dst++] = u.get(src);
+                src += steps[2];
+            }
+        }
+    }
+
+    /**
+     * Works out where output row 0, column 0 is read from in a plane, and how far the source
+     * index moves for each output row and each output column.
+     * Output column c is first mirrored, then mapped back through the rotation.
+     * @param steps receives {start, row step, column step}
+     */
+    private static void steps(int width, int height, int rowStride, int pixelStride,
+                              int rotation, boolean mirror, int[] steps) {
+        int outWidth = rotatedWidth(width, height, rotation);
+        //Unmirrored column = m0 + mc * c
+        int m0 = mirror ? outWidth - 1 : 0;
+        int mc = mirror ? -1 : 1;
+
+        //Source x = x0 + xr * r + xc * c, and likewise y
+        int x0, xr, xc, y0, yr, yc;
+        switch (normalise(rotation)) {
+            case 90:
+                x0 = 0; xr = 1; xc = 0;
+                y0 = height - 1 - m0; yr = 0; yc = -mc;
+                break;
+            case 180:
+                x0 = width - 1 - m0; xr = 0; xc = -mc;
+                y0 = height - 1; yr = -1; yc = 0;
+                break;
+            case 270:
+                x0 = width - 1; xr = -1; xc = 0;
+                y0 = m0; yr = 0; yc = mc;
+                break;
+            default:
+                x0 = m0; xr = 0; xc = mc;
+                y0 = 0; yr = 1; yc = 0;
+                break;
+        }
+        steps[0] = y0 * rowStride + x0 * pixelStride;
+        steps[1] = yr * rowStride + xr * pixelStride;
+        steps[2] = yc * rowStride + xc * pixelStride;
+    }
+
+    private static int normalise(int rotation) {
+        if (rotation % 90 != 0)
+            throw new IllegalArgumentException("Rotation must be a multiple of 90: " + rotation);
+        return ((rotation % 360) + 360) % 360;
+    }
+}
@@ -0,0 +1,75 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the adaptive JPEG encoder, using a compressor whose output grows
+ * with quality in place of a real JPEG encoder.
+ */
+public class AdaptiveJpegEncoderTest {
+
+    // Output of 1000 bytes per quality step
+    private static final AdaptiveJpegEncoder.Compressor LINEAR = new AdaptiveJpegEncoder.Compressor() {
+        @Override
+        public void compress(int quality, OutputStream out) throws IOException {
+            out.write(new byte[quality * 1000]);
+        }
+    };
+
+    @Test
+    public void smallImage_usesTopQuality_inOneAttempt() throws IOException {
+        AdaptiveJpegEncoder encoder = new AdaptiveJpegEncoder(100000, 40, 85, 5);
+        assertEquals(85000, encoder.encode(LINEAR).size());
+        assertEquals(85, encoder.getQuality());
+        assertEquals(1, encoder.getAttempts());
+    }
+
+    @Test
+    public void largeImage_usesHighestQualityThatFits() throws IOException {
+        AdaptiveJpegEncoder encoder = new AdaptiveJpegEncoder(60500, 40, 85, 8);
+        ReusableByteArrayOutputStream encoded = encoder.encode(LINEAR);
+        assertEquals(60, encoder.getQuality());
+        assertEquals(60000, encoded.size());
+        assertTrue(encoder.getAttempts() <= 8);
+    }
+
+    @Test
+    public void attemptsAreBounded_andResultStillFits() throws IOException {
+        AdaptiveJpegEncoder encoder = new AdaptiveJpegEncoder(60500, 0, 100, 3);
+        ReusableByteArrayOutputStream encoded = encoder.encode(LINEAR);
+        assertTrue(encoded.size() <= 60500);
+        assertEquals(3, encoder.getAttempts());
+    }
+
+    @Test
+    public void overBudgetAtFloor_usesFloor() throws IOException {
+        AdaptiveJpegEncoder encoder = new AdaptiveJpegEncoder(10000, 40, 85, 5);
+        assertEquals(40000, encoder.encode(LINEAR).size());
+        assertEquals(40, encoder.getQuality());
+    }
+
+    @Test
+    public void buffers_areReusedAcrossEncodes() throws IOException {
+        AdaptiveJpegEncoder encoder = new AdaptiveJpegEncoder(60500, 40, 85, 8);
+        ReusableByteArrayOutputStream first = encoder.encode(LINEAR);
+        byte[] buffer = first.getBuffer();
+        ReusableByteArrayOutputStream second = encoder.encode(LINEAR);
+        assertSame(buffer, second.getBuffer());
+    }
+
+    @Test
+    public void release_dropsBuffers_butKeepsLastResult() throws IOException {
+        AdaptiveJpegEncoder encoder = new AdaptiveJpegEncoder(60500, 40, 85, 8);
+        ReusableByteArrayOutputStream encoded = encoder.encode(LINEAR);
+        assertTrue(encoder.getResidentBytes() >= 120000);
+        encoder.release();
+        assertEquals(0, encoder.getResidentBytes());
+        assertEquals(60000, encoded.size());
+        assertEquals(60000, encoder.encode(LINEAR).size());
+    }
+}
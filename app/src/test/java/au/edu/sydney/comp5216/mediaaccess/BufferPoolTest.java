@@ -0,0 +1,61 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the byte array pool.
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void acquire_roundsUpToSizeClass() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        assertEquals(4096, pool.acquire(1).length);
+        assertEquals(8192, pool.acquire(4097).length);
+        assertEquals(8192, pool.acquire(8192).length);
+    }
+
+    @Test
+    public void releasedBuffer_isReusedForSimilarSize() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        byte[] first = pool.acquire(100000);
+        pool.release(first);
+        assertEquals(first.length, pool.getResidentBytes());
+        assertSame(first, pool.acquire(90000));
+        assertEquals(0, pool.getResidentBytes());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void muchLargerBuffer_isNotReusedForSmallRequest() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        byte[] large = pool.acquire(500000);
+        pool.release(large);
+        assertNotSame(large, pool.acquire(5000));
+    }
+
+    @Test
+    public void release_keepsWithinLimit() {
+        BufferPool pool = new BufferPool(20000);
+        pool.release(new byte[8192]);
+        pool.release(new byte[8192]);
+        pool.release(new byte[8192]);
+        assertEquals(16384, pool.getResidentBytes());
+        pool.release(new byte[65536]);
+        assertEquals(16384, pool.getResidentBytes());
+    }
+
+    @Test
+    public void trimTo_freesLargestFirst() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        pool.release(new byte[4096]);
+        pool.release(new byte[65536]);
+        pool.trimTo(10000);
+        assertEquals(4096, pool.getResidentBytes());
+        pool.trimTo(0);
+        assertEquals(0, pool.getResidentBytes());
+    }
+}
@@ -0,0 +1,66 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the capture and preview size policy.
+ */
+public class CaptureSizePolicyTest {
+
+    // A typical sensor's still sizes, largest first
+    private static final int[][] STILLS = {
+            {4032, 3024}, {4032, 2268}, {3264, 2448}, {3264, 1836},
+            {2592, 1944}, {1920, 1080}, {1280, 960}, {640, 480}};
+
+    private static final int[][] PREVIEWS = {
+            {4032, 3024}, {1920, 1440}, {1920, 1080}, {1440, 1080}, {1280, 960},
+            {1280, 720}, {960, 720}, {640, 480}, {320, 240}};
+
+    @Test
+    public void maxPixels_isLowerOfMegapixelsAndBudget() {
+        assertEquals(8000000, new CaptureSizePolicy(8f, 10 * 1024 * 1024, 0.15f).getMaxPixels());
+        assertEquals(1000000, new CaptureSizePolicy(8f, 250000, 0.25f).getMaxPixels());
+    }
+
+    @Test
+    public void still_isLargestUnderLimit_withViewAspect() {
+        CaptureSizePolicy policy = new CaptureSizePolicy(8f, 1024 * 1024, 0.15f);
+        //Portrait 3:4 view
+        int still = policy.chooseStill(STILLS, 1080, 1440);
+        assertArrayEquals(new int[] {2592, 1944}, STILLS[still]);
+        //Portrait 9:16 view
+        still = policy.chooseStill(STILLS, 1080, 1920);
+        assertArrayEquals(new int[] {3264, 1836}, STILLS[still]);
+    }
+
+    @Test
+    public void still_withoutView_usesSensorAspect() {
+        CaptureSizePolicy policy = new CaptureSizePolicy(8f, 1024 * 1024, 0.15f);
+        assertArrayEquals(new int[] {2592, 1944}, STILLS[policy.chooseStill(STILLS, 0, 0)]);
+    }
+
+    @Test
+    public void still_allOverLimit_usesSmallest() {
+        CaptureSizePolicy policy = new CaptureSizePolicy(0.1f, 1024 * 1024, 0.15f);
+        assertArrayEquals(new int[] {640, 480}, STILLS[policy.chooseStill(STILLS, 1080, 1440)]);
+        assertEquals(-1, policy.chooseStill(new int[0][], 1080, 1440));
+    }
+
+    @Test
+    public void preview_isSmallestCoveringView_withStillAspect() {
+        CaptureSizePolicy policy = new CaptureSizePolicy(8f, 1024 * 1024, 0.15f);
+        int preview = policy.choosePreview(PREVIEWS, 1000, 1300, new int[] {2592, 1944});
+        assertArrayEquals(new int[] {1440, 1080}, PREVIEWS[preview]);
+        preview = policy.choosePreview(PREVIEWS, 800, 1000, new int[] {2592, 1944});
+        assertArrayEquals(new int[] {1280, 960}, PREVIEWS[preview]);
+    }
+
+    @Test
+    public void preview_largerThanAnyOnOffer_usesLargestWithinLimit() {
+        CaptureSizePolicy policy = new CaptureSizePolicy(8f, 1024 * 1024, 0.15f);
+        int preview = policy.choosePreview(PREVIEWS, 2000, 3000, new int[] {1920, 1080});
+        assertArrayEquals(new int[] {1920, 1080}, PREVIEWS[preview]);
+    }
+}
@@ -0,0 +1,285 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for paging the cloud gallery and caching its listing,
+ * run against a LocalStorageBackend.
+ */
+public class CloudGalleryTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private File dir;
+    private LocalStorageBackend store;
+    private CountingBackend backend;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("cloud", "");
+        dir.delete();
+        dir.mkdirs();
+        File images = new File(dir, "store/images");
+        images.mkdirs();
+        for (int i = 0; i < 5; i++)
+            write(new File(images, "hash" + i), i + 1);
+        store = new LocalStorageBackend(new File(dir, "store"), 0, 0, 1);
+        backend = new CountingBackend(store);
+    }
+
+    @After
+    public void tearDown() {
+        store.shutdown();
+    }
+
+    @Test
+    public void gallery_listsPagesAsCellsAreBound() throws InterruptedException {
+        CloudListingCache cache = new CloudListingCache(new File(dir, "listing"), 60000);
+        CloudGallery gallery = new CloudGallery(backend, cache, 2, DIRECT);
+        Pages pages = new Pages();
+        gallery.setListener(pages);
+
+        gallery.refresh();
+        assertEquals("0+2", pages.next());
+        gallery.onBind(1);
+        assertEquals("2+2", pages.next());
+        gallery.onBind(3);
+        assertEquals("4+1 complete", pages.next());
+        assertTrue(gallery.isComplete());
+        assertEquals(5, gallery.getCount());
+        assertEquals("images/hash4", gallery.getName(4));
+        assertEquals(3, backend.lists.get());
+
+        //Binding again once complete lists nothing more
+        gallery.onBind(4);
+        assertEquals(3, backend.lists.get());
+    }
+
+    @Test
+    public void cachedPages_areNotListedAgain_untilTheyExpire() throws InterruptedException {
+        final long[] now = {1000};
+        CloudListingCache cache = new CloudListingCache(new File(dir, "listing"), 60000) {
+            @Override
+            long now() {
+                return now[0];
+            }
+        };
+        CloudGallery gallery = new CloudGallery(backend, cache, 3, DIRECT);
+        Pages pages = new Pages();
+        gallery.setListener(pages);
+        gallery.refresh();
+        pages.next();
+        gallery.onBind(0);
+        assertEquals("3+2 complete", pages.next());
+        assertEquals(2, backend.lists.get());
+
+        gallery.refresh();
+        gallery.onBind(0);
+        assertEquals("0+3", pages.next());
+        assertEquals("3+2 complete", pages.next());
+        assertEquals(2, backend.lists.get());
+
+        now[0] += 60000;
+        gallery.refresh();
+        assertEquals("0+3", pages.next());
+        assertEquals(3, backend.lists.get());
+    }
+
+    @Test
+    public void metadata_isCached() throws InterruptedException {
+        CloudListingCache cache = new CloudListingCache(new File(dir, "listing"), 60000);
+        CloudGallery gallery = new CloudGallery(backend, cache, 2, DIRECT);
+        final LinkedBlockingQueue<Long> sizes = new LinkedBlockingQueue<>();
+        StorageBackend.MetadataCallback callback = new StorageBackend.MetadataCallback() {
+            @Override
+            public void onSuccess(long sizeBytes, long updatedTimeMillis) {
+                sizes.add(sizeBytes);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                sizes.add(-1L);
+            }
+        };
+        gallery.getMetadata("images/hash2", callback);
+        assertEquals(3L, (long) sizes.poll(1, TimeUnit.SECONDS));
+        gallery.getMetadata("images/hash2", callback);
+        assertEquals(3L, (long) sizes.poll(1, TimeUnit.SECONDS));
+        assertEquals(1, backend.metadata.get());
+    }
+
+    @Test
+    public void cache_survivesRestart_withoutExpiredEntries() {
+        final long[] now = {1000};
+        File file = new File(dir, "listing");
+        CloudListingCache cache = new CloudListingCache(file, 60000) {
+            @Override
+            long now() {
+                return now[0];
+            }
+        };
+        cache.putPage(null, Arrays.asList("images/a", "images/b"), "token1");
+        cache.putPage("token1", new ArrayList<String>(), null);
+        cache.putMetadata("images/a", 10, 20);
+        now[0] += 30000;
+        cache.putPage("stale", Arrays.asList("images/c"), null);
+        cache.putMetadata("images/c", 1, 2);
+        now[0] += 40000;
+        cache.save();
+
+        CloudListingCache restored = new CloudListingCache(file, 60000) {
+            @Override
+            long now() {
+                return now[0];
+            }
+        };
+        restored.load();
+        assertNull(restored.getPage(null));
+        assertNull(restored.getMetadata("images/a"));
+        assertEquals(Arrays.asList("images/c"), restored.getPage("stale").getNames());
+        assertNull(restored.getPage("stale").getNextPageToken());
+        assertEquals(2, restored.getMetadata("images/c").getUpdatedTimeMillis());
+    }
+
+    @Test
+    public void cache_storesEmptyLastPage() {
+        File file = new File(dir, "listing");
+        CloudListingCache cache = new CloudListingCache(file, 60000);
+        cache.putPage(null, Arrays.asList("images/a"), "token1");
+        cache.putPage("token1", new ArrayList<String>(), null);
+        cache.save();
+
+        CloudListingCache restored = new CloudListingCache(file, 60000);
+        restored.load();
+        assertEquals("token1", restored.getPage(null).getNextPageToken());
+        assertTrue(restored.getPage("token1").getNames().isEmpty());
+
+        restored.invalidatePages();
+        assertNull(restored.getPage(null));
+    }
+
+    @Test
+    public void invalidatedPages_areRemovedFromDisk_andNotRestoredByALaterLoad() {
+        File file = new File(dir, "listing");
+        CloudListingCache cache = new CloudListingCache(file, 60000);
+        cache.putPage(null, Arrays.asList("images/a"), null);
+        cache.putMetadata("images/a", 1, 2);
+        cache.save();
+
+        //Invalidated before the saved cache is read, e.g. by an upload finishing first
+        CloudListingCache shared = new CloudListingCache(file, 60000);
+        shared.invalidatePages();
+        shared.load();
+        assertNull(shared.getPage(null));
+        assertEquals(1, shared.getMetadata("images/a").getSizeBytes());
+
+        CloudListingCache restored = new CloudListingCache(file, 60000);
+        restored.load();
+        assertNull(restored.getPage(null));
+        assertEquals(2, restored.getMetadata("images/a").getUpdatedTimeMillis());
+    }
+
+    @Test
+    public void open_sharesOneCachePerFile() {
+        File file = new File(dir, "listing");
+        CloudListingCache cache = CloudListingCache.open(file, 60000);
+        cache.putPage(null, Arrays.asList("images/a"), null);
+        assertSame(cache, CloudListingCache.open(new File(dir, "listing"), 60000));
+
+        CloudListingCache.open(file, 60000).invalidatePages();
+        assertNull(cache.getPage(null));
+    }
+
+    private static void write(File file, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Records each listed page as "start+count", waiting for those listed in the background.
+     */
+    private static class Pages implements CloudGallery.Listener {
+
+        private final LinkedBlockingQueue<String> pages = new LinkedBlockingQueue<>();
+
+        String next() throws InterruptedException {
+            String page = pages.poll(1, TimeUnit.SECONDS);
+            assertNotNull(page);
+            return page;
+        }
+
+        @Override
+        public void onPageLoaded(int start, int count, boolean complete) {
+            pages.add(start + "+" + count + (complete ? " complete" : ""));
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            pages.add(e.toString());
+        }
+    }
+
+    /**
+     * Backend that counts the listing and metadata requests passed on to another.
+     */
+    private static class CountingBackend implements StorageBackend {
+
+        final AtomicInteger lists = new AtomicInteger();
+        final AtomicInteger metadata = new AtomicInteger();
+        private final StorageBackend backend;
+
+        CountingBackend(StorageBackend backend) {
+            this.backend = backend;
+        }
+
+        @Override
+        public void putBytes(String name, byte[] bytes, UploadCallback callback) {
+            backend.putBytes(name, bytes, callback);
+        }
+
+        @Override
+        public void putFile(String name, File file, String sessionUri, UploadCallback callback) {
+            backend.putFile(name, file, sessionUri, callback);
+        }
+
+        @Override
+        public void list(String prefix, int maxResults, String pageToken, ListCallback callback) {
+            lists.incrementAndGet();
+            backend.list(prefix, maxResults, pageToken, callback);
+        }
+
+        @Override
+        public void getMetadata(String name, MetadataCallback callback) {
+            metadata.incrementAndGet();
+            backend.getMetadata(name, callback);
+        }
+
+        @Override
+        public void getBytes(String name, long maxBytes, DownloadCallback callback) {
+            backend.getBytes(name, maxBytes, callback);
+        }
+    }
+}
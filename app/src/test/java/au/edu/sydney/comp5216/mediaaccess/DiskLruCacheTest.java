@@ -0,0 +1,95 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the size bounded disk cache.
+ */
+public class DiskLruCacheTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("cache", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void put_thenGet_returnsFile() throws IOException {
+        DiskLruCache cache = new DiskLruCache(dir, 1000);
+        cache.put("1_100", new byte[10]);
+        File file = cache.get("1_100");
+        assertNotNull(file);
+        assertEquals(10, file.length());
+        assertNull(cache.get("2_100"));
+    }
+
+    @Test
+    public void overSize_evictsLeastRecentlyUsed() throws IOException {
+        DiskLruCache cache = new DiskLruCache(dir, 250);
+        cache.put("a", new byte[100]);
+        cache.put("b", new byte[100]);
+        cache.get("a");
+        cache.put("c", new byte[100]);
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(200, cache.getSize());
+        assertFalse(new File(dir, "b").exists());
+    }
+
+    @Test
+    public void replace_updatesSize() throws IOException {
+        DiskLruCache cache = new DiskLruCache(dir, 1000);
+        cache.put("a", new byte[100]);
+        cache.put("a", new byte[40]);
+        assertEquals(40, cache.getSize());
+        assertEquals(1, cache.getCount());
+    }
+
+    @Test
+    public void reopen_keepsEntries_andDropsTmpFiles() throws IOException {
+        DiskLruCache cache = new DiskLruCache(dir, 1000);
+        cache.put("a", new byte[100]);
+        cache.put("b", new byte[50]);
+        assertTrue(new File(dir, "c.tmp").createNewFile());
+
+        DiskLruCache reopened = new DiskLruCache(dir, 1000);
+        assertEquals(150, reopened.getSize());
+        assertEquals(2, reopened.getCount());
+        assertFalse(new File(dir, "c.tmp").exists());
+    }
+
+    @Test
+    public void remove_deletesFile() throws IOException {
+        DiskLruCache cache = new DiskLruCache(dir, 1000);
+        cache.put("a", new byte[100]);
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pathKey_isRejected() throws IOException {
+        new DiskLruCache(dir, 1000).put("../a", new byte[1]);
+    }
+}
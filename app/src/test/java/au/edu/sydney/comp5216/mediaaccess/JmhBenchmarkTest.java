@@ -0,0 +1,44 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the JMH benchmarks in PipelineBenchmark. They take several minutes, so they are skipped
+ * unless the build is run with -Pjmh, for example:
+ *
+ *   ./gradlew :app:testDebugUnitTest --tests '*JmhBenchmarkTest' -Pjmh
+ *
+ * Results are written to app/build/jmh/results.json, to compare one change with another.
+ */
+public class JmhBenchmarkTest {
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        Assume.assumeTrue(Boolean.getBoolean("jmh"));
+        File results = new File(System.getProperty("jmh.results", "build/jmh/results.json"));
+        results.getParentFile().mkdirs();
+        Options options = new OptionsBuilder()
+                .include(PipelineBenchmark.class.getName())
+                //The Gradle test worker's class path cannot be handed to a forked JVM
+                .forks(0)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .resultFormat(ResultFormatType.JSON)
+                .result(results.getPath())
+                .build();
+        assertFalse(new Runner(options).run().isEmpty());
+    }
+}
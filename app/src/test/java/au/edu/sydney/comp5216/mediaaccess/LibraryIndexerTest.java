@@ -0,0 +1,151 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for indexing the library in parallel.
+ */
+public class LibraryIndexerTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(8);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void results_keepTheOrderOfTheImages() {
+        LibraryIndexer indexer = new LibraryIndexer(pool, 4);
+        final AtomicInteger lastProgress = new AtomicInteger();
+        LibraryIndexer.Job<Long> job = indexer.start(items(1000), new LibraryIndexer.ItemTask<Long>() {
+            @Override
+            public Long index(MediaItem item, Semaphore io) {
+                return item.getId() * 2;
+            }
+        }, new LibraryIndexer.ProgressListener() {
+            @Override
+            public void onProgress(int done, int total) {
+                assertEquals(1000, total);
+                synchronized (lastProgress) {
+                    lastProgress.set(Math.max(lastProgress.get(), done));
+                }
+            }
+        });
+        List<Long> results = job.await();
+        assertEquals(1000, results.size());
+        for (int i = 0; i < results.size(); i++)
+            assertEquals(i * 2L, (long) results.get(i));
+        assertEquals(1000, job.getDone());
+        assertEquals(1000, lastProgress.get());
+    }
+
+    @Test
+    public void io_isBoundedByItsPermits() {
+        LibraryIndexer indexer = new LibraryIndexer(pool, 2);
+        final AtomicInteger reading = new AtomicInteger();
+        final AtomicInteger mostReading = new AtomicInteger();
+        indexer.start(items(200), new LibraryIndexer.ItemTask<Integer>() {
+            @Override
+            public Integer index(MediaItem item, Semaphore io) throws IOException {
+                io.acquireUninterruptibly();
+                try {
+                    int now = reading.incrementAndGet();
+                    synchronized (mostReading) {
+                        mostReading.set(Math.max(mostReading.get(), now));
+                    }
+                    Thread.sleep(1);
+                    reading.decrementAndGet();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } finally {
+                    io.release();
+                }
+                return 0;
+            }
+        }, null).await();
+        assertTrue(mostReading.get() <= 2);
+    }
+
+    @Test
+    public void failedImages_haveNullResults() {
+        LibraryIndexer indexer = new LibraryIndexer(pool, 4);
+        LibraryIndexer.Job<String> job = indexer.start(items(50), new LibraryIndexer.ItemTask<String>() {
+            @Override
+            public String index(MediaItem item, Semaphore io) throws IOException {
+                if (item.getId() % 10 == 3)
+                    throw new IOException("Unreadable " + item.getId());
+                return item.getPath();
+            }
+        }, null);
+        List<String> results = job.await();
+        assertNull(results.get(13));
+        assertEquals("/photo/14.jpg", results.get(14));
+        assertEquals(5, job.getFailed());
+        assertEquals(50, job.getDone());
+    }
+
+    @Test
+    public void imagesThatThrow_areCountedAsFailed() {
+        LibraryIndexer indexer = new LibraryIndexer(pool, 4);
+        LibraryIndexer.Job<String> job = indexer.start(items(50), new LibraryIndexer.ItemTask<String>() {
+            @Override
+            public String index(MediaItem item, Semaphore io) {
+                if (item.getId() % 10 == 7)
+                    throw new IllegalArgumentException("Bad header " + item.getId());
+                return item.getPath();
+            }
+        }, null);
+        List<String> results = job.await();
+        assertNull(results.get(17));
+        assertEquals("/photo/18.jpg", results.get(18));
+        assertEquals(5, job.getFailed());
+        assertEquals(50, job.getDone());
+    }
+
+    @Test
+    public void cancel_stopsStartingImages() {
+        LibraryIndexer indexer = new LibraryIndexer(pool, 4);
+        final AtomicInteger started = new AtomicInteger();
+        final LibraryIndexer.Job<?>[] running = new LibraryIndexer.Job<?>[1];
+        final Semaphore startedJob = new Semaphore(0);
+        LibraryIndexer.Job<Integer> job = indexer.start(items(5000), new LibraryIndexer.ItemTask<Integer>() {
+            @Override
+            public Integer index(MediaItem item, Semaphore io) {
+                startedJob.acquireUninterruptibly();
+                startedJob.release();
+                if (started.incrementAndGet() == 100)
+                    running[0].cancel();
+                return 0;
+            }
+        }, null);
+        running[0] = job;
+        startedJob.release();
+        try {
+            job.await();
+            fail("Cancelled job returned results");
+        } catch (CancellationException e) {
+            assertTrue(job.isCancelled());
+        }
+        assertTrue(started.get() < 5000);
+        assertEquals(started.get(), job.getDone());
+    }
+
+    private static List<MediaItem> items(int count) {
+        List<MediaItem> items = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            items.add(new MediaItem(i, "/photo/" + i + ".jpg", i, i));
+        return items;
+    }
+}
@@ -0,0 +1,99 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the thumbnail load queue, run with stand-in loads.
+ */
+public class LoadQueueTest {
+
+    private LoadQueue queue;
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() {
+        queue = new LoadQueue(1);
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    public void visibleLoads_runBeforePrefetches_inSubmissionOrder() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        queue.execute(blocker(started, release));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        CountDownLatch done = new CountDownLatch(4);
+        queue.execute(load("prefetch-1", 1, done));
+        queue.execute(load("visible-1", 0, done));
+        queue.execute(load("prefetch-2", 1, done));
+        queue.execute(load("visible-2", 0, done));
+        release.countDown();
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("visible-1", "visible-2", "prefetch-1", "prefetch-2"), ran);
+    }
+
+    @Test
+    public void removedLoads_doNotRun_andStartedOnesCannotBeRemoved() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        LoadQueue.Task running = blocker(started, release);
+        queue.execute(running);
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        CountDownLatch done = new CountDownLatch(1);
+        LoadQueue.Task cancelled = load("cancelled", 1, null);
+        queue.execute(cancelled);
+        queue.execute(load("kept", 1, done));
+        assertTrue(queue.remove(cancelled));
+        assertFalse(queue.remove(running));
+        release.countDown();
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("kept"), ran);
+    }
+
+    private LoadQueue.Task load(final String name, int priority, final CountDownLatch done) {
+        return new LoadQueue.Task(priority, new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+                if (done != null)
+                    done.countDown();
+            }
+        });
+    }
+
+    /**
+     * A load that holds the only worker until released.
+     */
+    private static LoadQueue.Task blocker(final CountDownLatch started, final CountDownLatch release) {
+        return new LoadQueue.Task(0, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,158 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for writing bundles of small images and reading single images back.
+ */
+public class MediaBundleTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("bundle", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Test
+    public void writeThenRead_extractsEachEntryByOffset() throws IOException {
+        byte[] a = randomBytes(1000, 1);
+        byte[] b = randomBytes(200000, 2);
+        byte[] c = new byte[0];
+        File bundle = new File(dir, "bundle");
+        MediaBundle.Writer writer = new MediaBundle.Writer(bundle);
+        MediaBundle.Entry entryA = writer.add("a", write("a.jpg", a));
+        MediaBundle.Entry entryB = writer.add("b", write("b.jpg", b));
+        writer.add("c", write("c.jpg", c));
+        assertEquals(8 + 1000 + 200000, writer.getSize());
+        writer.close();
+
+        assertEquals(8, entryA.getOffset());
+        assertEquals(8 + 1000, entryB.getOffset());
+
+        MediaBundle.Reader reader = new MediaBundle.Reader(bundle);
+        try {
+            assertEquals(3, reader.getEntries().size());
+            assertEquals("b", reader.getEntries().get(1).getName());
+            assertArrayEquals(b, reader.read("b"));
+            assertArrayEquals(a, reader.read("a"));
+            assertArrayEquals(c, reader.read("c"));
+            assertNull(reader.find("d"));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            reader.extract(reader.find("a"), out);
+            assertArrayEquals(a, out.toByteArray());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void duplicateName_isStoredOnce() throws IOException {
+        File photo = write("a.jpg", randomBytes(100, 3));
+        MediaBundle.Writer writer = new MediaBundle.Writer(new File(dir, "bundle"));
+        MediaBundle.Entry first = writer.add("a", photo);
+        assertSame(first, writer.add("a", photo));
+        assertEquals(1, writer.getEntries().size());
+        assertEquals(108, writer.getSize());
+        writer.close();
+    }
+
+    @Test
+    public void unreadableSource_leavesBundleUsable() throws IOException {
+        byte[] a = randomBytes(100, 4);
+        File bundle = new File(dir, "bundle");
+        MediaBundle.Writer writer = new MediaBundle.Writer(bundle);
+        try {
+            writer.add("missing", new File(dir, "missing.jpg"));
+            fail();
+        } catch (IOException expected) {
+        }
+        writer.add("a", write("a.jpg", a));
+        writer.close();
+
+        MediaBundle.Reader reader = new MediaBundle.Reader(bundle);
+        try {
+            assertEquals(1, reader.getEntries().size());
+            assertArrayEquals(a, reader.read("a"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedBundle_isRejected() throws IOException {
+        File bundle = new File(dir, "bundle");
+        MediaBundle.Writer writer = new MediaBundle.Writer(bundle);
+        writer.add("a", write("a.jpg", randomBytes(500, 5)));
+        writer.close();
+        RandomAccessFile file = new RandomAccessFile(bundle, "rw");
+        file.setLength(file.length() - 4);
+        file.close();
+        new MediaBundle.Reader(bundle);
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFile_isRejected() throws IOException {
+        new MediaBundle.Reader(write("a.jpg", randomBytes(500, 6)));
+    }
+
+    @Test
+    public void objectName_dependsOnlyOnEntryNames() {
+        List<MediaBundle.Entry> first = Arrays.asList(new MediaBundle.Entry("a", 8, 10),
+                new MediaBundle.Entry("b", 18, 10));
+        List<MediaBundle.Entry> same = Arrays.asList(new MediaBundle.Entry("a", 8, 1),
+                new MediaBundle.Entry("b", 9, 1));
+        List<MediaBundle.Entry> other = Arrays.asList(new MediaBundle.Entry("b", 8, 10),
+                new MediaBundle.Entry("a", 18, 10));
+        assertEquals(MediaBundle.objectName(first), MediaBundle.objectName(same));
+        assertNotEquals(MediaBundle.objectName(first), MediaBundle.objectName(other));
+        assertTrue(MediaBundle.isBundle(MediaBundle.objectName(first)));
+        assertFalse(MediaBundle.isBundle(UploadManifest.objectName("a")));
+    }
+
+    @Test
+    public void recordBundle_recordsEveryEntryAndDeletesBundle() throws IOException {
+        File bundle = new File(dir, "bundle");
+        MediaBundle.Writer writer = new MediaBundle.Writer(bundle);
+        writer.add("hash1", write("a.jpg", randomBytes(10, 7)));
+        writer.add("hash2", write("b.jpg", randomBytes(10, 8)));
+        writer.close();
+        UploadManifest manifest = UploadManifest.open(new File(dir, UploadManifest.FILE_NAME));
+        UploadScheduler.recordBundle(manifest, bundle);
+        assertTrue(manifest.containsHash("hash1"));
+        assertTrue(manifest.containsHash("hash2"));
+        assertFalse(bundle.exists());
+    }
+
+    private File write(String name, byte[] bytes) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,93 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the media index.
+ */
+public class MediaIndexTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("index", ".tsv");
+        file.delete();
+        file.deleteOnExit();
+    }
+
+    @Test
+    public void update_advancesWatermark_andOrdersNewestFirst() {
+        MediaIndex index = new MediaIndex(file);
+        index.update(Arrays.asList(
+                new MediaItem(1, "/a.jpg", 100, 1000),
+                new MediaItem(2, "/b.jpg", 300, 3000),
+                new MediaItem(3, "/c.jpg", 200, 2000)));
+
+        assertEquals(300, index.getWatermark());
+        List<MediaItem> items = index.getItems();
+        assertEquals(2, items.get(0).getId());
+        assertEquals(3, items.get(1).getId());
+        assertEquals(1, items.get(2).getId());
+    }
+
+    @Test
+    public void changedAndDeletedRows_areApplied() {
+        MediaIndex index = new MediaIndex(file);
+        index.update(Arrays.asList(new MediaItem(1, "/a.jpg", 100, 1000),
+                new MediaItem(2, "/b.jpg", 100, 2000)));
+        index.update(Arrays.asList(new MediaItem(1, "/a2.jpg", 150, 1000)));
+        index.retain(Arrays.asList(1L));
+
+        assertEquals(1, index.size());
+        assertEquals("/a2.jpg", index.getItems().get(0).getPath());
+        assertEquals(150, index.getWatermark());
+    }
+
+    @Test
+    public void rowsAddedBelowWatermark_areFoundFromIds() {
+        MediaIndex index = new MediaIndex(file);
+        index.update(Arrays.asList(new MediaItem(1, "/a.jpg", 100, 1000),
+                new MediaItem(2, "/b.jpg", 300, 3000)));
+
+        //Row 2 deleted and row 3 restored with an older modification time
+        List<Long> ids = Arrays.asList(1L, 3L);
+        index.retain(ids);
+        List<Long> missing = index.missing(ids);
+        assertEquals(Arrays.asList(3L), missing);
+
+        index.update(Arrays.asList(new MediaItem(3, "/c.jpg", 50, 500)));
+        assertEquals(2, index.size());
+        assertTrue(index.missing(ids).isEmpty());
+        assertEquals(3, index.getItems().get(1).getId());
+        assertEquals(300, index.getWatermark());
+    }
+
+    @Test
+    public void index_survivesReload_untilVersionChanges() {
+        MediaIndex index = new MediaIndex(file);
+        index.checkVersion("v1");
+        index.update(Arrays.asList(new MediaItem(5, "/dir/with space.jpg", 42, 7)));
+        index.save();
+
+        MediaIndex reloaded = new MediaIndex(file);
+        reloaded.load();
+        assertEquals(1, reloaded.size());
+        assertEquals("/dir/with space.jpg", reloaded.getItems().get(0).getPath());
+        assertEquals(42, reloaded.getWatermark());
+
+        reloaded.checkVersion("v1");
+        assertEquals(1, reloaded.size());
+        reloaded.checkVersion("v2");
+        assertEquals(0, reloaded.size());
+        assertEquals(0, reloaded.getWatermark());
+    }
+}
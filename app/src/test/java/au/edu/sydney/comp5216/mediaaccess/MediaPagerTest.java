@@ -0,0 +1,307 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the gallery pager, using an in-memory library in place of the MediaStore.
+ */
+public class MediaPagerTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Library of images numbered newest first, recording how each page was asked for.
+     */
+    private static class FakeLoader implements MediaPager.PageLoader {
+        final List<MediaItem> library = new ArrayList<>();
+        int keysetLoads;
+        int offsetLoads;
+        int itemLoads;
+
+        FakeLoader(int size) {
+            this(size, 0);
+        }
+
+        /**
+         * A library whose oldest undated images have no DATE_TAKEN, which reads as 0.
+         */
+        FakeLoader(int size, int undated) {
+            for (int i = 0; i < size; i++) {
+                long taken = i < size - undated ? 1000000L - i : 0;
+                library.add(new MediaItem(size - i, "/img" + i + ".jpg", 1, taken));
+            }
+        }
+
+        @Override
+        public int count() {
+            return library.size();
+        }
+
+        @Override
+        public List<MediaItem> loadPage(MediaItem after, int offset, int limit) {
+            int start = offset;
+            //As the MediaStore loader, which cannot key on a missing DATE_TAKEN
+            if (after != null && after.getDateTaken() != 0) {
+                keysetLoads++;
+                start = library.indexOf(after) + 1;
+            } else {
+                offsetLoads++;
+            }
+            return new ArrayList<>(library.subList(Math.min(start, library.size()),
+                    Math.min(start + limit, library.size())));
+        }
+
+        @Override
+        public List<MediaItem> loadItems(long[] ids) {
+            itemLoads++;
+            List<MediaItem> items = new ArrayList<>();
+            for (MediaItem item : library) {
+                for (long id : ids) {
+                    if (item.getId() == id)
+                        items.add(item);
+                }
+            }
+            return items;
+        }
+    }
+
+    private static class RecordingListener implements MediaPager.Listener {
+        int count = -1;
+        final List<Integer> starts = new ArrayList<>();
+        int windowStart = -1;
+        List<MediaItem> before;
+        List<MediaItem> after;
+        int oldCount;
+        int newCount;
+
+        @Override
+        public void onCountChanged(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void onPageLoaded(int start, int count) {
+            starts.add(start);
+        }
+
+        @Override
+        public void onWindowChanged(int start, List<MediaItem> before, List<MediaItem> after,
+                                    int oldCount, int newCount) {
+            this.windowStart = start;
+            this.before = before;
+            this.after = after;
+            this.oldCount = oldCount;
+            this.newCount = newCount;
+        }
+    }
+
+    @Test
+    public void refresh_loadsCountAndFirstPage() {
+        FakeLoader loader = new FakeLoader(1000);
+        MediaPager pager = new MediaPager(loader, 10, 3, DIRECT, DIRECT);
+        RecordingListener listener = new RecordingListener();
+        pager.setListener(listener);
+        pager.refresh();
+
+        assertEquals(1000, listener.count);
+        assertEquals(1000, pager.getCount());
+        assertEquals(1, pager.getLoadedPageCount());
+        assertEquals("/img0.jpg", pager.getItem(0).getPath());
+    }
+
+    @Test
+    public void sequentialPages_areLoadedByKeyset() {
+        FakeLoader loader = new FakeLoader(100);
+        MediaPager pager = new MediaPager(loader, 10, 3, DIRECT, DIRECT);
+        pager.refresh();
+        for (int i = 0; i < 100; i++) {
+            MediaItem item = pager.getItem(i);
+            assertNotNull(item);
+            assertEquals("/img" + i + ".jpg", item.getPath());
+        }
+        assertEquals(1, loader.offsetLoads);
+        assertEquals(9, loader.keysetLoads);
+    }
+
+    @Test
+    public void pagesAfterUndatedImage_areLoadedByOffset() {
+        FakeLoader loader = new FakeLoader(30, 15);
+        MediaPager pager = new MediaPager(loader, 10, 3, DIRECT, DIRECT);
+        pager.refresh();
+        for (int i = 0; i < 30; i++)
+            assertEquals("/img" + i + ".jpg", pager.getItem(i).getPath());
+        assertEquals(1, loader.keysetLoads);
+        assertEquals(2, loader.offsetLoads);
+    }
+
+    @Test
+    public void jumpAhead_loadsByOffset_andTellsListener() {
+        FakeLoader loader = new FakeLoader(1000);
+        MediaPager pager = new MediaPager(loader, 10, 3, DIRECT, DIRECT);
+        RecordingListener listener = new RecordingListener();
+        pager.setListener(listener);
+        pager.refresh();
+
+        assertEquals("/img500.jpg", pager.getItem(500).getPath());
+        assertEquals(2, loader.offsetLoads);
+        assertTrue(listener.starts.contains(500));
+    }
+
+    @Test
+    public void onlyMaxPages_areHeld() {
+        FakeLoader loader = new FakeLoader(1000);
+        MediaPager pager = new MediaPager(loader, 10, 3, DIRECT, DIRECT);
+        pager.refresh();
+        for (int i = 0; i < 1000; i++)
+            pager.getItem(i);
+        assertEquals(3, pager.getLoadedPageCount());
+    }
+
+    @Test
+    public void pendingPage_returnsNullUntilDelivered() {
+        final List<Runnable> queued = new ArrayList<>();
+        Executor queue = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        };
+        FakeLoader loader = new FakeLoader(100);
+        MediaPager pager = new MediaPager(loader, 10, 3, DIRECT, queue);
+        pager.refresh();
+        queued.remove(0).run();
+
+        assertNull(pager.getItem(20));
+        assertNull(pager.getItem(20));
+        assertEquals(1, queued.size());
+        queued.remove(0).run();
+        assertEquals("/img20.jpg", pager.getItem(20).getPath());
+    }
+
+    @Test
+    public void staleDelivery_afterRefresh_isIgnored() {
+        final List<Runnable> queued = new ArrayList<>();
+        Executor queue = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        };
+        FakeLoader loader = new FakeLoader(100);
+        MediaPager pager = new MediaPager(loader, 10, 3, DIRECT, queue);
+        pager.refresh();
+        queued.remove(0).run();
+        pager.getItem(30);
+        Runnable stale = queued.remove(0);
+
+        loader.library.subList(50, 100).clear();
+        pager.refresh();
+        stale.run();
+        assertEquals(0, pager.getLoadedPageCount());
+        queued.remove(0).run();
+        assertEquals(50, pager.getCount());
+    }
+
+    @Test
+    public void reload_afterInsert_reportsWindowBeforeAndAfter() {
+        FakeLoader loader = new FakeLoader(100);
+        MediaPager pager = new MediaPager(loader, 10, 3, DIRECT, DIRECT);
+        RecordingListener listener = new RecordingListener();
+        pager.setListener(listener);
+        pager.refresh();
+        pager.getItem(12);
+
+        MediaItem added = new MediaItem(1000, "/new.jpg", 2, 2000000L);
+        loader.library.add(0, added);
+        pager.reload();
+
+        assertEquals(0, listener.windowStart);
+        assertEquals(20, listener.before.size());
+        assertEquals(20, listener.after.size());
+        assertSame(added, listener.after.get(0));
+        assertEquals("/img0.jpg", listener.before.get(0).getPath());
+        assertEquals(100, listener.oldCount);
+        assertEquals(101, listener.newCount);
+        assertEquals(101, pager.getCount());
+        assertSame(added, pager.getItem(0));
+        assertEquals("/img9.jpg", pager.getItem(10).getPath());
+    }
+
+    @Test
+    public void reload_withNothingLoaded_refreshes() {
+        FakeLoader loader = new FakeLoader(30);
+        MediaPager pager = new MediaPager(loader, 10, 3, DIRECT, DIRECT);
+        RecordingListener listener = new RecordingListener();
+        pager.setListener(listener);
+        pager.reload();
+        assertEquals(30, listener.count);
+        assertEquals(-1, listener.windowStart);
+    }
+
+    @Test
+    public void insertNewest_addsOnlyTheNewRows() {
+        FakeLoader loader = new FakeLoader(100);
+        MediaPager pager = new MediaPager(loader, 10, 3, DIRECT, DIRECT);
+        RecordingListener listener = new RecordingListener();
+        pager.setListener(listener);
+        pager.refresh();
+        pager.getItem(12);
+        int pageLoads = loader.offsetLoads + loader.keysetLoads;
+
+        MediaItem first = new MediaItem(1000, "/new0.jpg", 2, 2000000L);
+        MediaItem second = new MediaItem(1001, "/new1.jpg", 2, 2000001L);
+        loader.library.add(0, second);
+        loader.library.add(1, first);
+        pager.insertNewest(new long[] {1000, 1001});
+
+        assertEquals(1, loader.itemLoads);
+        assertEquals(pageLoads, loader.offsetLoads + loader.keysetLoads);
+        assertEquals(0, listener.windowStart);
+        assertEquals(20, listener.after.size());
+        assertSame(second, listener.after.get(0));
+        assertSame(first, listener.after.get(1));
+        assertEquals(102, listener.newCount);
+        assertEquals(102, pager.getCount());
+        assertEquals("/img8.jpg", pager.getItem(10).getPath());
+        //The page pushed out of the window is read again, by keyset
+        assertEquals("/img18.jpg", pager.getItem(20).getPath());
+    }
+
+    @Test
+    public void insertNewest_alreadyHeld_changesNothing() {
+        FakeLoader loader = new FakeLoader(30);
+        MediaPager pager = new MediaPager(loader, 10, 3, DIRECT, DIRECT);
+        RecordingListener listener = new RecordingListener();
+        pager.setListener(listener);
+        loader.library.add(0, new MediaItem(1000, "/new.jpg", 2, 2000000L));
+        pager.refresh();
+        pager.insertNewest(new long[] {1000});
+        assertEquals(-1, listener.windowStart);
+        assertEquals(31, pager.getCount());
+    }
+
+    @Test
+    public void insertNewest_withOtherChanges_reloads() {
+        FakeLoader loader = new FakeLoader(30);
+        MediaPager pager = new MediaPager(loader, 10, 3, DIRECT, DIRECT);
+        RecordingListener listener = new RecordingListener();
+        pager.setListener(listener);
+        pager.refresh();
+        loader.library.add(0, new MediaItem(1000, "/new.jpg", 2, 2000000L));
+        loader.library.add(0, new MediaItem(1001, "/other.jpg", 2, 2000001L));
+        pager.insertNewest(new long[] {1000});
+        assertEquals(32, listener.newCount);
+        assertEquals("/other.jpg", pager.getItem(0).getPath());
+    }
+}
@@ -0,0 +1,99 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for trimming the tracked caches and pools in tiers.
+ */
+public class MemoryManagerTest {
+
+    @Test
+    public void moderatePressure_trimsOnlyPools() {
+        MemoryManager manager = new MemoryManager();
+        BufferPool pool = filledPool();
+        FakeCache thumbnails = new FakeCache(10000);
+        manager.register("buffers", MemoryManager.PRIORITY_POOL, pool);
+        manager.register("thumbnails", MemoryManager.PRIORITY_CACHE, thumbnails);
+
+        manager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertTrue(pool.getResidentBytes() <= 8192 * 4 / 2);
+        assertEquals(10000, thumbnails.getResidentBytes());
+        assertEquals(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE, manager.getLastLevel());
+    }
+
+    @Test
+    public void hiddenUi_emptiesPools_andHalvesCaches() {
+        MemoryManager manager = new MemoryManager();
+        BufferPool pool = filledPool();
+        FakeCache thumbnails = new FakeCache(10000);
+        manager.register("buffers", MemoryManager.PRIORITY_POOL, pool);
+        manager.register("thumbnails", MemoryManager.PRIORITY_CACHE, thumbnails);
+
+        manager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(0, pool.getResidentBytes());
+        assertEquals(5000, thumbnails.getResidentBytes());
+    }
+
+    @Test
+    public void background_andLowMemory_releaseEverything() {
+        MemoryManager manager = new MemoryManager();
+        FakeCache thumbnails = new FakeCache(10000);
+        manager.register("thumbnails", MemoryManager.PRIORITY_CACHE, thumbnails);
+        manager.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertEquals(0, manager.getTotalResidentBytes());
+
+        thumbnails.resident = 10000;
+        manager.onLowMemory();
+        assertEquals(0, thumbnails.getResidentBytes());
+        assertEquals(ComponentCallbacks2.TRIM_MEMORY_COMPLETE, manager.getLastLevel());
+    }
+
+    @Test
+    public void residentBytes_areReportedPerCache() {
+        MemoryManager manager = new MemoryManager();
+        manager.register("buffers", MemoryManager.PRIORITY_POOL, filledPool());
+        manager.register("thumbnails", MemoryManager.PRIORITY_CACHE, new FakeCache(100));
+        Map<String, Long> resident = manager.getResidentBytes();
+        assertEquals(32768L, (long) resident.get("buffers"));
+        assertEquals(100L, (long) resident.get("thumbnails"));
+        assertEquals(32868, manager.getTotalResidentBytes());
+        assertEquals("buffers=32768 thumbnails=100", manager.report());
+
+        manager.unregister("buffers");
+        assertEquals("thumbnails=100", manager.report());
+    }
+
+    private static BufferPool filledPool() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        for (int i = 0; i < 4; i++)
+            pool.release(new byte[8192]);
+        return pool;
+    }
+
+    /**
+     * Cache that holds a number of bytes, trimmed exactly.
+     */
+    private static class FakeCache implements MemoryManager.Trimmable {
+        long resident;
+
+        FakeCache(long resident) {
+            this.resident = resident;
+        }
+
+        @Override
+        public long getResidentBytes() {
+            return resident;
+        }
+
+        @Override
+        public void trimTo(long bytes) {
+            resident = Math.min(resident, bytes);
+        }
+    }
+}
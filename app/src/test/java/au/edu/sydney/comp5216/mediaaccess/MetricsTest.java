@@ -0,0 +1,208 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the metrics registry and its histograms.
+ */
+public class MetricsTest {
+
+    @Test
+    public void histogram_exactForSmallValues() {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 7; i++)
+            h.record(i);
+        assertEquals(7, h.getCount());
+        assertEquals(28, h.getTotal());
+        assertEquals(1, h.getMin());
+        assertEquals(7, h.getMax());
+        assertEquals(4, h.getPercentile(0.5));
+        assertEquals(7, h.getPercentile(1));
+        assertEquals(4.0, h.getMean(), 1e-9);
+    }
+
+    @Test
+    public void histogram_percentilesWithinBucketError() {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 10000; i++)
+            h.record(i * 1000L);
+        assertEquals(1000, h.getMin());
+        assertEquals(10000000, h.getMax());
+        long p50 = h.getPercentile(0.5);
+        long p99 = h.getPercentile(0.99);
+        assertTrue(p50 >= 5000000 && p50 <= 5000000 * 1.125);
+        assertTrue(p99 >= 9900000 && p99 <= 10000000);
+    }
+
+    @Test
+    public void histogram_bucketsCoverEveryValue() {
+        long[] values = {0, 7, 8, 15, 16, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue(Histogram.upperBound(bucket) >= value);
+            if (bucket > 0)
+                assertTrue(Histogram.upperBound(bucket - 1) < value);
+        }
+    }
+
+    @Test
+    public void histogram_addAndClear() {
+        Histogram a = new Histogram();
+        Histogram b = new Histogram();
+        a.record(10);
+        b.record(2);
+        b.record(30);
+        a.add(b);
+        assertEquals(3, a.getCount());
+        assertEquals(2, a.getMin());
+        assertEquals(30, a.getMax());
+        a.clear();
+        assertEquals(0, a.getCount());
+        assertEquals(0, a.getMin());
+        assertEquals(0, a.getPercentile(0.5));
+    }
+
+    @Test
+    public void timer_recordsStageAndBalancesTraceSections() {
+        RecordingTracer tracer = new RecordingTracer();
+        Metrics metrics = new Metrics(tracer);
+        Metrics.Timer timer = metrics.start(Metrics.CAPTURE_SAVE);
+        timer.stop(1000);
+        //A second stop, or a fail in a finally block, records nothing more
+        timer.stop(1000);
+        timer.fail();
+        assertEquals(1, metrics.getCount(Metrics.CAPTURE_SAVE));
+        assertEquals(1000, metrics.getBytes(Metrics.CAPTURE_SAVE).getTotal());
+        assertEquals(1, metrics.getLatency(Metrics.CAPTURE_SAVE).getCount());
+        assertEquals(Arrays.asList("begin capture.save", "end"), tracer.calls);
+    }
+
+    @Test
+    public void asyncTimer_usesAsyncSections() {
+        RecordingTracer tracer = new RecordingTracer();
+        Metrics metrics = new Metrics(tracer);
+        Metrics.Timer first = metrics.startAsync(Metrics.UPLOAD_PUT_FILE);
+        Metrics.Timer second = metrics.startAsync(Metrics.UPLOAD_PUT_FILE);
+        second.fail();
+        first.stop(10);
+        assertEquals(Arrays.asList("beginAsync upload.putFile 0", "beginAsync upload.putFile 1",
+                "endAsync upload.putFile 1", "endAsync upload.putFile 0"), tracer.calls);
+        assertEquals(2, metrics.getCount(Metrics.UPLOAD_PUT_FILE));
+        assertEquals(1, metrics.getLatency(Metrics.UPLOAD_PUT_FILE).getCount());
+    }
+
+    @Test
+    public void writeJson_summarisesEachStage() throws IOException {
+        Metrics metrics = new Metrics(null);
+        metrics.record(Metrics.GALLERY_QUERY, 2000000, -1);
+        metrics.record(Metrics.UPLOAD_PUT_BYTES, 500000000, 1000000);
+        metrics.recordFailure(Metrics.UPLOAD_PUT_BYTES);
+        StringWriter out = new StringWriter();
+        metrics.writeJson(out, "1.0 \"test\"", 42);
+        String json = out.toString();
+        assertTrue(json.contains("\"label\": \"1.0 \\\"test\\\"\""));
+        assertTrue(json.contains("\"time\": 42"));
+        assertTrue(json.contains("\"gallery.query\": {\"count\": 1, \"failures\": 0, \"ms\": {\"total\": 2.000"));
+        assertTrue(json.contains("\"upload.putBytes\": {\"count\": 2, \"failures\": 1"));
+        assertTrue(json.contains("\"bytesPerSecond\": 2000000.000"));
+        assertTrue(json.indexOf("gallery.query") < json.indexOf("upload.putBytes"));
+    }
+
+    @Test
+    public void dump_replacesFile() throws IOException {
+        File file = File.createTempFile("metrics", ".json");
+        Metrics metrics = new Metrics(null);
+        metrics.record(Metrics.CAPTURE_DECODE, 1, 1);
+        metrics.dump(file, "a");
+        metrics.reset();
+        metrics.dump(file, "b");
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertTrue(file.length() > 0);
+        assertTrue(metrics.getStages().isEmpty());
+        file.delete();
+    }
+
+    @Test
+    public void measuredBackend_recordsUploads() {
+        Metrics metrics = new Metrics(null);
+        final List<String> outcomes = new ArrayList<>();
+        StorageBackend backend = new StorageBackend() {
+            @Override
+            public void putBytes(String name, byte[] bytes, UploadCallback callback) {
+                callback.onSuccess();
+            }
+
+            @Override
+            public void putFile(String name, File file, String sessionUri, UploadCallback callback) {
+                callback.onFailure(new IOException("offline"));
+            }
+
+            @Override
+            public void list(String prefix, int maxResults, String pageToken, ListCallback callback) {
+            }
+
+            @Override
+            public void getMetadata(String name, MetadataCallback callback) {
+            }
+
+            @Override
+            public void getBytes(String name, long maxBytes, DownloadCallback callback) {
+            }
+        };
+        StorageBackend.UploadCallback callback = new StorageBackend.UploadCallback() {
+            @Override
+            public void onProgress(long bytesTransferred, long totalBytes, String sessionUri) {
+            }
+
+            @Override
+            public void onSuccess() {
+                outcomes.add("success");
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                outcomes.add(e.getMessage());
+            }
+        };
+        StorageBackend measured = new MeasuredStorageBackend(backend, metrics);
+        measured.putBytes("a", new byte[64], callback);
+        measured.putFile("b", new File("missing"), null, callback);
+        assertEquals(Arrays.asList("success", "offline"), outcomes);
+        assertEquals(64, metrics.getBytes(Metrics.UPLOAD_PUT_BYTES).getTotal());
+        assertEquals(1, metrics.getCount(Metrics.UPLOAD_PUT_FILE));
+        assertEquals(0, metrics.getLatency(Metrics.UPLOAD_PUT_FILE).getCount());
+    }
+
+    private static class RecordingTracer implements Metrics.Tracer {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void beginSection(String name) {
+            calls.add("begin " + name);
+        }
+
+        @Override
+        public void endSection() {
+            calls.add("end");
+        }
+
+        @Override
+        public void beginAsyncSection(String name, int cookie) {
+            calls.add("beginAsync " + name + " " + cookie);
+        }
+
+        @Override
+        public void endAsyncSection(String name, int cookie) {
+            calls.add("endAsync " + name + " " + cookie);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for perceptual hashing and for finding near-duplicates in a BK-tree.
+ */
+public class PerceptualHashTest {
+
+    @Test
+    public void dHash_isStable_underResizeAndSmallChanges() {
+        int[] image = gradientImage(64, 48, 1);
+        long hash = PerceptualHash.dHash(image, 64, 48);
+
+        //The same picture at half the size
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(gradientImage(32, 24, 1), 32, 24)) <= 2);
+
+        //Brighter, with a little noise, as the next frame of a burst might be
+        int[] changed = image.clone();
+        Random random = new Random(1);
+        for (int i = 0; i < changed.length; i++) {
+            int value = Math.min(255, (changed[i] & 0xff) + 10 + random.nextInt(3));
+            changed[i] = gray(value);
+        }
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(changed, 64, 48)) <= 4);
+    }
+
+    @Test
+    public void dHash_differs_forDifferentImages() {
+        long a = PerceptualHash.dHash(gradientImage(64, 48, 1), 64, 48);
+        long b = PerceptualHash.dHash(gradientImage(64, 48, 7), 64, 48);
+        assertTrue(PerceptualHash.distance(a, b) > 10);
+    }
+
+    @Test
+    public void dHash_acceptsImagesSmallerThanTheGrid() {
+        int[] image = {gray(0), gray(100), gray(200), gray(50)};
+        PerceptualHash.dHash(image, 2, 2);
+    }
+
+    @Test
+    public void bkTree_findsTheSameMatchesAsAScan_nearestFirst() {
+        Random random = new Random(42);
+        BkTree<Integer> tree = new BkTree<>();
+        long[] hashes = new long[2000];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = random.nextLong();
+            tree.add(hashes[i], i);
+        }
+        //A near copy of one of them
+        tree.add(hashes[5] ^ 0x11, -1);
+        assertEquals(2001, tree.size());
+
+        for (int query = 0; query < 20; query++) {
+            long hash = hashes[query] ^ (1L << query);
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < hashes.length; i++) {
+                if (PerceptualHash.distance(hash, hashes[i]) <= 6)
+                    expected.add(i);
+            }
+            if (query == 5)
+                expected.add(-1);
+            List<Integer> found = new ArrayList<>();
+            int last = 0;
+            for (BkTree.Match<Integer> match : tree.search(hash, 6)) {
+                assertTrue(match.getDistance() >= last);
+                last = match.getDistance();
+                found.add(match.getValue());
+            }
+            Collections.sort(expected);
+            Collections.sort(found);
+            assertEquals(expected, found);
+        }
+    }
+
+    @Test
+    public void bkTree_keepsValuesWithEqualHashes() {
+        BkTree<String> tree = new BkTree<>();
+        assertTrue(tree.search(0, 64).isEmpty());
+        tree.add(0xff, "a");
+        tree.add(0xff, "b");
+        tree.add(0x0f, "c");
+        List<BkTree.Match<String>> matches = tree.search(0xff, 0);
+        assertEquals(2, matches.size());
+        assertEquals(4, tree.search(0xff, 4).get(2).getDistance());
+    }
+
+    @Test
+    public void index_survivesRestart_andBuildsTreeOfGivenImages() throws IOException {
+        File file = File.createTempFile("phash", ".tsv");
+        file.delete();
+        PerceptualHashIndex index = new PerceptualHashIndex(file);
+        index.put("aaa", 0x8000000000000001L);
+        index.put("bbb", 0x8000000000000003L);
+        index.put("ccc", 0x7fffffffffffffffL);
+        index.save();
+
+        PerceptualHashIndex restored = new PerceptualHashIndex(file);
+        restored.load();
+        assertEquals(3, restored.size());
+        assertEquals(0x8000000000000001L, (long) restored.get("aaa"));
+        assertNull(restored.get("ddd"));
+
+        BkTree<String> tree = restored.treeOf(Arrays.asList("aaa", "ccc", "ddd"));
+        assertEquals(2, tree.size());
+        List<BkTree.Match<String>> matches = tree.search(0x8000000000000003L, 2);
+        assertEquals(1, matches.size());
+        assertEquals("aaa", matches.get(0).getValue());
+        file.delete();
+    }
+
+    /**
+     * A gray image of a few overlapping waves, which the seed varies.
+     */
+    private static int[] gradientImage(int width, int height, int seed) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double u = (double) x / width;
+                double v = (double) y / height;
+                double value = Math.sin(u * seed * 3 + v * 5) + Math.cos(v * seed * 2 - u * 4);
+                pixels[y * width + x] = gray((int) (64 + value * 48));
+            }
+        }
+        return pixels;
+    }
+
+    private static int gray(int value) {
+        return 0xff000000 | (value << 16) | (value << 8) | value;
+    }
+}
@@ -0,0 +1,91 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the per-photo work of a synchronisation, run with a stand-in decoder.
+ */
+public class PhotoHasherTest {
+
+    private File dir;
+    private UploadManifest manifest;
+    private PerceptualHashIndex index;
+    private final Semaphore io = new Semaphore(1);
+    private final AtomicInteger decoded = new AtomicInteger();
+    private PhotoHasher hasher;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("hasher", "");
+        dir.delete();
+        dir.mkdirs();
+        manifest = UploadManifest.open(new File(dir, "manifest"));
+        index = new PerceptualHashIndex(new File(dir, "index"));
+        hasher = new PhotoHasher(manifest, index, new BufferPool(1024 * 1024),
+                new PhotoHasher.Decoder() {
+                    @Override
+                    public Long perceptualHash(byte[] data, int length) {
+                        //Decoding runs after the photo is read, without the permit
+                        assertEquals(1, io.availablePermits());
+                        decoded.incrementAndGet();
+                        return (long) length;
+                    }
+                });
+    }
+
+    @Test
+    public void newPhoto_isHashed_andIndexedOnce() throws IOException {
+        byte[] bytes = write("a.jpg", 5000);
+        MediaItem item = new MediaItem(1, new File(dir, "a.jpg").getPath(), 1, 1);
+
+        String hash = hasher.index(item, io);
+        assertEquals(ContentHasher.sha256(bytes), hash);
+        assertEquals(Long.valueOf(5000), index.get(hash));
+        assertEquals(1, io.availablePermits());
+
+        assertEquals(hash, hasher.index(item, io));
+        assertEquals(1, decoded.get());
+    }
+
+    @Test
+    public void uploadedContent_isNotDecoded() throws IOException {
+        byte[] bytes = write("b.jpg", 3000);
+        manifest.recordHash(ContentHasher.sha256(bytes));
+
+        String hash = hasher.index(new MediaItem(2, new File(dir, "b.jpg").getPath(), 1, 1), io);
+        assertEquals(ContentHasher.sha256(bytes), hash);
+        assertEquals(0, decoded.get());
+        assertNull(index.get(hash));
+    }
+
+    @Test(expected = IOException.class)
+    public void missingFile_fails_andReleasesThePermit() throws IOException {
+        try {
+            hasher.index(new MediaItem(3, new File(dir, "missing.jpg").getPath(), 1, 1), io);
+        } finally {
+            assertEquals(1, io.availablePermits());
+        }
+    }
+
+    private byte[] write(String name, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        FileOutputStream out = new FileOutputStream(new File(dir, name));
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        return bytes;
+    }
+}
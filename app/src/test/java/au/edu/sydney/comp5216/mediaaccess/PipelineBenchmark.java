@@ -0,0 +1,329 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the pure Java parts of the image pipeline: hashing, buffer handling,
+ * YUV conversion, manifest lookups, near-duplicate lookups, library indexing and metrics
+ * recording.
+ * Run them with JmhBenchmarkTest.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PipelineBenchmark {
+
+    /**
+     * A photo sized block of random bytes.
+     */
+    @State(Scope.Thread)
+    public static class Photo {
+        @Param({"262144", "1048576"})
+        public int size;
+
+        public byte[] bytes;
+
+        @Setup
+        public void setUp() {
+            bytes = new byte[size];
+            new Random(size).nextBytes(bytes);
+        }
+    }
+
+    @Benchmark
+    public String sha256(Photo photo) {
+        return ContentHasher.sha256(photo.bytes);
+    }
+
+    @Benchmark
+    public byte[] allocateBuffer(Photo photo) {
+        byte[] buffer = new byte[photo.size];
+        System.arraycopy(photo.bytes, 0, buffer, 0, photo.size);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] pooledBuffer(Photo photo, Pool pool) {
+        byte[] buffer = pool.pool.acquire(photo.size);
+        System.arraycopy(photo.bytes, 0, buffer, 0, photo.size);
+        pool.pool.release(buffer);
+        return buffer;
+    }
+
+    @State(Scope.Thread)
+    public static class Pool {
+        public final BufferPool pool = new BufferPool(BufferPool.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * A synthetic YUV_420_888 frame with padded rows and interleaved chroma, as most
+     * camera devices give it.
+     */
+    @State(Scope.Thread)
+    public static class Frame {
+        @Param({"1280x960", "1920x1080", "3264x2448"})
+        public String size;
+
+        public int width;
+        public int height;
+        public int yRowStride;
+        public int uvRowStride;
+        public ByteBuffer y;
+        public ByteBuffer u;
+        public ByteBuffer v;
+        public byte[] out;
+
+        @Setup
+        public void setUp() {
+            String[] dimensions = size.split("x");
+            width = Integer.parseInt(dimensions[0]);
+            height = Integer.parseInt(dimensions[1]);
+            yRowStride = width + 64;
+            uvRowStride = yRowStride;
+            Random random = new Random(width);
+            byte[] luma = new byte[yRowStride * height];
+            random.nextBytes(luma);
+            y = ByteBuffer.allocateDirect(luma.length);
+            y.put(luma).clear();
+            byte[] chroma = new byte[uvRowStride * (height / 2)];
+            random.nextBytes(chroma);
+            ByteBuffer uv = ByteBuffer.allocateDirect(chroma.length);
+            uv.put(chroma).clear();
+            u = uv.duplicate();
+            uv.position(1);
+            v = uv.slice();
+            out = new byte[YuvTransform.nv21Size(height, width)];
+        }
+    }
+
+    @Benchmark
+    public byte[] yuvRotateMirror(Frame frame) {
+        YuvTransform.toNv21(frame.y, frame.yRowStride, 1, frame.u, frame.v, frame.uvRowStride, 2,
+                frame.width, frame.height, 90, true, frame.out);
+        return frame.out;
+    }
+
+    /**
+     * A manifest of previously uploaded hashes.
+     */
+    @State(Scope.Benchmark)
+    public static class Manifest {
+        @Param({"1000", "20000"})
+        public int entries;
+
+        public UploadManifest manifest;
+        public String[] hashes;
+        private File file;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            file = File.createTempFile("manifest", ".tsv");
+            file.delete();
+            manifest = UploadManifest.open(file);
+            hashes = new String[entries * 2];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = ContentHasher.sha256(Integer.toString(i).getBytes("UTF-8"));
+                //Half the lookups hit
+                if (i % 2 == 0)
+                    manifest.recordHash(hashes[i]);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            file.delete();
+        }
+
+        String nextHash() {
+            next = (next + 1) % hashes.length;
+            return hashes[next];
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean manifestLookup(Manifest manifest) {
+        return manifest.manifest.containsHash(manifest.nextHash());
+    }
+
+    /**
+     * Perceptual hashes of previously uploaded photos, in a BK-tree and in an array to scan.
+     */
+    @State(Scope.Benchmark)
+    public static class NearDuplicates {
+        @Param({"1000", "20000"})
+        public int entries;
+
+        public BkTree<Integer> tree;
+        public long[] hashes;
+        public int[] thumbnail;
+        private final Random random = new Random(7);
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            tree = new BkTree<>();
+            hashes = new long[entries];
+            for (int i = 0; i < entries; i++) {
+                hashes[i] = random.nextLong();
+                tree.add(hashes[i], i);
+            }
+            //About the size photos are decoded to for hashing
+            thumbnail = new int[48 * 36];
+            for (int i = 0; i < thumbnail.length; i++)
+                thumbnail[i] = random.nextInt();
+        }
+
+        long nextQuery() {
+            //Half the queries are a near copy of a stored hash
+            long hash = hashes[random.nextInt(entries)];
+            return random.nextBoolean() ? hash ^ (1L << random.nextInt(64)) : random.nextLong();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long dHash(NearDuplicates duplicates) {
+        return PerceptualHash.dHash(duplicates.thumbnail, 48, 36);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int nearDuplicateTree(NearDuplicates duplicates) {
+        return duplicates.tree.search(duplicates.nextQuery(), 4).size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int nearDuplicateScan(NearDuplicates duplicates) {
+        long query = duplicates.nextQuery();
+        int found = 0;
+        for (long hash : duplicates.hashes) {
+            if (PerceptualHash.distance(query, hash) <= 4)
+                found++;
+        }
+        return found;
+    }
+
+    /**
+     * A library of small photos on disk, put through the synchronisation's PhotoHasher one at
+     * a time or by a LibraryIndexer with a given number of workers.
+     */
+    @State(Scope.Benchmark)
+    public static class Library {
+        @Param({"1", "2", "4", "8"})
+        public int workers;
+
+        public List<MediaItem> items;
+        public LibraryIndexer indexer;
+        private UploadManifest manifest;
+        private BufferPool buffers;
+        private ForkJoinPool pool;
+        private File dir;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            Random random = new Random(5);
+            dir = File.createTempFile("library", "");
+            dir.delete();
+            dir.mkdirs();
+            items = new ArrayList<>();
+            byte[] photo = new byte[64 * 1024];
+            for (int i = 0; i < 500; i++) {
+                random.nextBytes(photo);
+                File file = new File(dir, i + ".jpg");
+                FileOutputStream out = new FileOutputStream(file);
+                try {
+                    out.write(photo);
+                } finally {
+                    out.close();
+                }
+                items.add(new MediaItem(i, file.getPath(), i, i));
+            }
+            manifest = UploadManifest.open(new File(dir, "manifest"));
+            buffers = new BufferPool(BufferPool.DEFAULT_MAX_BYTES);
+            pool = new ForkJoinPool(workers);
+            indexer = new LibraryIndexer(pool, workers);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+
+        /**
+         * Returns a hasher with an empty perceptual hash index, as on a first synchronisation.
+         */
+        PhotoHasher hasher() {
+            return new PhotoHasher(manifest, new PerceptualHashIndex(new File(dir, "index")),
+                    buffers, LIBRARY_DECODER);
+        }
+    }
+
+    //Stands in for BitmapFactory, which needs a device: hashes a 32x32 image of the photo's bytes
+    private static final PhotoHasher.Decoder LIBRARY_DECODER = new PhotoHasher.Decoder() {
+        @Override
+        public Long perceptualHash(byte[] data, int length) {
+            int[] pixels = new int[32 * 32];
+            for (int i = 0; i < pixels.length; i++)
+                pixels[i] = data[i % length];
+            return PerceptualHash.dHash(pixels, 32, 32);
+        }
+    };
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<String> indexSequential(Library library) throws IOException {
+        PhotoHasher hasher = library.hasher();
+        Semaphore io = new Semaphore(1);
+        List<String> hashes = new ArrayList<>();
+        for (MediaItem item : library.items)
+            hashes.add(hasher.index(item, io));
+        return hashes;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<String> indexParallel(Library library) {
+        return library.indexer.start(library.items, library.hasher(), null).await();
+    }
+
+    @State(Scope.Thread)
+    public static class Latencies {
+        public final Metrics metrics = new Metrics(null);
+        private long value = 1;
+
+        long next() {
+            value = value * 6364136223846793005L + 1442695040888963407L;
+            return (value >>> 1) % 100000000L;
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void metricsRecord(Latencies latencies) {
+        latencies.metrics.record(Metrics.CAPTURE_SAVE, latencies.next(), 1024);
+    }
+}
@@ -0,0 +1,44 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for choosing which grid cells to prefetch while scrolling.
+ */
+public class PrefetchPlannerTest {
+
+    // 4 columns, at least one row, half a second ahead
+    private final PrefetchPlanner planner = new PrefetchPlanner(4, 1, 500);
+
+    @Test
+    public void slowScroll_prefetchesOneRowAhead() {
+        assertArrayEquals(new int[] {24, 25, 26, 27}, planner.plan(8, 22, 100, 50, 200, 6));
+    }
+
+    @Test
+    public void fling_prefetchesFurther_upToMaxRows() {
+        //1600 px/s for half a second is 800 px, four rows of 200 px
+        assertEquals(4, planner.rows(1600, 200, 6));
+        assertEquals(16, planner.plan(8, 23, 100, 1600, 200, 6).length);
+        assertEquals(6, planner.rows(10000, 200, 6));
+    }
+
+    @Test
+    public void scrollUp_prefetchesRowsAbove_nearestFirst() {
+        assertArrayEquals(new int[] {7, 6, 5, 4}, planner.plan(9, 24, 100, -50, 200, 6));
+    }
+
+    @Test
+    public void endsOfGrid_limitThePlan() {
+        assertArrayEquals(new int[] {96, 97}, planner.plan(80, 95, 98, 1600, 200, 6));
+        assertEquals(0, planner.plan(0, 15, 98, -1600, 200, 6).length);
+    }
+
+    @Test
+    public void stoppedGrid_prefetchesNothing() {
+        assertEquals(0, planner.plan(8, 23, 100, 0, 200, 6).length);
+        assertEquals(0, planner.plan(-1, -1, 0, 100, 200, 6).length);
+    }
+}
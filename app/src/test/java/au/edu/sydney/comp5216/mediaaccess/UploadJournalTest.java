@@ -0,0 +1,70 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the upload journal.
+ */
+public class UploadJournalTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("journal", ".tsv");
+        file.delete();
+        file.deleteOnExit();
+    }
+
+    @Test
+    public void latestState_isRestored() {
+        UploadJournal journal = new UploadJournal(file);
+        UploadJob job = new UploadJob("images/a", new File("/a.jpg"), null, 0, 0);
+        journal.save(job);
+        job.setSessionUri("https://example.com/session?id=1");
+        job.setBytesTransferred(4096);
+        job.setAttempts(2);
+        journal.save(job);
+
+        List<UploadJob> restored = new UploadJournal(file).load();
+        assertEquals(1, restored.size());
+        assertEquals("images/a", restored.get(0).getObjectName());
+        assertEquals("https://example.com/session?id=1", restored.get(0).getSessionUri());
+        assertEquals(4096, restored.get(0).getBytesTransferred());
+        assertEquals(2, restored.get(0).getAttempts());
+    }
+
+    @Test
+    public void removedJobs_areNotRestored_andOrderIsKept() {
+        UploadJournal journal = new UploadJournal(file);
+        UploadJob a = new UploadJob("images/a", new File("/a.jpg"), null, 0, 0);
+        UploadJob b = new UploadJob("images/b", new File("/b.jpg"), null, 0, 1);
+        UploadJob c = new UploadJob("images/c", new File("/c.jpg"), null, 0, 2);
+        journal.save(a);
+        journal.save(b);
+        journal.save(c);
+        journal.remove(b);
+        a.setAttempts(1);
+        journal.save(a);
+
+        List<UploadJob> restored = new UploadJournal(file).load();
+        assertEquals(2, restored.size());
+        assertEquals("images/a", restored.get(0).getObjectName());
+        assertEquals(1, restored.get(0).getAttempts());
+        assertEquals("images/c", restored.get(1).getObjectName());
+    }
+
+    @Test
+    public void byteJobs_areNotJournaled() {
+        UploadJournal journal = new UploadJournal(file);
+        journal.save(new UploadJob("images/a", null, new byte[] {1}, 0, 0));
+        assertTrue(new UploadJournal(file).load().isEmpty());
+    }
+}
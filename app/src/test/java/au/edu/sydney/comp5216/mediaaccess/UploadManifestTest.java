@@ -0,0 +1,59 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the upload manifest.
+ */
+public class UploadManifestTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("manifest", ".tsv");
+        file.delete();
+        file.deleteOnExit();
+    }
+
+    @Test
+    public void unchangedImage_isUploaded() throws IOException {
+        UploadManifest manifest = new UploadManifest(file);
+        manifest.record(new MediaItem(7, "/a.jpg", 100, 0), "abc");
+
+        assertTrue(manifest.isUploaded(new MediaItem(7, "/a.jpg", 100, 0)));
+        assertFalse(manifest.isUploaded(new MediaItem(7, "/a.jpg", 101, 0)));
+        assertFalse(manifest.isUploaded(new MediaItem(8, "/b.jpg", 100, 0)));
+        assertTrue(manifest.containsHash("abc"));
+    }
+
+    @Test
+    public void records_surviveReload() throws IOException {
+        UploadManifest manifest = new UploadManifest(file);
+        manifest.record(new MediaItem(1, "/a.jpg", 10, 0), "aaa");
+        manifest.record(new MediaItem(1, "/a.jpg", 20, 0), "bbb");
+        manifest.recordHash("ccc");
+
+        UploadManifest reloaded = new UploadManifest(file);
+        reloaded.load();
+        assertTrue(reloaded.isUploaded(new MediaItem(1, "/a.jpg", 20, 0)));
+        assertFalse(reloaded.isUploaded(new MediaItem(1, "/a.jpg", 10, 0)));
+        assertTrue(reloaded.containsHash("aaa"));
+        assertTrue(reloaded.containsHash("ccc"));
+        assertEquals(3, reloaded.size());
+    }
+
+    @Test
+    public void objectName_isStableForContent() {
+        String hash = ContentHasher.sha256(new byte[] {1, 2, 3});
+        assertEquals(UploadManifest.objectName(hash),
+                UploadManifest.objectName(ContentHasher.sha256(new byte[] {1, 2, 3})));
+        assertEquals("images/" + hash, UploadManifest.objectName(hash));
+    }
+}
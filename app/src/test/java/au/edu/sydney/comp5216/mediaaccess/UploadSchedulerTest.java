@@ -0,0 +1,387 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the upload scheduler, run against stand-in storage backends.
+ */
+public class UploadSchedulerTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("scheduler", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Test
+    public void runsAtMostMaxParallel_inPriorityThenFifoOrder() {
+        ManualBackend backend = new ManualBackend();
+        UploadScheduler scheduler = new UploadScheduler(backend, 2,
+                new UploadJournal(new File(dir, "journal")), DIRECT);
+
+        scheduler.enqueue("images/a", new byte[] {1}, UploadScheduler.PRIORITY_SYNC, null);
+        scheduler.enqueue("images/b", new byte[] {2}, UploadScheduler.PRIORITY_SYNC, null);
+        scheduler.enqueue("images/c", new byte[] {3}, UploadScheduler.PRIORITY_SYNC, null);
+        scheduler.enqueue("images/d", new byte[] {4}, UploadScheduler.PRIORITY_CAPTURE, null);
+
+        assertEquals(2, scheduler.getRunningCount());
+        assertEquals(2, scheduler.getPendingCount());
+        assertEquals("images/a", backend.started.get(0));
+        assertEquals("images/b", backend.started.get(1));
+
+        backend.callbacks.get(0).onSuccess();
+        assertEquals("images/d", backend.started.get(2));
+        backend.callbacks.get(1).onSuccess();
+        assertEquals("images/c", backend.started.get(3));
+        assertEquals(2, scheduler.getRunningCount());
+    }
+
+    @Test
+    public void uploadedListener_runsForEverySuccess() {
+        ManualBackend backend = new ManualBackend();
+        UploadScheduler scheduler = new UploadScheduler(backend, 2,
+                new UploadJournal(new File(dir, "journal")), DIRECT);
+        final List<Integer> uploaded = new ArrayList<>();
+        scheduler.setUploadedListener(new Runnable() {
+            @Override
+            public void run() {
+                uploaded.add(uploaded.size());
+            }
+        });
+
+        scheduler.enqueue("images/a", new byte[] {1}, UploadScheduler.PRIORITY_CAPTURE, null);
+        scheduler.enqueue("images/b", new byte[] {2}, UploadScheduler.PRIORITY_SYNC, null);
+        backend.callbacks.get(0).onFailure(new IOException("network"));
+        assertTrue(uploaded.isEmpty());
+        backend.callbacks.get(1).onSuccess();
+        assertEquals(1, uploaded.size());
+    }
+
+    @Test
+    public void failedUpload_isRetried_fromItsSession() throws InterruptedException {
+        ManualBackend backend = new ManualBackend();
+        UploadScheduler scheduler = new UploadScheduler(backend, 1,
+                new UploadJournal(new File(dir, "journal")), DIRECT);
+        scheduler.setRetryDelays(1, 1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        scheduler.enqueue("images/a", new File(dir, "a.jpg"), UploadScheduler.PRIORITY_SYNC,
+                new CountingListener(done));
+        backend.callbacks.get(0).onProgress(10, 100, "session-1");
+        backend.callbacks.get(0).onFailure(new IOException("network"));
+
+        backend.awaitStarted(2);
+        assertEquals("session-1", backend.sessions.get(1));
+        backend.callbacks.get(1).onSuccess();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void unfinishedUploads_areRestoredFromJournal() throws IOException {
+        File file = new File(dir, "a.jpg");
+        write(file, 16);
+        UploadJournal journal = new UploadJournal(new File(dir, "journal"));
+        ManualBackend backend = new ManualBackend();
+        UploadScheduler scheduler = new UploadScheduler(backend, 1, journal, DIRECT);
+        scheduler.enqueue("images/a", file, UploadScheduler.PRIORITY_SYNC, null);
+        backend.callbacks.get(0).onProgress(8, 16, "session-1");
+
+        //Process killed here; a new scheduler replays the journal
+        ManualBackend restarted = new ManualBackend();
+        UploadScheduler restored = new UploadScheduler(restarted, 1,
+                new UploadJournal(new File(dir, "journal")), DIRECT);
+        restored.restore(new UploadManifest(new File(dir, "manifest")));
+        assertEquals("images/a", restarted.started.get(0));
+        assertEquals("session-1", restarted.sessions.get(0));
+    }
+
+    @Test
+    public void restoredUploads_keepFifoOrder_withNewOnes() throws IOException {
+        UploadJournal journal = new UploadJournal(new File(dir, "journal"));
+        ManualBackend backend = new ManualBackend();
+        UploadScheduler scheduler = new UploadScheduler(backend, 1, journal, DIRECT);
+        for (String name : new String[] {"a", "b", "c", "d"}) {
+            File file = new File(dir, name + ".jpg");
+            write(file, 16);
+            scheduler.enqueue("images/" + name, file, UploadScheduler.PRIORITY_SYNC, null);
+        }
+        backend.callbacks.get(0).onSuccess();
+        backend.callbacks.get(1).onSuccess();
+
+        //Process killed here; c and d are restored behind the two finished jobs
+        ManualBackend restarted = new ManualBackend();
+        UploadScheduler restored = new UploadScheduler(restarted, 1,
+                new UploadJournal(new File(dir, "journal")), DIRECT);
+        restored.restore(new UploadManifest(new File(dir, "manifest")));
+        File file = new File(dir, "e.jpg");
+        write(file, 16);
+        restored.enqueue("images/e", file, UploadScheduler.PRIORITY_SYNC, null);
+
+        assertEquals("images/c", restarted.started.get(0));
+        restarted.callbacks.get(0).onSuccess();
+        assertEquals("images/d", restarted.started.get(1));
+        restarted.callbacks.get(1).onSuccess();
+        assertEquals("images/e", restarted.started.get(2));
+    }
+
+    @Test
+    public void localBackend_storesAndListsObjects() throws Exception {
+        LocalStorageBackend backend = new LocalStorageBackend(new File(dir, "bucket"), 0, 0, 2);
+        UploadScheduler scheduler = new UploadScheduler(backend, 2,
+                new UploadJournal(new File(dir, "journal")), DIRECT);
+        CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            File file = new File(dir, i + ".jpg");
+            write(file, 100000 + i);
+            scheduler.enqueue("images/" + i, file, UploadScheduler.PRIORITY_SYNC, new CountingListener(done));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(100001, backend.getFile("images/1").length());
+
+        final List<String> names = new ArrayList<>();
+        final String[] token = new String[1];
+        final CountDownLatch listed = new CountDownLatch(1);
+        backend.list("images/", 2, null, new StorageBackend.ListCallback() {
+            @Override
+            public void onSuccess(List<String> page, String nextPageToken) {
+                names.addAll(page);
+                token[0] = nextPageToken;
+                listed.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+            }
+        });
+        assertTrue(listed.await(1, TimeUnit.SECONDS));
+        assertEquals(2, names.size());
+        assertEquals("images/0", names.get(0));
+        assertNotNull(token[0]);
+        backend.shutdown();
+    }
+
+    private static void write(File file, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void uploads_waitForConstraints() {
+        ManualBackend backend = new ManualBackend();
+        UploadScheduler scheduler = new UploadScheduler(backend, 2,
+                new UploadJournal(new File(dir, "journal")), DIRECT);
+        FakeSource source = new FakeSource();
+        source.unmetered = false;
+        scheduler.setConstraints(UploadConstraints.DEFAULT, source);
+
+        scheduler.enqueue("images/a", new byte[] {1}, UploadScheduler.PRIORITY_SYNC, null);
+        scheduler.enqueue("images/b", new byte[] {2}, UploadScheduler.PRIORITY_CAPTURE, null);
+        assertEquals(0, scheduler.getRunningCount());
+        assertEquals("an unmetered network", scheduler.getWaitingFor());
+
+        source.unmetered = true;
+        source.batteryPercent = 10;
+        source.changed();
+        assertEquals(0, scheduler.getRunningCount());
+        assertEquals("the battery to charge", scheduler.getWaitingFor());
+
+        source.charging = true;
+        source.changed();
+        assertNull(scheduler.getWaitingFor());
+        assertEquals(2, scheduler.getRunningCount());
+        assertEquals("images/b", backend.started.get(0));
+    }
+
+    @Test
+    public void constraints_describeWhatIsMissing() {
+        FakeSource source = new FakeSource();
+        UploadConstraints charging = new UploadConstraints(false, true, 0);
+        assertEquals("the device to charge", charging.waitingFor(source));
+        source.charging = true;
+        assertTrue(charging.isSatisfiedBy(source));
+        source.connected = false;
+        assertEquals("a network connection", UploadConstraints.NONE.waitingFor(source));
+    }
+
+    @Test
+    public void uploads_startTogetherOnceBatchIsFull() {
+        ManualBackend backend = new ManualBackend();
+        UploadScheduler scheduler = new UploadScheduler(backend, 3,
+                new UploadJournal(new File(dir, "journal")), DIRECT);
+        scheduler.setBatching(3, 60000);
+
+        scheduler.enqueue("images/a", new byte[] {1}, UploadScheduler.PRIORITY_SYNC, null);
+        scheduler.enqueue("images/b", new byte[] {2}, UploadScheduler.PRIORITY_SYNC, null);
+        assertEquals(0, scheduler.getRunningCount());
+        scheduler.enqueue("images/c", new byte[] {3}, UploadScheduler.PRIORITY_SYNC, null);
+        assertEquals(3, scheduler.getRunningCount());
+
+        //The queue emptied, so the next upload waits for a new batch unless it is a capture
+        scheduler.enqueue("images/d", new byte[] {4}, UploadScheduler.PRIORITY_SYNC, null);
+        assertEquals(3, scheduler.getRunningCount());
+        backend.callbacks.get(0).onSuccess();
+        assertEquals(2, scheduler.getRunningCount());
+        scheduler.enqueue("images/e", new byte[] {5}, UploadScheduler.PRIORITY_CAPTURE, null);
+        assertEquals(3, scheduler.getRunningCount());
+        assertEquals("images/e", backend.started.get(3));
+    }
+
+    @Test
+    public void partialBatch_startsAfterMaxDelay() throws InterruptedException {
+        ManualBackend backend = new ManualBackend();
+        UploadScheduler scheduler = new UploadScheduler(backend, 3,
+                new UploadJournal(new File(dir, "journal")), DIRECT);
+        scheduler.setBatching(10, 50);
+        scheduler.enqueue("images/a", new byte[] {1}, UploadScheduler.PRIORITY_SYNC, null);
+        assertEquals(0, scheduler.getRunningCount());
+        backend.awaitStarted(1);
+    }
+
+    @Test
+    public void flush_startsPartialBatch() {
+        ManualBackend backend = new ManualBackend();
+        UploadScheduler scheduler = new UploadScheduler(backend, 3,
+                new UploadJournal(new File(dir, "journal")), DIRECT);
+        scheduler.setBatching(10, 60000);
+        scheduler.flush();
+        scheduler.enqueue("images/a", new byte[] {1}, UploadScheduler.PRIORITY_SYNC, null);
+        scheduler.enqueue("images/b", new byte[] {2}, UploadScheduler.PRIORITY_SYNC, null);
+        assertEquals(0, scheduler.getRunningCount());
+
+        scheduler.flush();
+        assertEquals(2, scheduler.getRunningCount());
+        assertEquals("images/a", backend.started.get(0));
+    }
+
+    /**
+     * Backend whose uploads are completed by the test.
+     */
+    private static class ManualBackend implements StorageBackend {
+
+        final List<String> started = new ArrayList<>();
+        final List<String> sessions = new ArrayList<>();
+        final List<UploadCallback> callbacks = new ArrayList<>();
+
+        @Override
+        public synchronized void putBytes(String name, byte[] bytes, UploadCallback callback) {
+            putFile(name, null, null, callback);
+        }
+
+        @Override
+        public synchronized void putFile(String name, File file, String sessionUri, UploadCallback callback) {
+            started.add(name);
+            sessions.add(sessionUri);
+            callbacks.add(callback);
+            notifyAll();
+        }
+
+        @Override
+        public void list(String prefix, int maxResults, String pageToken, ListCallback callback) {
+        }
+
+        @Override
+        public void getMetadata(String name, MetadataCallback callback) {
+        }
+
+        @Override
+        public void getBytes(String name, long maxBytes, DownloadCallback callback) {
+        }
+
+        synchronized void awaitStarted(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 1000;
+            while (started.size() < count && System.currentTimeMillis() < end) {
+                wait(100);
+            }
+            assertEquals(count, started.size());
+        }
+    }
+
+    /**
+     * Device state set by the test.
+     */
+    private static class FakeSource implements UploadConstraints.Source {
+
+        boolean connected = true;
+        boolean unmetered = true;
+        boolean charging;
+        int batteryPercent = 100;
+        private Runnable listener;
+
+        void changed() {
+            listener.run();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public boolean isUnmetered() {
+            return unmetered;
+        }
+
+        @Override
+        public boolean isCharging() {
+            return charging;
+        }
+
+        @Override
+        public int getBatteryPercent() {
+            return batteryPercent;
+        }
+
+        @Override
+        public void setListener(Runnable listener) {
+            this.listener = listener;
+        }
+    }
+
+    private static class CountingListener implements UploadScheduler.UploadListener {
+
+        private final CountDownLatch done;
+
+        CountingListener(CountDownLatch done) {
+            this.done = done;
+        }
+
+        @Override
+        public void onProgress(UploadJob job, long bytesTransferred, long totalBytes) {
+        }
+
+        @Override
+        public void onSuccess(UploadJob job) {
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(UploadJob job, Exception e) {
+        }
+    }
+}
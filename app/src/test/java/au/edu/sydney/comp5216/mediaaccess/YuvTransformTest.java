@@ -0,0 +1,218 @@
+package au.edu.sydney.comp5216.mediaaccess;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for rotating and mirroring YUV frames into NV21, on synthetic frames.
+ */
+public class YuvTransformTest {
+
+    private static final int WIDTH = 6;
+    private static final int HEIGHT = 4;
+
+    @Test
+    public void sizes_swapForQuarterTurns() {
+        assertEquals(6, YuvTransform.rotatedWidth(6, 4, 0));
+        assertEquals(4, YuvTransform.rotatedWidth(6, 4, 90));
+        assertEquals(6, YuvTransform.rotatedHeight(6, 4, 90));
+        assertEquals(4, YuvTransform.rotatedHeight(6, 4, 180));
+        assertEquals(6, YuvTransform.rotatedHeight(6, 4, -90));
+        assertEquals(36, YuvTransform.nv21Size(6, 4));
+    }
+
+    @Test
+    public void noRotation_copiesPlanesIntoNv21() {
+        Frame frame = new Frame(WIDTH, HEIGHT, WIDTH, 1, WIDTH / 2);
+        byte[] out = new byte[YuvTransform.nv21Size(WIDTH, HEIGHT)];
+        frame.convert(0, false, out);
+        for (int i = 0; i < WIDTH * HEIGHT; i++)
+            assertEquals(frame.luma(i % WIDTH, i / WIDTH), out[i]);
+        int ySize = WIDTH * HEIGHT;
+        assertEquals(frame.cr(0, 0), out[ySize]);
+        assertEquals(frame.cb(0, 0), out[ySize + 1]);
+        assertEquals(frame.cr(2, 1), out[ySize + 2 * (WIDTH / 2) + 4]);
+        assertEquals(frame.cb(2, 1), out[ySize + 2 * (WIDTH / 2) + 5]);
+    }
+
+    @Test
+    public void quarterTurnMirrored_isTranspose() {
+        //The front camera's photos are rotated 90 degrees and mirrored, which swaps x and y
+        Frame frame = new Frame(WIDTH, HEIGHT, WIDTH + 2, 1, WIDTH / 2 + 1);
+        byte[] out = new byte[YuvTransform.nv21Size(HEIGHT, WIDTH)];
+        frame.convert(90, true, out);
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < HEIGHT; x++)
+                assertEquals(frame.luma(y, x), out[y * HEIGHT + x]);
+        }
+        int ySize = WIDTH * HEIGHT;
+        for (int y = 0; y < WIDTH / 2; y++) {
+            for (int x = 0; x < HEIGHT / 2; x++) {
+                int i = ySize + 2 * (y * (HEIGHT / 2) + x);
+                assertEquals(frame.cr(y, x), out[i]);
+                assertEquals(frame.cb(y, x), out[i + 1]);
+            }
+        }
+    }
+
+    @Test
+    public void everyRotation_matchesReference() {
+        for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+            Frame frame = new Frame(WIDTH, HEIGHT, WIDTH + 4, pixelStride,
+                    pixelStride * (WIDTH / 2) + 3);
+            for (int rotation = 0; rotation < 360; rotation += 90) {
+                for (int m = 0; m < 2; m++) {
+                    boolean mirror = m == 1;
+                    int outWidth = YuvTransform.rotatedWidth(WIDTH, HEIGHT, rotation);
+                    int outHeight = YuvTransform.rotatedHeight(WIDTH, HEIGHT, rotation);
+                    byte[] out = new byte[YuvTransform.nv21Size(outWidth, outHeight)];
+                    frame.convert(rotation, mirror, out);
+                    assertArrayEquals("rotation " + rotation + " mirror " + mirror
+                            + " pixel stride " + pixelStride,
+                            frame.reference(rotation, mirror), out);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void semiPlanarChroma_readsInterleavedPlanes() {
+        //Many devices give U and V as views one byte apart into the same interleaved buffer
+        int width = 4;
+        int height = 2;
+        ByteBuffer y = ByteBuffer.allocateDirect(width * height);
+        for (int i = 0; i < width * height; i++)
+            y.put(i, (byte) i);
+        ByteBuffer uv = ByteBuffer.allocateDirect(width);
+        uv.put(new byte[] {10, 20, 11, 21});
+        ByteBuffer u = (ByteBuffer) uv.duplicate().position(0);
+        ByteBuffer v = ((ByteBuffer) uv.duplicate().position(1)).slice();
+        byte[] out = new byte[YuvTransform.nv21Size(width, height)];
+        YuvTransform.toNv21(y, width, 1, u, v, width, 2, width, height, 0, false, out);
+        assertArrayEquals(new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 20, 10, 21, 11}, out);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddSize_isRejected() {
+        Frame frame = new Frame(WIDTH, HEIGHT, WIDTH, 1, WIDTH / 2);
+        YuvTransform.toNv21(frame.y, WIDTH, 1, frame.u, frame.v, WIDTH / 2, 1,
+                5, HEIGHT, 0, false, new byte[100]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void smallOutput_isRejected() {
+        new Frame(WIDTH, HEIGHT, WIDTH, 1, WIDTH / 2).convert(90, true, new byte[10]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddRotation_isRejected() {
+        new Frame(WIDTH, HEIGHT, WIDTH, 1, WIDTH / 2).convert(45, false, new byte[100]);
+    }
+
+    /**
+     * A synthetic frame in direct buffers, with padded rows, where every sample is distinct.
+     */
+    private static class Frame {
+        final int width;
+        final int height;
+        final int yRowStride;
+        final int uvPixelStride;
+        final int uvRowStride;
+        final ByteBuffer y;
+        final ByteBuffer u;
+        final ByteBuffer v;
+
+        Frame(int width, int height, int yRowStride, int uvPixelStride, int uvRowStride) {
+            this.width = width;
+            this.height = height;
+            this.yRowStride = yRowStride;
+            this.uvPixelStride = uvPixelStride;
+            this.uvRowStride = uvRowStride;
+            y = ByteBuffer.allocateDirect(yRowStride * height);
+            u = ByteBuffer.allocateDirect(uvRowStride * (height / 2));
+            v = ByteBuffer.allocateDirect(uvRowStride * (height / 2));
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++)
+                    y.put(row * yRowStride + col, luma(col, row));
+            }
+            for (int row = 0; row < height / 2; row++) {
+                for (int col = 0; col < width / 2; col++) {
+                    u.put(row * uvRowStride + col * uvPixelStride, cb(col, row));
+                    v.put(row * uvRowStride + col * uvPixelStride, cr(col, row));
+                }
+            }
+        }
+
+        byte luma(int x, int y) {
+            return (byte) (y * width + x);
+        }
+
+        byte cb(int x, int y) {
+            return (byte) (100 + y * width + x);
+        }
+
+        byte cr(int x, int y) {
+            return (byte) (-100 + y * width + x);
+        }
+
+        void convert(int rotation, boolean mirror, byte[] out) {
+            YuvTransform.toNv21(y, yRowStride, 1, u, v, uvRowStride, uvPixelStride,
+                    width, height, rotation, mirror, out);
+        }
+
+        /**
+         * Builds the expected NV21 frame one pixel at a time, by rotating each source pixel
+         * forwards and then mirroring it.
+         */
+        byte[] reference(int rotation, boolean mirror) {
+            int outWidth = YuvTransform.rotatedWidth(width, height, rotation);
+            int outHeight = YuvTransform.rotatedHeight(width, height, rotation);
+            byte[] out = new byte[YuvTransform.nv21Size(outWidth, outHeight)];
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    int[] to = rotate(col, row, width, height, rotation, mirror);
+                    out[to[1] * outWidth + to[0]] = luma(col, row);
+                }
+            }
+            int ySize = outWidth * outHeight;
+            for (int row = 0; row < height / 2; row++) {
+                for (int col = 0; col < width / 2; col++) {
+                    int[] to = rotate(col, row, width / 2, height / 2, rotation, mirror);
+                    int i = ySize + 2 * (to[1] * (outWidth / 2) + to[0]);
+                    out[i] = cr(col, row);
+                    out[i + 1] = cb(col, row);
+                }
+            }
+            return out;
+        }
+
+        private static int[] rotate(int x, int y, int width, int height, int rotation,
+                                    boolean mirror) {
+            int outWidth = rotation % 180 == 0 ? width : height;
+            int rx;
+            int ry;
+            switch (rotation) {
+                case 90:
+                    rx = height - 1 - y;
+                    ry = x;
+                    break;
+                case 180:
+                    rx = width - 1 - x;
+                    ry = height - 1 - y;
+                    break;
+                case 270:
+                    rx = y;
+                    ry = width - 1 - x;
+                    break;
+                default:
+                    rx = x;
+                    ry = y;
+                    break;
+            }
+            return new int[] {mirror ? outWidth - 1 - rx : rx, ry};
+        }
+    }
+}